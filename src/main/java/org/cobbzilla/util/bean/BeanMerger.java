@@ -1,15 +1,11 @@
 package org.cobbzilla.util.bean;
 
-import org.apache.commons.beanutils.PropertyUtilsBean;
-
-import java.beans.PropertyDescriptor;
+import org.cobbzilla.util.reflect.BeanCopier;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 
 public class BeanMerger {
 
-    private static final PropertyUtilsBean propertyUtils = new PropertyUtilsBean();
-
     public static void mergeProperties(Object dest, Object orig) {
         merge(dest, orig, AlwaysCopy.INSTANCE);
     }
@@ -23,24 +19,17 @@ public class BeanMerger {
         if (dest == null) throw new IllegalArgumentException ("No destination bean specified");
         if (orig == null) throw new IllegalArgumentException("No origin bean specified");
 
-        PropertyDescriptor[] origDescriptors = propertyUtils.getPropertyDescriptors(orig);
-        for (PropertyDescriptor origDescriptor : origDescriptors) {
-            String name = origDescriptor.getName();
-            if ("class".equals(name)) {
-                continue; // No point in trying to set an object's class
-            }
-            if (propertyUtils.isReadable(orig, name) &&
-                    propertyUtils.isWriteable(dest, name)) {
-                try {
-                    Object value = propertyUtils.getSimpleProperty(orig, name);
-                    if (evaluator.shouldCopy(name, value)) {
-                        propertyUtils.setProperty(dest, name, value);
-                    }
-                } catch (NoSuchMethodException e) {
-                    // Should not happen
-                } catch (Exception e) {
-                    die("Error copying properties: " + e, e);
+        // readable/writeable properties are resolved once per pair of classes
+        for (BeanCopier.Property property : BeanCopier.merger(orig.getClass(), dest.getClass()).getProperties()) {
+            try {
+                final Object value = property.get(orig);
+                if (evaluator.shouldCopy(property.getName(), value)) {
+                    property.set(dest, value);
                 }
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                die("Error copying properties: " + e, e instanceof Exception ? (Exception) e : null);
             }
         }
     }
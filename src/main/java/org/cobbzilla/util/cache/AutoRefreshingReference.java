@@ -1,43 +1,132 @@
 package org.cobbzilla.util.cache;
 
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.now;
 
+/**
+ * A cached value that is refreshed when it is older than getTimeout() milliseconds.
+ *
+ * Reads of a fresh value take no lock. When the value expires, exactly one caller runs refresh(); other callers
+ * meanwhile get the old value, unless it is older than getHardTimeout(), in which case they wait for the refresh.
+ * If refresh() throws, the last good value continues to be served (the exception is thrown only if there is no value).
+ */
+@Slf4j
 public abstract class AutoRefreshingReference<T> {
 
     @Getter private final AtomicReference<T> object = new AtomicReference<>();
     @Getter private final AtomicLong lastSet = new AtomicLong();
 
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final Object refreshLock = new Object();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong refreshNanos = new AtomicLong();
+    private final AtomicLong maxRefreshNanos = new AtomicLong();
+
     public abstract T refresh();
     public abstract long getTimeout();
 
+    /**
+     * @return milliseconds after which a value is too old to be returned while another thread refreshes it.
+     * by default, twice the timeout
+     */
+    public long getHardTimeout() { return 2 * getTimeout(); }
+
+    public long getHits() { return hits.get(); }
+    public long getStaleHits() { return staleHits.get(); }
+    public long getRefreshes() { return refreshes.get(); }
+    public long getFailures() { return failures.get(); }
+    public long getMaxRefreshMillis() { return TimeUnit.NANOSECONDS.toMillis(maxRefreshNanos.get()); }
+    public double getAverageRefreshMillis() {
+        final long count = refreshes.get();
+        return count == 0 ? 0 : refreshNanos.get() / (count * 1_000_000.0);
+    }
+
     public T get() {
-        synchronized (object) {
-            if (isEmpty() || now() - lastSet.get() > getTimeout()) update();
+        final T value = object.get();
+        final long age = now() - lastSet.get();
+        if (value != null && age <= getTimeout()) {
+            hits.incrementAndGet();
+            return value;
+        }
+
+        if (refreshing.compareAndSet(false, true)) {
+            try {
+                update();
+            } catch (RuntimeException e) {
+                if (object.get() == null) throw e;
+                log.warn("get: refresh failed, returning last value: "+e);
+            } finally {
+                synchronized (refreshLock) {
+                    refreshing.set(false);
+                    refreshLock.notifyAll();
+                }
+            }
             return object.get();
         }
+
+        // another thread is refreshing
+        if (value != null && age <= getHardTimeout()) {
+            staleHits.incrementAndGet();
+            return value;
+        }
+        synchronized (refreshLock) {
+            while (refreshing.get()) {
+                try {
+                    refreshLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return object.get();
     }
 
-    public boolean isEmpty() { synchronized (object) { return object.get() == null; } }
+    public boolean isEmpty() { return object.get() == null; }
 
     public void update() {
-        synchronized (object) {
-            object.set(refresh());
-            lastSet.set(now());
+        final long start = System.nanoTime();
+        final T value;
+        try {
+            value = refresh();
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            throw e;
         }
+        refreshed(start);
+        set(value);
     }
 
+    /**
+     * Record a successful refresh
+     * @param start when the refresh started, from System.nanoTime()
+     */
+    protected void refreshed(long start) {
+        final long elapsed = System.nanoTime() - start;
+        refreshes.incrementAndGet();
+        refreshNanos.addAndGet(elapsed);
+        maxRefreshNanos.accumulateAndGet(elapsed, Math::max);
+    }
+
+    protected void refreshFailed() { failures.incrementAndGet(); }
+
     public void flush() { set(null); }
 
     public void set(T thing) {
-        synchronized (object) {
-            object.set(thing);
-            lastSet.set(now());
-        }
+        // lastSet is written first, so a reader that sees the new object also sees its time
+        lastSet.set(now());
+        object.set(thing);
     }
 
 }
@@ -1,52 +1,82 @@
 package org.cobbzilla.util.cache;
 
 import lombok.extern.slf4j.Slf4j;
-import org.cobbzilla.util.system.Sleep;
 
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+
+/**
+ * An AutoRefreshingReference that refreshes in the background, on the shared RefreshScheduler, and never blocks
+ * readers (until there is a first value, get() returns null).
+ *
+ * After a successful refresh, if the value has been read since the previous refresh, the next refresh is scheduled
+ * ahead of expiry, at getRefreshAhead() of the timeout. References that are not read are not refreshed until the
+ * next read after they expire. Failed refreshes are retried with exponential backoff. Intervals are jittered by
+ * getJitter(), so that references created together do not refresh together.
+ */
 @Slf4j
 public abstract class BackgroundRefreshingReference<T> extends AutoRefreshingReference<T> {
 
+    public static final long MAX_BACKOFF = TimeUnit.SECONDS.toMillis(64);
+
     private final AtomicBoolean updateInProgress = new AtomicBoolean(false);
-    private final Refresher refresher = new Refresher();
     private final AtomicInteger errorCount = new AtomicInteger(0);
+    private final AtomicLong lastRead = new AtomicLong(0);
+    private final AtomicLong lastRefresh = new AtomicLong(0);
 
     public boolean initialize () { return true; }
 
+    /** @return when to refresh ahead of expiry, as a fraction of the timeout. 0 or 1 or more to disable */
+    public double getRefreshAhead () { return 0.8; }
+
+    /** @return how much refresh and retry delays are randomly varied, as a fraction of the delay */
+    public double getJitter () { return 0.1; }
+
+    public RefreshScheduler getScheduler () { return RefreshScheduler.instance; }
+
     public BackgroundRefreshingReference() {
         if (initialize()) update();
     }
 
+    @Override public T get() {
+        lastRead.set(now());
+        return super.get();
+    }
+
     @Override public void update() {
-        synchronized (updateInProgress) {
-            if (updateInProgress.get()) return;
-            updateInProgress.set(true);
-            new Thread(refresher).start();
-        }
+        if (updateInProgress.compareAndSet(false, true)) schedule(0);
     }
 
-    private class Refresher implements Runnable {
-        @Override public void run() {
-            try {
-                int errCount = errorCount.get();
-                if (errCount > 0) {
-                    Sleep.sleep(TimeUnit.SECONDS.toMillis(1) * (long) Math.pow(2, Math.min(errCount, 6)));
-                }
-                set(refresh());
-                errorCount.set(0);
-
-            } catch (Exception e) {
-                log.warn("error refreshing: "+e);
-                errorCount.incrementAndGet();
-
-            } finally {
-                synchronized (updateInProgress) {
-                    updateInProgress.set(false);
-                }
-            }
+    private void schedule(long delay) { getScheduler().schedule(this::refreshNow, RefreshScheduler.jitter(delay, getJitter())); }
+
+    private void refreshNow() {
+        final long start = System.nanoTime();
+        try {
+            final T value = refresh();
+            refreshed(start);
+            set(value);
+            errorCount.set(0);
+
+        } catch (Exception e) {
+            refreshFailed();
+            final int errCount = errorCount.incrementAndGet();
+            final long backoff = Math.min(MAX_BACKOFF, TimeUnit.SECONDS.toMillis(1) * (long) Math.pow(2, Math.min(errCount, 6)));
+            log.warn("error refreshing (retrying in "+backoff+"ms): "+e);
+            schedule(backoff);
+            return;
+        }
+
+        final boolean wasRead = lastRead.get() >= lastRefresh.getAndSet(now());
+        final double ahead = getRefreshAhead();
+        if (wasRead && ahead > 0 && ahead < 1) {
+            schedule((long) (getTimeout() * ahead));
+        } else {
+            updateInProgress.set(false);
         }
     }
+
 }
@@ -0,0 +1,67 @@
+package org.cobbzilla.util.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.daemon.ExecutorRegistry;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.envInt;
+
+/**
+ * Runs the refreshes of all BackgroundRefreshingReferences on one bounded scheduled pool.
+ * Refreshes run on the pool's threads, so the pool size is also the limit on concurrent refreshes.
+ * The pool comes from ExecutorRegistry, so its stats are listed with those of every other pool.
+ */
+@Slf4j
+public class RefreshScheduler {
+
+    public static final String ENV_MAX_CONCURRENT = "BACKGROUND_REFRESH_MAX_CONCURRENT";
+    public static final int DEFAULT_MAX_CONCURRENT = 4;
+
+    public static final RefreshScheduler instance = new RefreshScheduler(envInt(ENV_MAX_CONCURRENT, DEFAULT_MAX_CONCURRENT));
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public RefreshScheduler(int maxConcurrent) {
+        scheduler = ExecutorRegistry.instance.newScheduledPool("background-refresh", maxConcurrent);
+    }
+
+    public int getMaxConcurrent() { return scheduler.getCorePoolSize(); }
+    public long getScheduled() { return scheduled.get(); }
+    public long getCompleted() { return completed.get(); }
+    public int getInFlight() { return inFlight.get(); }
+    public int getPending() { return scheduler.getQueue().size(); }
+
+    public ScheduledFuture<?> schedule(Runnable refresh, long delay) {
+        scheduled.incrementAndGet();
+        return scheduler.schedule(() -> {
+            inFlight.incrementAndGet();
+            try {
+                refresh.run();
+            } catch (Exception e) {
+                log.warn("schedule: uncaught error in refresh: "+e, e);
+            } finally {
+                inFlight.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return delay, randomly changed by up to (jitter * delay) in either direction
+     */
+    public static long jitter(long delay, double jitter) {
+        if (delay <= 0 || jitter <= 0) return delay;
+        return (long) (delay + delay * jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1));
+    }
+
+}
@@ -14,14 +14,27 @@ public class AwaitResult<T> {
 
     @Getter private Map<Future, Exception> failures = new HashMap<>();
     public void fail(Future f, Exception e) { failures.put(f, e); }
-    public int numFails () { return failures.size(); }
+    public int numFails () { return failures.size() + otherFailures.size(); }
+
+    // failures and timeouts of work that was not done as a Future (see FilesystemWalker)
+    @Getter private List<Exception> otherFailures = new ArrayList<>();
+    public void fail(Exception e) { otherFailures.add(e); }
+
+    @Getter private int otherTimeouts = 0;
+    public void timeout () { otherTimeouts++; }
 
     @Getter private List<Future> timeouts = new ArrayList<>();
     public void timeout (Collection<Future<?>> timedOut) { timeouts.addAll(timedOut); }
-    public boolean timedOut() { return !timeouts.isEmpty(); }
-    public int numTimeouts () { return timeouts.size(); }
+    public boolean timedOut() { return numTimeouts() > 0; }
+    public int numTimeouts () { return timeouts.size() + otherTimeouts; }
 
-    public boolean allSucceeded() { return failures.isEmpty() && timeouts.isEmpty(); }
+    public boolean allSucceeded() { return numFails() == 0 && !timedOut(); }
+
+    @JsonIgnore public List<Exception> getAllFailures() {
+        final List<Exception> all = new ArrayList<>(failures.values());
+        all.addAll(otherFailures);
+        return all;
+    }
 
     @JsonIgnore public List<T> getNotNullSuccesses() {
         final List<T> ok = new ArrayList<>();
@@ -31,8 +44,8 @@ public class AwaitResult<T> {
 
     public String toString() {
         return "successes=" + successes.size()
-                + ", failures=" + failures.size()
-                + ", timeouts=" + timeouts.size();
+                + ", failures=" + numFails()
+                + ", timeouts=" + numTimeouts();
     }
 
 }
@@ -1,18 +1,28 @@
 package org.cobbzilla.util.daemon;
 
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public class DaemonThreadFactory implements ThreadFactory {
 
     public static final DaemonThreadFactory instance = new DaemonThreadFactory();
 
+    // if set, threads are named prefix-1, prefix-2, ...
+    @Getter private final String prefix;
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    public DaemonThreadFactory() { this(null); }
+
+    public DaemonThreadFactory(String prefix) { this.prefix = prefix; }
+
     @Override public Thread newThread(Runnable r) {
-        final Thread t = new Thread(r);
+        final Thread t = prefix == null ? new Thread(r) : new Thread(r, prefix+"-"+counter.incrementAndGet());
         t.setDaemon(true);
         return t;
     }
@@ -25,4 +35,9 @@ public class DaemonThreadFactory implements ThreadFactory {
         return Executors.newFixedThreadPool(count, instance);
     }
 
+    /**
+     * @return a new named, instrumented pool, registered with ExecutorRegistry until it terminates
+     */
+    public static ExecutorService fixedPool (String name, int count) { return ExecutorRegistry.instance.newPool(name, count); }
+
 }
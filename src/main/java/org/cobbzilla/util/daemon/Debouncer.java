@@ -0,0 +1,195 @@
+package org.cobbzilla.util.daemon;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.envInt;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+
+/**
+ * Collects items and passes them to a sink in batches, once no item has been added for quietPeriod milliseconds,
+ * but no later than maxLatency milliseconds after the first item in the batch (if maxLatency is greater than zero),
+ * or as soon as the batch holds maxItems items (if maxItems is greater than zero).
+ *
+ * Items with the same key are merged, so each batch has at most one item per key. If merge returns null, the item
+ * is removed from the batch.
+ *
+ * No threads are used while idle: each pending batch has a single deadline on a shared scheduler, which only tracks
+ * deadlines. Batches are passed to the sink on a bounded, shared dispatch executor, one batch at a time and in order,
+ * so a slow sink delays only its own batches.
+ */
+@Slf4j
+public class Debouncer<K, V> {
+
+    public static final String ENV_THREADS = "DEBOUNCE_THREADS";
+    public static final int DEFAULT_THREADS = 2;
+
+    public static final String ENV_DISPATCH_THREADS = "DEBOUNCE_DISPATCH_THREADS";
+    public static final int DEFAULT_DISPATCH_THREADS = 4;
+
+    public static final ScheduledExecutorService DEFAULT_SCHEDULER = initScheduler();
+
+    public static final ExecutorService DEFAULT_DISPATCHER
+            = ExecutorRegistry.instance.shared("debounce-dispatch", envInt(ENV_DISPATCH_THREADS, DEFAULT_DISPATCH_THREADS));
+
+    private static ScheduledExecutorService initScheduler() {
+        final ScheduledThreadPoolExecutor scheduler
+                = new ScheduledThreadPoolExecutor(envInt(ENV_THREADS, DEFAULT_THREADS), new DaemonThreadFactory("debounce"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    @Getter private final long quietPeriod;
+    @Getter private final long maxLatency;
+    @Getter private final int maxItems;
+    private final Consumer<List<V>> sink;
+    private final BinaryOperator<V> merge;
+    private final ScheduledExecutorService scheduler;
+    private final Executor dispatcher;
+
+    // batches waiting to be passed to the sink, delivered by one task at a time
+    private final Queue<List<V>> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean sending = new AtomicBoolean(false);
+
+    private Map<K, V> pending = new LinkedHashMap<>();
+    private long firstAdded = 0;
+    private long lastAdded = 0;
+    private ScheduledFuture<?> wakeup;
+    private boolean closed = false;
+
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+
+    public Debouncer(long quietPeriod, long maxLatency, int maxItems, Consumer<List<V>> sink) {
+        this(quietPeriod, maxLatency, maxItems, sink, (previous, next) -> next, DEFAULT_SCHEDULER);
+    }
+
+    public Debouncer(long quietPeriod, long maxLatency, int maxItems, Consumer<List<V>> sink,
+                     BinaryOperator<V> merge, ScheduledExecutorService scheduler) {
+        this(quietPeriod, maxLatency, maxItems, sink, merge, scheduler, DEFAULT_DISPATCHER);
+    }
+
+    public Debouncer(long quietPeriod, long maxLatency, int maxItems, Consumer<List<V>> sink,
+                     BinaryOperator<V> merge, ScheduledExecutorService scheduler, Executor dispatcher) {
+        this.quietPeriod = quietPeriod;
+        this.maxLatency = maxLatency;
+        this.maxItems = maxItems;
+        this.sink = sink;
+        this.merge = merge;
+        this.scheduler = scheduler;
+        this.dispatcher = dispatcher;
+    }
+
+    public long getAdded() { return added.get(); }
+    public long getFlushes() { return flushes.get(); }
+    public long getFlushed() { return flushed.get(); }
+
+    public synchronized int size() { return pending.size(); }
+
+    public synchronized boolean isEmpty() { return pending.isEmpty(); }
+
+    public synchronized void add(K key, V item) {
+        if (closed) return;
+        added.incrementAndGet();
+        final V previous = pending.get(key);
+        final V merged = previous == null ? item : merge.apply(previous, item);
+        if (merged == null) pending.remove(key); else pending.put(key, merged);
+
+        final long now = now();
+        if (firstAdded == 0) firstAdded = now;
+        lastAdded = now;
+
+        if (maxItems > 0 && pending.size() >= maxItems) {
+            if (wakeup != null) wakeup.cancel(false);
+            wakeup = scheduler.schedule(this::wake, 0, TimeUnit.MILLISECONDS);
+        } else if (wakeup == null) {
+            // later additions move the deadline; wake checks it and reschedules itself if it has moved
+            wakeup = scheduler.schedule(this::wake, deadline() - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private long deadline() {
+        final long quiet = lastAdded + quietPeriod;
+        return maxLatency > 0 ? Math.min(quiet, firstAdded + maxLatency) : quiet;
+    }
+
+    private synchronized void wake() {
+        wakeup = null;
+        if (closed) return;
+        final long remaining = deadline() - now();
+        if (remaining > 0 && !pending.isEmpty() && (maxItems <= 0 || pending.size() < maxItems)) {
+            wakeup = scheduler.schedule(this::wake, remaining, TimeUnit.MILLISECONDS);
+            return;
+        }
+        drain();
+    }
+
+    /**
+     * Pass any pending items to the sink now, without waiting for the deadline
+     */
+    public synchronized void flush() {
+        if (wakeup != null) {
+            wakeup.cancel(false);
+            wakeup = null;
+        }
+        drain();
+    }
+
+    // called while synchronized, so batches are queued in the order they were collected
+    private void drain() {
+        if (pending.isEmpty()) return;
+        ready.add(new ArrayList<>(pending.values()));
+        pending = new LinkedHashMap<>();
+        firstAdded = 0;
+        deliver();
+    }
+
+    private void deliver() {
+        if (!sending.compareAndSet(false, true)) return;
+        try {
+            dispatcher.execute(() -> {
+                try {
+                    List<V> batch;
+                    while ((batch = ready.poll()) != null) send(batch);
+                } finally {
+                    sending.set(false);
+                }
+                // a batch may have been queued after the last poll
+                if (!ready.isEmpty()) deliver();
+            });
+        } catch (RejectedExecutionException e) {
+            sending.set(false);
+            log.warn("deliver: dispatcher rejected "+ready.size()+" batches: "+e);
+        }
+    }
+
+    private void send(List<V> batch) {
+        flushes.incrementAndGet();
+        flushed.addAndGet(batch.size());
+        try {
+            sink.accept(batch);
+        } catch (Exception e) {
+            log.warn("send: error in sink: "+e, e);
+        }
+    }
+
+    /**
+     * Discard pending items and stop
+     */
+    public synchronized void close() {
+        closed = true;
+        if (wakeup != null) wakeup.cancel(false);
+        wakeup = null;
+        pending.clear();
+        ready.clear();
+    }
+
+}
@@ -0,0 +1,121 @@
+package org.cobbzilla.util.daemon;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out named, instrumented executors, so that thread use across the application is bounded and observable.
+ *
+ * shared pools are created once per name and reused by every caller asking for that name; they are never shut down
+ * by callers. newPool creates a pool owned by the caller, which must shut it down; it is listed here until it terminates.
+ * newScheduledPool and newForkJoinPool do the same for scheduled and work-stealing pools.
+ *
+ * The io variants are for tasks that mostly block on network or disk. When virtual threads are enabled (with the
+ * EXECUTOR_VIRTUAL_THREADS environment variable) and the running JDK supports them, their threads are virtual threads.
+ * The number of threads is bounded either way.
+ */
+@Slf4j
+public class ExecutorRegistry {
+
+    public static final String ENV_VIRTUAL_THREADS = "EXECUTOR_VIRTUAL_THREADS";
+
+    public static final ExecutorRegistry instance = new ExecutorRegistry(Boolean.parseBoolean(System.getenv(ENV_VIRTUAL_THREADS)));
+
+    private final boolean virtualThreads;
+    private final Map<String, InstrumentedPool> executors = new ConcurrentHashMap<>();
+    private final AtomicInteger poolCounter = new AtomicInteger(0);
+
+    public ExecutorRegistry(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads && VIRTUAL_THREAD_BUILDER != null;
+        if (virtualThreads && !this.virtualThreads) log.warn("ExecutorRegistry: virtual threads are not supported by this JDK, using platform threads");
+    }
+
+    public boolean isVirtualThreads() { return virtualThreads; }
+
+    public ExecutorService shared(String name, int threads) { return shared(name, threads, false); }
+
+    public ExecutorService sharedIo(String name, int threads) { return shared(name, threads, virtualThreads); }
+
+    public ExecutorService newPool(String name, int threads) { return newPool(name, threads, false); }
+
+    public ExecutorService newIoPool(String name, int threads) { return newPool(name, threads, virtualThreads); }
+
+    private ExecutorService shared(String name, int threads, boolean virtual) {
+        return executors.computeIfAbsent(name, n -> create(n, threads, virtual));
+    }
+
+    private ExecutorService newPool(String name, int threads, boolean virtual) {
+        final InstrumentedExecutor executor = create(name+"-"+poolCounter.incrementAndGet(), threads, virtual);
+        executors.put(executor.getName(), executor);
+        return executor;
+    }
+
+    public ScheduledThreadPoolExecutor newScheduledPool(String name, int threads) {
+        final String poolName = name+"-"+poolCounter.incrementAndGet();
+        final InstrumentedScheduledExecutor executor = new InstrumentedScheduledExecutor(poolName,
+                validThreads(name, threads), new DaemonThreadFactory(poolName), e -> executors.remove(e.getName(), e));
+        executors.put(executor.getName(), executor);
+        return executor;
+    }
+
+    public ForkJoinPool newForkJoinPool(String name, int parallelism) {
+        final InstrumentedForkJoinPool pool = new InstrumentedForkJoinPool(name+"-"+poolCounter.incrementAndGet(),
+                validThreads(name, parallelism), p -> executors.remove(p.getName(), p));
+        executors.put(pool.getName(), pool);
+        return pool;
+    }
+
+    private InstrumentedExecutor create(String name, int threads, boolean virtual) {
+        threads = validThreads(name, threads);
+        final ThreadFactory factory = virtual ? virtualThreadFactory(name) : new DaemonThreadFactory(name);
+        return new InstrumentedExecutor(name, threads, factory, virtual, e -> executors.remove(e.getName(), e));
+    }
+
+    private static int validThreads(String name, int threads) {
+        if (threads > 0) return threads;
+        log.warn("create("+name+"): invalid thread count ("+threads+"), using single thread");
+        return 1;
+    }
+
+    public InstrumentedPool get(String name) { return executors.get(name); }
+
+    public List<ExecutorStats> getStats() {
+        final List<ExecutorStats> stats = new ArrayList<>(executors.size());
+        for (InstrumentedPool executor : executors.values()) stats.add(executor.getStats());
+        return stats;
+    }
+
+    // Thread.ofVirtual() is only available on JDK 21+, so it is looked up reflectively
+    private static final Method VIRTUAL_THREAD_BUILDER = initVirtualThreadBuilder();
+
+    private static Method initVirtualThreadBuilder() {
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Object builder = VIRTUAL_THREAD_BUILDER.invoke(null);
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name+"-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            log.warn("virtualThreadFactory("+name+"): using platform threads: "+e);
+            return new DaemonThreadFactory(name);
+        }
+    }
+
+}
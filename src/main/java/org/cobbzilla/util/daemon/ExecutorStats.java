@@ -0,0 +1,44 @@
+package org.cobbzilla.util.daemon;
+
+import lombok.Getter;
+
+@Getter
+public class ExecutorStats {
+
+    private final String name;
+    private final boolean virtual;
+    private final int maxThreads;
+    private final int poolSize;
+    private final int active;
+    private final int queueDepth;
+    private final long submitted;
+    private final long completed;
+    private final long failed;
+    private final long rejected;
+    private final double averageQueueMillis;
+    private final double averageRunMillis;
+    private final long maxRunMillis;
+
+    public ExecutorStats(InstrumentedPool executor) {
+        name = executor.getName();
+        virtual = executor.isVirtual();
+        maxThreads = executor.getMaxThreads();
+        poolSize = executor.getPoolSize();
+        active = executor.getActiveCount();
+        queueDepth = executor.getQueueDepth();
+        submitted = executor.getSubmitted();
+        completed = executor.getCompleted();
+        failed = executor.getFailed();
+        rejected = executor.getRejected();
+        averageQueueMillis = executor.getAverageQueueMillis();
+        averageRunMillis = executor.getAverageRunMillis();
+        maxRunMillis = executor.getMaxRunMillis();
+    }
+
+    @Override public String toString() {
+        return name+"{threads="+poolSize+"/"+maxThreads+(virtual ? " (virtual)" : "")+", active="+active+", queued="+queueDepth
+                +", completed="+completed+", failed="+failed+", rejected="+rejected
+                +", avgQueueMillis="+String.format("%.1f", averageQueueMillis)+", avgRunMillis="+String.format("%.1f", averageRunMillis)+"}";
+    }
+
+}
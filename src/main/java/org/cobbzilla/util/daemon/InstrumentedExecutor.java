@@ -0,0 +1,74 @@
+package org.cobbzilla.util.daemon;
+
+import lombok.Getter;
+
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * A fixed-size ThreadPoolExecutor that counts submitted, completed, failed and rejected tasks, and measures how long
+ * tasks wait in the queue and how long they run. Create these with ExecutorRegistry.
+ */
+public class InstrumentedExecutor extends ThreadPoolExecutor implements InstrumentedPool {
+
+    @Getter private final String name;
+    @Getter private final boolean virtual;
+    private final Consumer<InstrumentedExecutor> onTerminated;
+    private final TaskCounters counters = new TaskCounters();
+
+    InstrumentedExecutor(String name, int threads, ThreadFactory threadFactory, boolean virtual, Consumer<InstrumentedExecutor> onTerminated) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        this.name = name;
+        this.virtual = virtual;
+        this.onTerminated = onTerminated;
+        setRejectedExecutionHandler((r, executor) -> {
+            counters.rejected();
+            throw new RejectedExecutionException("executor "+name+" rejected task (shutdown="+executor.isShutdown()+")");
+        });
+    }
+
+    @Override public int getMaxThreads() { return getMaximumPoolSize(); }
+    @Override public int getQueueDepth() { return getQueue().size(); }
+
+    public long getSubmitted() { return counters.getSubmitted(); }
+    public long getCompleted() { return counters.getCompleted(); }
+    public long getFailed() { return counters.getFailed(); }
+    public long getRejected() { return counters.getRejected(); }
+    public long getMaxRunMillis() { return counters.getMaxRunMillis(); }
+    public double getAverageQueueMillis() { return counters.getAverageQueueMillis(); }
+    public double getAverageRunMillis() { return counters.getAverageRunMillis(); }
+
+    public ExecutorStats getStats() { return new ExecutorStats(this); }
+
+    @Override public void execute(Runnable command) {
+        counters.submitted();
+        super.execute(new TimedTask(command));
+    }
+
+    @Override protected void beforeExecute(Thread t, Runnable r) {
+        counters.beforeRun(r instanceof TimedTask ? System.nanoTime() - ((TimedTask) r).queued : 0);
+        super.beforeExecute(t, r);
+    }
+
+    @Override protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        counters.afterRun(t != null || (r instanceof TimedTask && TaskCounters.failed(((TimedTask) r).task)));
+    }
+
+    @Override protected void terminated() {
+        super.terminated();
+        if (onTerminated != null) onTerminated.accept(this);
+    }
+
+    @Override public String toString() { return getStats().toString(); }
+
+    private static class TimedTask implements Runnable {
+        private final Runnable task;
+        private final long queued = System.nanoTime();
+
+        TimedTask(Runnable task) { this.task = task; }
+
+        @Override public void run() { task.run(); }
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.cobbzilla.util.daemon;
+
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A ForkJoinPool with named daemon threads, which counts the tasks submitted to it and the tasks it rejects.
+ * Create these with ExecutorRegistry.
+ *
+ * Tasks forked by the pool's own threads (for example, by a CountedCompleter) are not submissions and are not
+ * counted, and ForkJoinTasks cannot be timed, so the completed, failed and timing counters stay at zero. The queue
+ * depth, active threads and getStealCount show how busy the pool is. A ForkJoinPool has no termination hook, so
+ * the pool is removed from the registry when it is shut down.
+ */
+public class InstrumentedForkJoinPool extends ForkJoinPool implements InstrumentedPool {
+
+    @Getter private final String name;
+    private final Consumer<InstrumentedForkJoinPool> onShutdown;
+    private final AtomicBoolean shutdown = new AtomicBoolean(false);
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    InstrumentedForkJoinPool(String name, int parallelism, Consumer<InstrumentedForkJoinPool> onShutdown) {
+        super(parallelism, new WorkerThreadFactory(name), null, false);
+        this.name = name;
+        this.onShutdown = onShutdown;
+    }
+
+    @Override public boolean isVirtual() { return false; }
+
+    @Override public int getMaxThreads() { return getParallelism(); }
+    @Override public int getActiveCount() { return getActiveThreadCount(); }
+    @Override public int getQueueDepth() { return (int) Math.min(Integer.MAX_VALUE, getQueuedTaskCount() + getQueuedSubmissionCount()); }
+
+    @Override public long getSubmitted() { return submitted.get(); }
+    @Override public long getCompleted() { return 0; }
+    @Override public long getFailed() { return 0; }
+    @Override public long getRejected() { return rejected.get(); }
+
+    @Override public double getAverageQueueMillis() { return 0; }
+    @Override public double getAverageRunMillis() { return 0; }
+    @Override public long getMaxRunMillis() { return 0; }
+
+    @Override public ExecutorStats getStats() { return new ExecutorStats(this); }
+
+    private <T> T submitted(Supplier<T> submit) {
+        submitted.incrementAndGet();
+        try {
+            return submit.get();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override public void execute(ForkJoinTask<?> task) { submitted(() -> { super.execute(task); return null; }); }
+    @Override public void execute(Runnable task) { submitted(() -> { super.execute(task); return null; }); }
+    @Override public <T> ForkJoinTask<T> submit(ForkJoinTask<T> task) { return submitted(() -> super.submit(task)); }
+    @Override public <T> ForkJoinTask<T> submit(Callable<T> task) { return submitted(() -> super.submit(task)); }
+    @Override public <T> ForkJoinTask<T> submit(Runnable task, T result) { return submitted(() -> super.submit(task, result)); }
+    @Override public ForkJoinTask<?> submit(Runnable task) { return submitted(() -> super.submit(task)); }
+    @Override public <T> T invoke(ForkJoinTask<T> task) { return submitted(() -> super.invoke(task)); }
+
+    @Override public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+        submitted.addAndGet(tasks.size());
+        return super.invokeAll(tasks);
+    }
+
+    @Override public void shutdown() {
+        super.shutdown();
+        removed();
+    }
+
+    @Override public List<Runnable> shutdownNow() {
+        final List<Runnable> tasks = super.shutdownNow();
+        removed();
+        return tasks;
+    }
+
+    private void removed() {
+        if (onShutdown != null && shutdown.compareAndSet(false, true)) onShutdown.accept(this);
+    }
+
+    @Override public String toString() { return getStats().toString(); }
+
+    private static class WorkerThreadFactory implements ForkJoinWorkerThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger(0);
+
+        WorkerThreadFactory(String prefix) { this.prefix = prefix; }
+
+        @Override public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            final ForkJoinWorkerThread t = defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName(prefix+"-"+counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
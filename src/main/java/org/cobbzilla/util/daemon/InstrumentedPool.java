@@ -0,0 +1,29 @@
+package org.cobbzilla.util.daemon;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An executor created by ExecutorRegistry, which counts its tasks and is listed by the registry until it terminates.
+ */
+public interface InstrumentedPool extends ExecutorService {
+
+    String getName();
+    boolean isVirtual();
+
+    int getMaxThreads();
+    int getPoolSize();
+    int getActiveCount();
+    int getQueueDepth();
+
+    long getSubmitted();
+    long getCompleted();
+    long getFailed();
+    long getRejected();
+
+    double getAverageQueueMillis();
+    double getAverageRunMillis();
+    long getMaxRunMillis();
+
+    ExecutorStats getStats();
+
+}
@@ -0,0 +1,72 @@
+package org.cobbzilla.util.daemon;
+
+import lombok.Getter;
+
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * A ScheduledThreadPoolExecutor that counts and times its tasks, as InstrumentedExecutor does. A task's queue time
+ * is how long it waited past the time it was scheduled for; each run of a periodic task counts as one completion.
+ * Create these with ExecutorRegistry.
+ */
+public class InstrumentedScheduledExecutor extends ScheduledThreadPoolExecutor implements InstrumentedPool {
+
+    @Getter private final String name;
+    private final Consumer<InstrumentedScheduledExecutor> onTerminated;
+    private final TaskCounters counters = new TaskCounters();
+
+    InstrumentedScheduledExecutor(String name, int threads, ThreadFactory threadFactory, Consumer<InstrumentedScheduledExecutor> onTerminated) {
+        super(threads, threadFactory);
+        this.name = name;
+        this.onTerminated = onTerminated;
+        setRemoveOnCancelPolicy(true);
+        setRejectedExecutionHandler((r, executor) -> {
+            counters.rejected();
+            throw new RejectedExecutionException("executor "+name+" rejected task (shutdown="+executor.isShutdown()+")");
+        });
+    }
+
+    @Override public boolean isVirtual() { return false; }
+    @Override public int getMaxThreads() { return getCorePoolSize(); }
+    @Override public int getQueueDepth() { return getQueue().size(); }
+
+    @Override public long getSubmitted() { return counters.getSubmitted(); }
+    @Override public long getCompleted() { return counters.getCompleted(); }
+    @Override public long getFailed() { return counters.getFailed(); }
+    @Override public long getRejected() { return counters.getRejected(); }
+    @Override public long getMaxRunMillis() { return counters.getMaxRunMillis(); }
+    @Override public double getAverageQueueMillis() { return counters.getAverageQueueMillis(); }
+    @Override public double getAverageRunMillis() { return counters.getAverageRunMillis(); }
+
+    @Override public ExecutorStats getStats() { return new ExecutorStats(this); }
+
+    // every execute, submit and schedule call goes through decorateTask
+    @Override protected <V> RunnableScheduledFuture<V> decorateTask(Runnable runnable, RunnableScheduledFuture<V> task) {
+        counters.submitted();
+        return task;
+    }
+
+    @Override protected <V> RunnableScheduledFuture<V> decorateTask(Callable<V> callable, RunnableScheduledFuture<V> task) {
+        counters.submitted();
+        return task;
+    }
+
+    @Override protected void beforeExecute(Thread t, Runnable r) {
+        counters.beforeRun(r instanceof Delayed ? Math.max(0, -((Delayed) r).getDelay(TimeUnit.NANOSECONDS)) : 0);
+        super.beforeExecute(t, r);
+    }
+
+    @Override protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        counters.afterRun(t != null || TaskCounters.failed(r));
+    }
+
+    @Override protected void terminated() {
+        super.terminated();
+        if (onTerminated != null) onTerminated.accept(this);
+    }
+
+    @Override public String toString() { return getStats().toString(); }
+
+}
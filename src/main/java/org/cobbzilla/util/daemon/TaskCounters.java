@@ -0,0 +1,74 @@
+package org.cobbzilla.util.daemon;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and times the tasks of an instrumented executor
+ */
+class TaskCounters {
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queueNanos = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+
+    private final ThreadLocal<Long> runStart = new ThreadLocal<>();
+
+    void submitted() { submitted.incrementAndGet(); }
+    void rejected() { rejected.incrementAndGet(); }
+
+    /** called by the thread about to run a task, which waited queuedNanos for it */
+    void beforeRun(long queuedNanos) {
+        queueNanos.addAndGet(queuedNanos);
+        runStart.set(System.nanoTime());
+    }
+
+    /** called by the thread that ran a task */
+    void afterRun(boolean taskFailed) {
+        final Long start = runStart.get();
+        runStart.remove();
+        if (start != null) {
+            final long elapsed = System.nanoTime() - start;
+            runNanos.addAndGet(elapsed);
+            maxRunNanos.accumulateAndGet(elapsed, Math::max);
+        }
+        completed.incrementAndGet();
+        if (taskFailed) failed.incrementAndGet();
+    }
+
+    long getSubmitted() { return submitted.get(); }
+    long getCompleted() { return completed.get(); }
+    long getFailed() { return failed.get(); }
+    long getRejected() { return rejected.get(); }
+    long getMaxRunMillis() { return TimeUnit.NANOSECONDS.toMillis(maxRunNanos.get()); }
+
+    double getAverageQueueMillis() {
+        final long count = completed.get();
+        return count == 0 ? 0 : queueNanos.get() / (count * 1_000_000.0);
+    }
+
+    double getAverageRunMillis() {
+        final long count = completed.get();
+        return count == 0 ? 0 : runNanos.get() / (count * 1_000_000.0);
+    }
+
+    /**
+     * Tasks from submit() and schedule() are Futures, which catch their own exceptions
+     * @return true if task is a Future that completed exceptionally
+     */
+    static boolean failed(Runnable task) {
+        if (!(task instanceof Future) || !((Future<?>) task).isDone() || ((Future<?>) task).isCancelled()) return false;
+        try {
+            ((Future<?>) task).get();
+            return false;
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package org.cobbzilla.util.handlebars;
+
+import org.apache.commons.lang3.StringUtils;
+
+import static java.util.regex.Pattern.quote;
+import static org.cobbzilla.util.handlebars.HandlebarsUtil.*;
+
+/**
+ * Rewrites a template that uses alternate delimiters (for example <code>[[ ... ]]</code>) into one that
+ * uses standard handlebars delimiters, in a single linear scan. Any standard delimiters already present
+ * in the template are escaped with dummy placeholders; use a DelimiterUnescapingWriter while rendering
+ * to put them back.
+ */
+public class DelimiterTranslator {
+
+    /**
+     * @param altStart the alternate start delimiter character
+     * @param altEnd the alternate end delimiter character
+     * @return true if the single-pass translation can be used for these delimiters. Delimiters that
+     * collide with standard handlebars delimiters or with the dummy placeholders must use the legacy translation
+     */
+    public static boolean canTranslate(char altStart, char altEnd) {
+        return isSafeDelimiter(altStart) && isSafeDelimiter(altEnd);
+    }
+
+    private static boolean isSafeDelimiter(char c) {
+        return c != HB_START_CHAR && c != HB_END_CHAR && c != '~' && c != '_';
+    }
+
+    public static String translate(String template, char altStart, char altEnd) {
+        if (!canTranslate(altStart, altEnd)) return legacyTranslate(template, altStart, altEnd);
+
+        final int len = template.length();
+        final StringBuilder b = new StringBuilder(len + 16);
+        int i = 0;
+        while (i < len) {
+            final char c = template.charAt(i);
+            if (c != HB_START_CHAR && c != HB_END_CHAR && c != altStart && c != altEnd) {
+                b.append(c);
+                i++;
+                continue;
+            }
+            int run = 1;
+            while (i + run < len && template.charAt(i + run) == c) run++;
+            i += run;
+
+            // order matters when altStart == altEnd: the start delimiter wins, as it did with the regex rewrites
+            if (c == HB_START_CHAR) {
+                appendRun(b, run, DUMMY_START3, DUMMY_START2, c);
+            } else if (c == HB_END_CHAR) {
+                appendRun(b, run, DUMMY_END3, DUMMY_END2, c);
+            } else if (c == altStart) {
+                appendRun(b, run, HB_LSTART, HB_START, c);
+            } else {
+                appendRun(b, run, HB_LEND, HB_END, c);
+            }
+        }
+        return b.toString();
+    }
+
+    // a run of delimiter chars is consumed left-to-right in groups of three, then a group of two, then a single char
+    private static void appendRun(StringBuilder b, int run, String triple, String pair, char single) {
+        for (int j = 0; j < run / 3; j++) b.append(triple);
+        switch (run % 3) {
+            case 2: b.append(pair); break;
+            case 1: b.append(single); break;
+        }
+    }
+
+    /**
+     * @return the rendered text with dummy placeholders replaced, exactly as legacyUnescape would
+     */
+    public static String unescape(String rendered) {
+        if (rendered.indexOf('~') == -1 && rendered.indexOf('_') == -1) return rendered;
+        final StringBuilder b = new StringBuilder(rendered.length());
+        final int len = rendered.length();
+        int i = 0;
+        while (i < len) {
+            if (!DelimiterUnescapingWriter.isDummyChar(rendered.charAt(i))) {
+                b.append(rendered.charAt(i++));
+                continue;
+            }
+            int end = i + 1;
+            while (end < len && DelimiterUnescapingWriter.isDummyChar(rendered.charAt(end))) end++;
+            b.append(DelimiterUnescapingWriter.unescapeRun(rendered.substring(i, end)));
+            i = end;
+        }
+        return b.toString();
+    }
+
+    /**
+     * The original regex-based translation, retained for delimiters that cannot be translated in a single pass.
+     */
+    public static String legacyTranslate(String template, char altStart, char altEnd) {
+        final String s3 = StringUtils.repeat(altStart, 3);
+        final String s2 = StringUtils.repeat(altStart, 2);
+        final String e3 = StringUtils.repeat(altEnd, 3);
+        final String e2 = StringUtils.repeat(altEnd, 2);
+        // escape existing handlebars delimiters with dummy placeholders (we'll put them back later)
+        return template.replaceAll(quote(HB_LSTART), DUMMY_START3).replaceAll(HB_LEND, DUMMY_END3)
+                .replaceAll(quote(HB_START), DUMMY_START2).replaceAll(HB_END, DUMMY_END2)
+                // replace our custom start/end delimiters with handlebars standard ones
+                .replaceAll(quote(s3), HB_LSTART).replaceAll(quote(e3), HB_LEND)
+                .replaceAll(quote(s2), HB_START).replaceAll(quote(e2), HB_END);
+    }
+
+    public static String legacyUnescape(String rendered) {
+        return rendered.replaceAll(DUMMY_START3, HB_LSTART).replaceAll(DUMMY_END3, HB_LEND)
+                .replaceAll(DUMMY_START2, HB_START).replaceAll(DUMMY_END2, HB_END);
+    }
+
+}
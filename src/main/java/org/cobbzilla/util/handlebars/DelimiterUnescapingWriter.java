@@ -0,0 +1,92 @@
+package org.cobbzilla.util.handlebars;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import static org.cobbzilla.util.handlebars.HandlebarsUtil.*;
+
+/**
+ * Replaces the dummy placeholders written by DelimiterTranslator with the original handlebars delimiters,
+ * as the rendered output is written. Placeholders are made only of '~' and '_', so each run of those chars
+ * is held back until it ends, then unescaped as a whole; placeholders split across writes are handled correctly.
+ * Call finish (or close) when rendering is done to write any held-back characters.
+ */
+public class DelimiterUnescapingWriter extends FilterWriter {
+
+    // in the order the legacy regex replacements ran; placeholders can overlap, so the order decides which one wins
+    static final String[] DUMMIES = { DUMMY_START3, DUMMY_END3, DUMMY_START2, DUMMY_END2 };
+
+    static final int MIN_DUMMY_LENGTH = DUMMY_START2.length();
+
+    static String replacementFor(String dummy) {
+        switch (dummy) {
+            case DUMMY_START3: return HB_LSTART;
+            case DUMMY_START2: return HB_START;
+            case DUMMY_END3:   return HB_LEND;
+            case DUMMY_END2:   return HB_END;
+            default: return dummy;
+        }
+    }
+
+    static boolean isDummyChar(char c) { return c == '~' || c == '_'; }
+
+    /**
+     * Unescape a run of '~' and '_' chars. No placeholder can span a run, and the replacements contain no
+     * '~' or '_', so replacing run by run gives the same result as the legacy replacements over the whole text.
+     */
+    static String unescapeRun(String run) {
+        if (run.length() < MIN_DUMMY_LENGTH) return run;
+        for (String dummy : DUMMIES) run = run.replace(dummy, replacementFor(dummy));
+        return run;
+    }
+
+    private final StringBuilder pending = new StringBuilder(DUMMY_START3.length());
+
+    public DelimiterUnescapingWriter(Writer out) { super(out); }
+
+    @Override public void write(int c) throws IOException {
+        if (isDummyChar((char) c)) {
+            pending.append((char) c);
+            return;
+        }
+        finish();
+        out.write(c);
+    }
+
+    @Override public void write(char[] cbuf, int off, int len) throws IOException {
+        final int end = off + len;
+        int plain = off;
+        for (int i = off; i < end; i++) {
+            final char c = cbuf[i];
+            if (!isDummyChar(c)) {
+                if (i == plain) finish();
+                continue;
+            }
+            // write the plain run before this char in one call
+            if (i > plain) out.write(cbuf, plain, i - plain);
+            pending.append(c);
+            plain = i + 1;
+        }
+        if (end > plain) out.write(cbuf, plain, end - plain);
+    }
+
+    @Override public void write(String str, int off, int len) throws IOException {
+        final char[] chars = new char[len];
+        str.getChars(off, off + len, chars, 0);
+        write(chars, 0, len);
+    }
+
+    public void finish() throws IOException {
+        if (pending.length() > 0) {
+            out.write(unescapeRun(pending.toString()));
+            pending.setLength(0);
+        }
+    }
+
+    @Override public void close() throws IOException {
+        finish();
+        super.close();
+    }
+
+}
@@ -0,0 +1,125 @@
+package org.cobbzilla.util.handlebars;
+
+import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Template;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.envInt;
+
+/**
+ * A bounded, concurrent cache of compiled handlebars templates, keyed by the Handlebars instance and the template text.
+ * Eviction is weight-based: each entry weighs as much as the length of its template text.
+ * Templates rewritten from alternate delimiters are cached separately, so the rewrite is also done only once.
+ */
+@Slf4j
+public class HandlebarsTemplateCache {
+
+    public static final String ENV_MAX_CHARS = "HANDLEBARS_TEMPLATE_CACHE_MAX_CHARS";
+    public static final int DEFAULT_MAX_CHARS = 8 * 1024 * 1024;
+
+    public static final HandlebarsTemplateCache instance
+            = new HandlebarsTemplateCache(envInt(ENV_MAX_CHARS, DEFAULT_MAX_CHARS));
+
+    @Getter private final long maxChars;
+
+    private final Cache<TemplateKey, Template> templates;
+    private final Cache<TemplateKey, String> rewrites;
+
+    public HandlebarsTemplateCache(long maxChars) {
+        this.maxChars = maxChars;
+        this.templates = CacheBuilder.newBuilder()
+                .maximumWeight(maxChars)
+                .weigher((TemplateKey k, Template t) -> k.weight())
+                .recordStats()
+                .build();
+        this.rewrites = CacheBuilder.newBuilder()
+                .maximumWeight(maxChars)
+                .weigher((TemplateKey k, String s) -> k.weight() + s.length())
+                .recordStats()
+                .build();
+    }
+
+    public Template compile(Handlebars handlebars, String text) throws IOException {
+        return load(templates, new TemplateKey(handlebars, text, (char) 0, (char) 0), () -> handlebars.compile(text));
+    }
+
+    public String rewrite(String text, char altStart, char altEnd, Callable<String> rewriter) throws IOException {
+        return load(rewrites, new TemplateKey(null, text, altStart, altEnd), rewriter);
+    }
+
+    private <V> V load(Cache<TemplateKey, V> cache, TemplateKey key, Callable<V> loader) throws IOException {
+        try {
+            return cache.get(key, loader);
+
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            return die("load("+key.text+"): "+cause, (Exception) cause);
+
+        } catch (UncheckedExecutionException | ExecutionError e) {
+            // unwrap so callers see the same exceptions they would get from Handlebars.compile
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    public CacheStats getTemplateStats() { return templates.stats(); }
+    public CacheStats getRewriteStats() { return rewrites.stats(); }
+
+    public long getHits() { return templates.stats().hitCount(); }
+    public long getMisses() { return templates.stats().missCount(); }
+    public long getEvictions() { return templates.stats().evictionCount(); }
+    public long size() { return templates.size(); }
+
+    public void flush() {
+        templates.invalidateAll();
+        rewrites.invalidateAll();
+    }
+
+    @AllArgsConstructor
+    private static class TemplateKey {
+
+        public Handlebars handlebars;
+        public String text;
+        public char altStart;
+        public char altEnd;
+
+        public int weight() { return text.length() + 1; }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TemplateKey)) return false;
+
+            final TemplateKey that = (TemplateKey) o;
+
+            // Handlebars instances are compared by identity: different instances may have different helpers
+            if (handlebars != that.handlebars) return false;
+            if (altStart != that.altStart) return false;
+            if (altEnd != that.altEnd) return false;
+            return text.equals(that.text);
+        }
+
+        @Override public int hashCode() {
+            int result = handlebars == null ? 0 : System.identityHashCode(handlebars);
+            result = 31 * result + text.hashCode();
+            result = 31 * result + altStart;
+            result = 31 * result + altEnd;
+            return result;
+        }
+    }
+
+}
@@ -19,11 +19,13 @@ import org.apache.commons.collections.iterators.ArrayIterator;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.pdfbox.io.IOUtils;
 import org.cobbzilla.util.collection.SingletonList;
+import org.cobbzilla.util.daemon.ExecutorRegistry;
 import org.cobbzilla.util.http.HttpContentTypes;
 import org.cobbzilla.util.io.FileResolver;
 import org.cobbzilla.util.io.FileUtil;
 import org.cobbzilla.util.io.PathListFileResolver;
 import org.cobbzilla.util.javascript.JsEngineFactory;
+import org.cobbzilla.util.json.JsonPath;
 import org.cobbzilla.util.reflect.ReflectionUtil;
 import org.cobbzilla.util.string.LocaleUtil;
 import org.cobbzilla.util.string.StringUtil;
@@ -45,12 +47,10 @@ import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
 
-import static java.util.regex.Pattern.quote;
-import static org.cobbzilla.util.daemon.DaemonThreadFactory.fixedPool;
 import static org.cobbzilla.util.daemon.ZillaRuntime.*;
 import static org.cobbzilla.util.io.StreamUtil.loadResourceAsStream;
 import static org.cobbzilla.util.io.StreamUtil.stream2string;
-import static org.cobbzilla.util.json.JsonUtil.json;
+import static org.cobbzilla.util.json.JsonUtil.*;
 import static org.cobbzilla.util.security.ShaUtil.sha256_hex;
 import static org.cobbzilla.util.string.Base64.encodeBytes;
 import static org.cobbzilla.util.string.Base64.encodeFromFile;
@@ -104,6 +104,8 @@ public class HandlebarsUtil extends AbstractTemplateLoader {
         return merged;
     }
 
+    private static final HandlebarsTemplateCache templateCache = HandlebarsTemplateCache.instance;
+
     public static String apply(Handlebars handlebars, String value, Map<String, Object> ctx) {
         return apply(handlebars, value, ctx, (char) 0, (char) 0);
     }
@@ -114,25 +116,31 @@ public class HandlebarsUtil extends AbstractTemplateLoader {
     public static final String DUMMY_END2 = "__~~__";
     public static String apply(Handlebars handlebars, String value, Map<String, Object> ctx, char altStart, char altEnd) {
         if (altStart != 0 && altEnd != 0 && (altStart != HB_START_CHAR && altEnd != HB_END_CHAR)) {
-            final String s3 = StringUtils.repeat(altStart, 3);
-            final String s2 = StringUtils.repeat(altStart, 2);
-            final String e3 = StringUtils.repeat(altEnd, 3);
-            final String e2 = StringUtils.repeat(altEnd, 2);
-            // escape existing handlebars delimiters with dummy placeholders (we'll put them back later)
-            value = value.replaceAll(quote(HB_LSTART), DUMMY_START3).replaceAll(HB_LEND, DUMMY_END3)
-                    .replaceAll(quote(HB_START), DUMMY_START2).replaceAll(HB_END, DUMMY_END2)
-                    // replace our custom start/end delimiters with handlebars standard ones
-                    .replaceAll(quote(s3), HB_LSTART).replaceAll(quote(e3), HB_LEND)
-                    .replaceAll(quote(s2), HB_START).replaceAll(quote(e2), HB_END);
-            // run handlebars, then put the real handlebars stuff back (removing the dummy placeholders)
-            value = apply(handlebars, value, ctx)
-                    .replaceAll(DUMMY_START3, HB_LSTART).replaceAll(DUMMY_END3, HB_LEND)
-                    .replaceAll(DUMMY_START2, HandlebarsUtil.HB_START).replaceAll(DUMMY_END2, HB_END);
-            return value;
+            // escape existing handlebars delimiters with dummy placeholders and replace our custom start/end
+            // delimiters with handlebars standard ones. the rewritten template is cached, so each distinct
+            // template is only rewritten once
+            final String template = value;
+            try {
+                value = templateCache.rewrite(template, altStart, altEnd, () -> DelimiterTranslator.translate(template, altStart, altEnd));
+            } catch (IOException e) {
+                return die("apply("+template+"): "+e, e);
+            }
+            // run handlebars, putting the real handlebars stuff back (removing the dummy placeholders) as we go
+            return render(handlebars, value, ctx, true);
         }
+        return render(handlebars, value, ctx, false);
+    }
+
+    private static String render(Handlebars handlebars, String value, Map<String, Object> ctx, boolean unescape) {
         try {
             @Cleanup final StringWriter writer = new StringWriter(value.length());
-            handlebars.compile(value).apply(ctx, writer);
+            if (unescape) {
+                final DelimiterUnescapingWriter unescaper = new DelimiterUnescapingWriter(writer);
+                templateCache.compile(handlebars, value).apply(ctx, unescaper);
+                unescaper.finish();
+            } else {
+                templateCache.compile(handlebars, value).apply(ctx, writer);
+            }
             return writer.toString();
         } catch (HandlebarsException e) {
             final Throwable cause = e.getCause();
@@ -235,6 +243,14 @@ public class HandlebarsUtil extends AbstractTemplateLoader {
 
     public static final CharSequence EMPTY_SAFE_STRING = "";
 
+    // {{json src [path]}}: with a path, only the node found at that path is rendered
+    private static Object jsonAtPath(Object src, Options options) throws IOException {
+        if (options.params.length == 0 || empty(options.param(0))) return src;
+        final JsonPath path = options.param(0) instanceof JsonPath ? options.param(0) : JsonPath.path(options.param(0).toString());
+        final JsonNode node = src instanceof JsonNode ? (JsonNode) src : NOTNULL_MAPPER.valueToTree(src);
+        return findNode(node, path);
+    }
+
     private static final AtomicReference<ContextMessageSender> messageSender = new AtomicReference<>();
 
     public static void setMessageSender(ContextMessageSender sender) {
@@ -270,12 +286,12 @@ public class HandlebarsUtil extends AbstractTemplateLoader {
 
         hb.registerHelper("json", (src, options) -> {
             if (empty(src)) return "";
-            return new Handlebars.SafeString(json(src));
+            return new Handlebars.SafeString(json(jsonAtPath(src, options)));
         });
 
         hb.registerHelper("escaped_json", (src, options) -> {
             if (empty(src)) return "";
-            return new Handlebars.SafeString(new String(JSON_STRING_ENCODER.quoteAsString(json(src))));
+            return new Handlebars.SafeString(new String(JSON_STRING_ENCODER.quoteAsString(json(jsonAtPath(src, options)))));
         });
 
         hb.registerHelper("context", (src, options) -> {
@@ -474,7 +490,7 @@ public class HandlebarsUtil extends AbstractTemplateLoader {
                             : null;
     }
 
-    private static final ExecutorService contextSender = fixedPool(10);
+    private static final ExecutorService contextSender = ExecutorRegistry.instance.sharedIo("handlebars-context-sender", 10);
 
     public static void sendContext(String recipient, String subject, String message, String contentType) {
         contextSender.submit(() -> {
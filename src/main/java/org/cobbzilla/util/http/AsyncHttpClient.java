@@ -0,0 +1,224 @@
+package org.cobbzilla.util.http;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.cobbzilla.util.collection.NameAndValue;
+import org.cobbzilla.util.daemon.DaemonThreadFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.envInt;
+import static org.cobbzilla.util.http.HttpStatusCodes.NO_CONTENT;
+
+/**
+ * Non-blocking HTTP requests, for fanning out to many endpoints without a thread per request.
+ *
+ * Requests are sent by a single httpasyncclient I/O reactor. Concurrency per host is bounded by the connection pool's
+ * per-route limit: requests beyond the limit wait in the pool (without holding a thread) until a connection is free.
+ * Each attempt has a timeout; when it expires, the request is cancelled and its future completes with a TimeoutException.
+ * Requests are retried, and guarded by circuit breakers, according to HttpUtil.retryPolicy.
+ *
+ * Response entities are read fully into memory before the future completes, so this is not the right tool for very large downloads.
+ */
+@Slf4j
+public class AsyncHttpClient implements Closeable {
+
+    public static final String ENV_MAX_TOTAL = "HTTP_ASYNC_MAX_CONNECTIONS";
+    public static final String ENV_MAX_PER_HOST = "HTTP_ASYNC_MAX_CONNECTIONS_PER_HOST";
+    public static final String ENV_REQUEST_TIMEOUT = "HTTP_ASYNC_REQUEST_TIMEOUT_MILLIS";
+
+    public static final int DEFAULT_MAX_TOTAL = 500;
+    public static final int DEFAULT_MAX_PER_HOST = 20;
+    public static final int DEFAULT_REQUEST_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
+
+    // the I/O reactor is started when this class is first used
+    public static final AsyncHttpClient instance = new AsyncHttpClient(
+            envInt(ENV_MAX_TOTAL, DEFAULT_MAX_TOTAL),
+            envInt(ENV_MAX_PER_HOST, DEFAULT_MAX_PER_HOST),
+            envInt(ENV_REQUEST_TIMEOUT, DEFAULT_REQUEST_TIMEOUT));
+
+    @Getter private final long requestTimeout;
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient client;
+    private final ScheduledExecutorService timer;
+
+    public AsyncHttpClient(int maxTotal, int maxPerHost, long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT, new DaemonThreadFactory("async-http-io")));
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("AsyncHttpClient: error creating I/O reactor: "+e, e);
+        }
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerHost);
+
+        client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setThreadFactory(new DaemonThreadFactory("async-http"))
+                .build();
+        client.start();
+
+        timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("async-http-timer"));
+    }
+
+    public AsyncHttpClient setMaxPerHost(String host, int maxConnections) {
+        connectionManager.setMaxPerRoute(new HttpRoute(HttpHost.create(host)), maxConnections);
+        return this;
+    }
+
+    public PoolStats getStats() { return connectionManager.getTotalStats(); }
+
+    public CompletableFuture<HttpResponseBean> getResponse(HttpRequestBean requestBean) {
+        return getResponse(requestBean, requestTimeout);
+    }
+
+    /**
+     * @param requestBean the request to send. It is retried according to HttpUtil.retryPolicy, with retries scheduled on a timer.
+     * @param timeout timeout for each attempt in milliseconds, including time spent waiting for a connection. zero or negative means no timeout.
+     * @return a future for the response. HTTP error statuses complete normally; I/O errors and timeouts complete exceptionally.
+     */
+    public CompletableFuture<HttpResponseBean> getResponse(HttpRequestBean requestBean, long timeout) {
+        final RetryPolicy retryPolicy = HttpUtil.retryPolicy(requestBean);
+        return retryPolicy.executeAsync(requestBean.getHostAndPort(),
+                () -> attempt(requestBean, timeout),
+                response -> retryPolicy.isRetryableStatus(response.getStatus()),
+                timer);
+    }
+
+    private CompletableFuture<HttpResponseBean> attempt(HttpRequestBean requestBean, long timeout) {
+        final CompletableFuture<HttpResponseBean> result = new CompletableFuture<>();
+        final Future<HttpResponse> request;
+        try {
+            request = client.execute(initRequest(requestBean), initContext(requestBean), new FutureCallback<HttpResponse>() {
+                @Override public void completed(HttpResponse response) {
+                    try {
+                        result.complete(toResponseBean(response, requestBean));
+                    } catch (Exception e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+                @Override public void failed(Exception e) { result.completeExceptionally(e); }
+                @Override public void cancelled() { result.cancel(false); }
+            });
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        if (timeout > 0) {
+            final ScheduledFuture<?> timeoutTask = timer.schedule(() -> {
+                if (result.completeExceptionally(new TimeoutException("getResponse: timed out after "+timeout+"ms: "+requestBean))) {
+                    request.cancel(true);
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            result.whenComplete((r, e) -> timeoutTask.cancel(false));
+        }
+        return result;
+    }
+
+    /**
+     * Send all requests at once, and return results in the order they complete.
+     * @param requests the requests to send
+     * @return an iterator of results; next() blocks until the next result is available
+     */
+    public Iterator<HttpAsyncResult> getResponses(Collection<HttpRequestBean> requests) {
+        final BlockingQueue<HttpAsyncResult> results = new LinkedBlockingQueue<>();
+        for (HttpRequestBean request : requests) {
+            getResponse(request).whenComplete((response, error) -> results.add(new HttpAsyncResult(request, response, unwrap(error))));
+        }
+        final int count = requests.size();
+        return new Iterator<HttpAsyncResult>() {
+            private int returned = 0;
+            @Override public boolean hasNext() { return returned < count; }
+            @Override public HttpAsyncResult next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                try {
+                    final HttpAsyncResult result = results.take();
+                    returned++;
+                    return result;
+                } catch (InterruptedException e) {
+                    return die("getResponses: interrupted");
+                }
+            }
+        };
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private HttpUriRequest initRequest(HttpRequestBean requestBean) throws IOException {
+        final HttpUriRequest request = HttpUtil.initHttpRequest(requestBean);
+        if (requestBean.hasEntityWriter() && request instanceof HttpEntityEnclosingRequestBase) {
+            // the async client needs an entity whose content it can read, so buffer the writer's output
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            requestBean.getEntityWriter().write(out);
+            ((HttpEntityEnclosingRequestBase) request).setEntity(new ByteArrayEntity(out.toByteArray()));
+        }
+        for (NameAndValue header : requestBean.getHeaders()) {
+            request.setHeader(header.getName(), header.getValue());
+        }
+        return request;
+    }
+
+    private HttpClientContext initContext(HttpRequestBean requestBean) {
+        final HttpClientContext context = HttpUtil.newContext();
+        if (requestBean.hasAuth()) {
+            // credentials are per request, so one client serves every set of credentials
+            final BasicCredentialsProvider credentials = new BasicCredentialsProvider();
+            credentials.setCredentials(new AuthScope(requestBean.getHost(), requestBean.getPort()),
+                    new UsernamePasswordCredentials(requestBean.getAuthUsername(), requestBean.getAuthPassword()));
+            context.setCredentialsProvider(credentials);
+        }
+        return context;
+    }
+
+    private HttpResponseBean toResponseBean(HttpResponse response, HttpRequestBean requestBean) throws IOException {
+        final HttpResponseBean bean = new HttpResponseBean();
+        for (Header header : response.getAllHeaders()) {
+            bean.addHeader(header.getName(), header.getValue());
+        }
+        bean.setStatus(response.getStatusLine().getStatusCode());
+        if (response.getStatusLine().getStatusCode() != NO_CONTENT && response.getEntity() != null) {
+            bean.setContentLength(response.getEntity().getContentLength());
+            final Header contentType = response.getEntity().getContentType();
+            if (contentType != null) bean.setContentType(contentType.getValue());
+            bean.setEntity(response.getEntity().getContent(), requestBean.getMaxBufferedResponse());
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+        return bean;
+    }
+
+    @Override public void close() throws IOException {
+        timer.shutdownNow();
+        client.close();
+    }
+
+}
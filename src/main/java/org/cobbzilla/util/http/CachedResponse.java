@@ -0,0 +1,52 @@
+package org.cobbzilla.util.http;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import org.cobbzilla.util.collection.NameAndValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+
+/**
+ * A response stored by HttpResponseCache. Stored on disk as JSON.
+ */
+@NoArgsConstructor @Accessors(chain=true)
+public class CachedResponse {
+
+    @Getter @Setter private String uri;
+    @Getter @Setter private String key;
+    @Getter @Setter private int status;
+    @Getter @Setter private List<NameAndValue> headers = new ArrayList<>();
+    @Getter @Setter private byte[] entity;
+    @Getter @Setter private String etag;
+    @Getter @Setter private String lastModified;
+    @Getter @Setter private long ctime;
+
+    // the response may be used without revalidation until this time (epoch millis)
+    @Getter @Setter private long expires;
+
+    public CachedResponse(String uri, HttpResponseBean response, byte[] entity) {
+        this.uri = uri;
+        this.status = response.getStatus();
+        if (response.getHeaders() != null) this.headers = new ArrayList<>(response.getHeaders());
+        this.entity = entity;
+    }
+
+    @JsonIgnore public boolean isFresh(long now) { return now < expires; }
+
+    public boolean hasValidator() { return !empty(etag) || !empty(lastModified); }
+
+    @JsonIgnore public int getSize() { return entity == null ? 0 : entity.length; }
+
+    public HttpResponseBean toResponseBean() {
+        final HttpResponseBean bean = new HttpResponseBean().setStatus(status);
+        for (NameAndValue header : headers) bean.addHeader(header.getName(), header.getValue());
+        return bean.setEntityBytes(entity);
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.cobbzilla.util.http;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+
+/**
+ * Stops sending requests to a host after repeated failures.
+ *
+ * After failureThreshold consecutive failures the circuit opens, and requests are rejected without being sent.
+ * Once openMillis has passed, the circuit is half-open: a single probe request is let through. If it succeeds the
+ * circuit closes, if it fails the circuit opens again for another openMillis.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    @Getter private final String host;
+    @Getter private final int failureThreshold;
+    @Getter private final long openMillis;
+
+    @Getter private CircuitState state = CircuitState.closed;
+    private int failures = 0;
+    private long openedAt = 0;
+    private boolean probing = false;
+
+    private final AtomicLong timesOpened = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public CircuitBreaker(String host, int failureThreshold, long openMillis) {
+        this.host = host;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return true if a request may be sent now. Every allowed request must be followed by a call to success or failure.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == CircuitState.open && now() - openedAt >= openMillis) {
+            // this request will be the probe
+            state = CircuitState.half_open;
+        }
+        switch (state) {
+            case open:
+                break;
+            case half_open:
+                if (probing) break;
+                probing = true;
+                return true;
+            default:
+                return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public synchronized void success() {
+        if (state != CircuitState.closed) log.info("success: closing circuit for "+host);
+        state = CircuitState.closed;
+        failures = 0;
+        probing = false;
+    }
+
+    public synchronized void failure() {
+        probing = false;
+        if (state == CircuitState.half_open || ++failures >= failureThreshold) {
+            if (state != CircuitState.open) log.warn("failure: opening circuit for "+host+" for "+openMillis+"ms");
+            state = CircuitState.open;
+            openedAt = now();
+            failures = 0;
+            timesOpened.incrementAndGet();
+        }
+    }
+
+    public synchronized boolean isOpen() { return state == CircuitState.open && now() - openedAt < openMillis; }
+
+    public long getTimesOpened() { return timesOpened.get(); }
+    public long getRejected() { return rejected.get(); }
+
+}
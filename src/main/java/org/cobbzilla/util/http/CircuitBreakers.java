@@ -0,0 +1,64 @@
+package org.cobbzilla.util.http;
+
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.envInt;
+
+/**
+ * One CircuitBreaker per host:port, shared by every RetryPolicy that uses this registry
+ */
+public class CircuitBreakers {
+
+    public static final String ENV_FAILURE_THRESHOLD = "HTTP_CIRCUIT_FAILURE_THRESHOLD";
+    public static final String ENV_OPEN_MILLIS = "HTTP_CIRCUIT_OPEN_MILLIS";
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final int DEFAULT_OPEN_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+
+    public static final CircuitBreakers instance = new CircuitBreakers(
+            envInt(ENV_FAILURE_THRESHOLD, DEFAULT_FAILURE_THRESHOLD),
+            envInt(ENV_OPEN_MILLIS, DEFAULT_OPEN_MILLIS));
+
+    @Getter private final int failureThreshold;
+    @Getter private final long openMillis;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakers(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @param host the host and port, as returned by URIUtil.getHostAndPort
+     */
+    public CircuitBreaker get(String host) {
+        return breakers.computeIfAbsent(host, h -> new CircuitBreaker(h, failureThreshold, openMillis));
+    }
+
+    public Map<String, CircuitBreaker> getBreakers() { return breakers; }
+
+    public int getOpenCount() {
+        int count = 0;
+        for (CircuitBreaker breaker : breakers.values()) if (breaker.isOpen()) count++;
+        return count;
+    }
+
+    public long getTimesOpened() {
+        long count = 0;
+        for (CircuitBreaker breaker : breakers.values()) count += breaker.getTimesOpened();
+        return count;
+    }
+
+    public long getRejected() {
+        long count = 0;
+        for (CircuitBreaker breaker : breakers.values()) count += breaker.getRejected();
+        return count;
+    }
+
+    public void reset() { breakers.clear(); }
+
+}
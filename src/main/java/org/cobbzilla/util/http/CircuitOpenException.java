@@ -0,0 +1,21 @@
+package org.cobbzilla.util.http;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request to a host whose circuit breaker is open
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    @Getter private final String host;
+
+    public CircuitOpenException(String host) {
+        super("circuit open for host: "+host);
+        this.host = host;
+    }
+
+}
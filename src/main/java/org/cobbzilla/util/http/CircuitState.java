@@ -0,0 +1,11 @@
+package org.cobbzilla.util.http;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+public enum CircuitState {
+
+    closed, open, half_open;
+
+    @JsonCreator public static CircuitState fromString (String val) { return valueOf(val.toLowerCase()); }
+
+}
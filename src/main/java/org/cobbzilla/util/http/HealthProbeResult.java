@@ -0,0 +1,21 @@
+package org.cobbzilla.util.http;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+@ToString @Accessors(chain=true)
+public class HealthProbeResult {
+
+    @Getter @Setter private HealthProbeTarget target;
+
+    // zero if no response was received
+    @Getter @Setter private int status;
+    @Getter @Setter private long latency;
+    @Getter @Setter private long ctime;
+    @Getter @Setter private String error;
+
+    public boolean isOk() { return status / 100 == 2; }
+
+}
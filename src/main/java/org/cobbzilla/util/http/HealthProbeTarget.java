@@ -0,0 +1,24 @@
+package org.cobbzilla.util.http;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+/**
+ * A URL to probe, and an optional Host header to send with it (for probing a host by IP address)
+ */
+@NoArgsConstructor @AllArgsConstructor @EqualsAndHashCode @ToString @Accessors(chain=true)
+public class HealthProbeTarget {
+
+    @Getter @Setter private String url;
+    @Getter @Setter private String host;
+
+    public HealthProbeTarget(String url) { this(url, null); }
+
+    public boolean hasHost () { return host != null; }
+
+}
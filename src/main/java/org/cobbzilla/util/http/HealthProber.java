@@ -0,0 +1,205 @@
+package org.cobbzilla.util.http;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.client.LaxRedirectStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.util.EntityUtils;
+import org.cobbzilla.util.daemon.ExecutorRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.http.HttpHeaders.HOST;
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.envInt;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+
+/**
+ * Checks whether URLs return a 2xx status, without forking a process per check.
+ *
+ * Probes are sent with a dedicated pooled client that accepts any TLS certificate (targets are often addressed by
+ * IP address, with the real name in the Host header, so the certificate would not match), and follows redirects.
+ * Results are cached for cacheTtl milliseconds; concurrent probes of the same target share a single request.
+ *
+ * Pooled connections are checked before reuse when idle, and evicted when idle for too long. A probe that gets no
+ * response on a reused connection (the server closed it while idle) is retried once, so it is not reported as down.
+ */
+@Slf4j
+public class HealthProber implements Closeable {
+
+    public static final String ENV_CONNECT_TIMEOUT = "HTTP_PROBE_CONNECT_TIMEOUT_MILLIS";
+    public static final String ENV_SOCKET_TIMEOUT = "HTTP_PROBE_SOCKET_TIMEOUT_MILLIS";
+    public static final String ENV_CACHE_TTL = "HTTP_PROBE_CACHE_TTL_MILLIS";
+    public static final String ENV_THREADS = "HTTP_PROBE_THREADS";
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(5);
+    public static final int DEFAULT_SOCKET_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+    public static final int DEFAULT_CACHE_TTL = (int) TimeUnit.SECONDS.toMillis(5);
+    public static final int DEFAULT_THREADS = 20;
+
+    public static final int MAX_CACHED_RESULTS = 10_000;
+
+    public static final int VALIDATE_AFTER_INACTIVITY_MILLIS = (int) TimeUnit.SECONDS.toMillis(1);
+    public static final long MAX_IDLE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    public static final HealthProber instance = new HealthProber(
+            envInt(ENV_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT),
+            envInt(ENV_SOCKET_TIMEOUT, DEFAULT_SOCKET_TIMEOUT),
+            envInt(ENV_CACHE_TTL, DEFAULT_CACHE_TTL),
+            envInt(ENV_THREADS, DEFAULT_THREADS));
+
+    @Getter private final long cacheTtl;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final IdleConnectionEvictor evictor;
+    private final CloseableHttpClient client;
+    private final Cache<HealthProbeTarget, HealthProbeResult> results;
+    private final ExecutorService pool;
+
+    public HealthProber(int connectTimeout, int socketTimeout, long cacheTtl, int threads) {
+        this.cacheTtl = cacheTtl;
+
+        final Registry<ConnectionSocketFactory> sockets;
+        try {
+            sockets = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", new SSLConnectionSocketFactory(
+                            SSLContextBuilder.create().loadTrustMaterial((chain, authType) -> true).build(),
+                            NoopHostnameVerifier.INSTANCE))
+                    .build();
+        } catch (Exception e) {
+            throw new IllegalStateException("HealthProber: error initializing TLS: "+e, e);
+        }
+        connectionManager = new PoolingHttpClientConnectionManager(sockets);
+        connectionManager.setMaxTotal(threads * 2);
+        connectionManager.setDefaultMaxPerRoute(threads);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+        evictor = new IdleConnectionEvictor(connectionManager, MAX_IDLE_MILLIS/2, TimeUnit.MILLISECONDS, MAX_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+        evictor.start();
+
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setRedirectStrategy(LaxRedirectStrategy.INSTANCE)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setConnectionRequestTimeout(connectTimeout)
+                        .setSocketTimeout(socketTimeout)
+                        .build())
+                .disableCookieManagement()
+                .setRetryHandler((e, executionCount, context) -> executionCount == 1 && isStaleConnection(e))
+                .build();
+
+        results = CacheBuilder.newBuilder()
+                .maximumSize(MAX_CACHED_RESULTS)
+                .expireAfterWrite(Math.max(0, cacheTtl), TimeUnit.MILLISECONDS)
+                .build();
+
+        pool = ExecutorRegistry.instance.newIoPool("http-health-probe", threads);
+    }
+
+    // a keep-alive connection closed by the server shows up as no response or a reset: retry that once, on a new connection
+    private static boolean isStaleConnection(IOException e) {
+        return e instanceof NoHttpResponseException || (e instanceof SocketException && !(e instanceof ConnectException));
+    }
+
+    public HealthProbeResult probe(String url) { return probe(new HealthProbeTarget(url)); }
+
+    public HealthProbeResult probe(String url, String host) { return probe(new HealthProbeTarget(url, host)); }
+
+    /**
+     * @return a cached result if one is younger than cacheTtl, otherwise the result of a new probe
+     */
+    public HealthProbeResult probe(HealthProbeTarget target) {
+        if (cacheTtl <= 0) return send(target);
+        try {
+            return results.get(target, () -> send(target));
+        } catch (ExecutionException e) {
+            return die("probe("+target+"): "+e, e);
+        }
+    }
+
+    /**
+     * Probe all targets concurrently (using cached results where available)
+     * @return results in the same order as targets
+     */
+    public List<HealthProbeResult> probeAll(Collection<HealthProbeTarget> targets) {
+        final List<Future<HealthProbeResult>> futures = new ArrayList<>(targets.size());
+        for (HealthProbeTarget target : targets) futures.add(pool.submit(() -> probe(target)));
+        final List<HealthProbeResult> probed = new ArrayList<>(futures.size());
+        for (Future<HealthProbeResult> future : futures) {
+            try {
+                probed.add(future.get());
+            } catch (InterruptedException e) {
+                return die("probeAll: interrupted");
+            } catch (ExecutionException e) {
+                return die("probeAll: "+e, e);
+            }
+        }
+        return probed;
+    }
+
+    /**
+     * Probe a target, ignoring and replacing any cached result
+     */
+    public HealthProbeResult probeNow(HealthProbeTarget target) {
+        final HealthProbeResult result = send(target);
+        if (cacheTtl > 0) results.put(target, result);
+        return result;
+    }
+
+    private HealthProbeResult send(HealthProbeTarget target) {
+        final HealthProbeResult result = new HealthProbeResult().setTarget(target);
+        final long start = now();
+        try {
+            final HttpGet get = new HttpGet(target.getUrl());
+            if (target.hasHost()) get.setHeader(HOST, target.getHost());
+            try (CloseableHttpResponse response = client.execute(get)) {
+                result.setStatus(response.getStatusLine().getStatusCode());
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+        } catch (Exception e) {
+            log.warn("send: error fetching "+target.getUrl()+(target.hasHost() ? " with Host header="+target.getHost() : "")+": "+e);
+            result.setError(e.toString());
+        }
+        result.setCtime(now());
+        result.setLatency(result.getCtime() - start);
+        return result;
+    }
+
+    public HealthProbeResult getCached(HealthProbeTarget target) { return results.getIfPresent(target); }
+
+    public void clearCache() { results.invalidateAll(); }
+
+    @Override public void close() throws IOException {
+        pool.shutdownNow();
+        evictor.shutdown();
+        client.close();
+        connectionManager.shutdown();
+    }
+
+}
@@ -0,0 +1,16 @@
+package org.cobbzilla.util.http;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@AllArgsConstructor @ToString
+public class HttpAsyncResult {
+
+    @Getter private final HttpRequestBean request;
+    @Getter private final HttpResponseBean response;
+    @Getter private final Throwable error;
+
+    public boolean isSuccess() { return error == null; }
+
+}
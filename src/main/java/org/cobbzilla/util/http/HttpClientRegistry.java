@@ -0,0 +1,175 @@
+package org.cobbzilla.util.http;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.envInt;
+
+/**
+ * Shared, keep-alive HTTP clients for HttpUtil.
+ *
+ * All clients use one PoolingHttpClientConnectionManager, so connections (and TLS sessions) are reused across calls.
+ * A client is created for each distinct set of client-level settings on an HttpRequestBean (currently, the auth
+ * settings, since credentials are bound to the client); requests with the same settings share a client.
+ * Cookies are not shared: HttpUtil gives each request its own cookie store, just as it did when every request
+ * had its own client. Timeouts are set per request, so they do not split the pool.
+ *
+ * A background thread closes expired connections and connections idle for longer than maxIdleMillis.
+ *
+ * Like URLConnection, which HttpUtil.get, url2string and url2file used before, clients honor the standard system
+ * properties: http(s).proxyHost and related proxy settings, javax.net.ssl.* for TLS, http.agent and http.keepAlive.
+ */
+@Slf4j
+public class HttpClientRegistry implements Closeable {
+
+    public static final String ENV_MAX_TOTAL = "HTTP_CLIENT_MAX_CONNECTIONS";
+    public static final String ENV_MAX_PER_ROUTE = "HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE";
+    public static final String ENV_MAX_IDLE_MILLIS = "HTTP_CLIENT_MAX_IDLE_MILLIS";
+
+    public static final int DEFAULT_MAX_TOTAL = 200;
+    public static final int DEFAULT_MAX_PER_ROUTE = 20;
+    public static final int DEFAULT_MAX_IDLE_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+    public static final int MAX_CLIENTS = 1000;
+
+    public static final HttpClientRegistry instance = new HttpClientRegistry(
+            envInt(ENV_MAX_TOTAL, DEFAULT_MAX_TOTAL),
+            envInt(ENV_MAX_PER_ROUTE, DEFAULT_MAX_PER_ROUTE),
+            envInt(ENV_MAX_IDLE_MILLIS, DEFAULT_MAX_IDLE_MILLIS));
+
+    @Getter private final PoolingHttpClientConnectionManager connectionManager;
+    private final IdleConnectionEvictor evictor;
+    private final Cache<ClientKey, CloseableHttpClient> clients;
+
+    public HttpClientRegistry(int maxTotal, int maxPerRoute, long maxIdleMillis) {
+        connectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+                .build());
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
+        evictor = new IdleConnectionEvictor(connectionManager, maxIdleMillis/2, TimeUnit.MILLISECONDS, maxIdleMillis, TimeUnit.MILLISECONDS);
+        evictor.start();
+
+        clients = CacheBuilder.newBuilder()
+                .maximumSize(MAX_CLIENTS)
+                .removalListener((RemovalListener<ClientKey, CloseableHttpClient>) n -> closeQuietly(n.getValue()))
+                .build();
+    }
+
+    /**
+     * @return the shared client for requests with no client-level settings
+     */
+    public CloseableHttpClient getClient() { return getClient(null); }
+
+    /**
+     * @param request the request to be sent. may be null.
+     * @return a shared client configured for the request. Do not close it.
+     */
+    public CloseableHttpClient getClient(HttpRequestBean request) {
+        final ClientKey key = new ClientKey(request);
+        final CloseableHttpClient found = clients.getIfPresent(key);
+        if (found != null) return found;
+        try {
+            return clients.get(key, () -> newClient(request));
+        } catch (ExecutionException e) {
+            return die("getClient: "+e, e);
+        }
+    }
+
+    private CloseableHttpClient newClient(HttpRequestBean request) {
+        final HttpClientBuilder builder = HttpClients.custom()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .setConnectionManagerShared(true);
+        return (request == null ? builder : request.initClientBuilder(builder)).build();
+    }
+
+    public HttpClientRegistry setMaxPerRoute(String host, int maxConnections) {
+        connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost(host)), maxConnections);
+        return this;
+    }
+
+    public PoolStats getStats() { return connectionManager.getTotalStats(); }
+
+    public Map<HttpRoute, PoolStats> getRouteStats() {
+        final Map<HttpRoute, PoolStats> stats = new LinkedHashMap<>();
+        for (HttpRoute route : connectionManager.getRoutes()) stats.put(route, connectionManager.getStats(route));
+        return stats;
+    }
+
+    public long getClientCount() { return clients.size(); }
+
+    @Override public void close() {
+        evictor.shutdown();
+        clients.invalidateAll();
+        connectionManager.shutdown();
+    }
+
+    private static void closeQuietly(CloseableHttpClient client) {
+        try {
+            if (client != null) client.close();
+        } catch (IOException e) {
+            log.warn("closeQuietly: "+e);
+        }
+    }
+
+    private static class ClientKey {
+
+        private final HttpAuthType authType;
+        private final String authUsername;
+        private final String authPassword;
+        private final String host;
+        private final int port;
+
+        ClientKey(HttpRequestBean request) {
+            if (request == null || !request.hasAuth()) {
+                authType = null; authUsername = null; authPassword = null; host = null; port = 0;
+            } else {
+                authType = request.getAuthType();
+                authUsername = request.getAuthUsername();
+                authPassword = request.getAuthPassword();
+                host = request.getHost();
+                port = request.getPort();
+            }
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ClientKey)) return false;
+            final ClientKey that = (ClientKey) o;
+            return port == that.port
+                    && authType == that.authType
+                    && Objects.equals(authUsername, that.authUsername)
+                    && Objects.equals(authPassword, that.authPassword)
+                    && Objects.equals(host, that.host);
+        }
+
+        @Override public int hashCode() { return Objects.hash(authType, authUsername, authPassword, host, port); }
+    }
+
+}
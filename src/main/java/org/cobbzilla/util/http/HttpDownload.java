@@ -0,0 +1,332 @@
+package org.cobbzilla.util.http;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.*;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.cobbzilla.util.daemon.ExecutorRegistry;
+import org.cobbzilla.util.json.JsonUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.apache.http.HttpHeaders.*;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.http.HttpStatusCodes.OK;
+import static org.cobbzilla.util.http.HttpStatusCodes.PARTIAL_CONTENT;
+import static org.cobbzilla.util.http.URIUtil.getFileExt;
+import static org.cobbzilla.util.io.FileUtil.abs;
+import static org.cobbzilla.util.io.FileUtil.getDefaultTempDir;
+import static org.cobbzilla.util.security.ShaUtil.sha256_file;
+import static org.cobbzilla.util.system.Bytes.MB;
+
+/**
+ * Downloads a URL to a file, fetching byte ranges concurrently when the server supports them.
+ *
+ * A HEAD request checks for Accept-Ranges and Content-Length. If the server supports ranges and the file is at
+ * least two parts long, the file is split into ranges that are fetched in parallel over pooled connections and
+ * written in place into a pre-allocated file, using FileChannel positional writes. Otherwise the URL is fetched
+ * with a single stream.
+ *
+ * Data is written to a ".download" file next to the target, which is renamed when complete. Progress is saved to a
+ * ".download.json" file when an attempt fails, so a retry (by the RetryPolicy in this call, or a later call for the
+ * same file) only fetches the bytes that are still missing. Saved progress is discarded if the remote length, ETag or Last-Modified
+ * has changed.
+ */
+@Slf4j @Accessors(chain=true)
+public class HttpDownload {
+
+    public static final String PARTIAL_SUFFIX = ".download";
+    public static final String STATE_SUFFIX = ".download.json";
+
+    public static final int DEFAULT_PARTS = 4;
+    public static final long DEFAULT_MIN_PART_SIZE = 4*MB;
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    @Getter private final String url;
+    @Getter private final File file;
+
+    @Getter @Setter private int parts = DEFAULT_PARTS;
+    @Getter @Setter private long minPartSize = DEFAULT_MIN_PART_SIZE;
+    @Getter @Setter private RetryPolicy retryPolicy = new RetryPolicy()
+            .setMaxAttempts(HttpUtil.DEFAULT_RETRIES)
+            .setInitialDelay(100)
+            .setMultiplier(5);
+
+    public HttpDownload setRetries(int retries) { retryPolicy.setMaxAttempts(retries); return this; }
+    public HttpDownload setRetrySleep(long millis) { retryPolicy.setInitialDelay(millis); return this; }
+
+    /** if set, the downloaded file must have this SHA-256 (hex). a mismatch deletes the file and throws an IOException */
+    @Getter @Setter private String sha256;
+
+    public HttpDownload(String url, File file) throws IOException {
+        this.url = url;
+        this.file = file != null ? file : File.createTempFile("url2file-", getFileExt(url), getDefaultTempDir());
+    }
+
+    public File getPartialFile() { return new File(abs(file) + PARTIAL_SUFFIX); }
+    public File getStateFile() { return new File(abs(file) + STATE_SUFFIX); }
+
+    public File download() throws IOException {
+        final DownloadState remote = url.startsWith("http") ? probe() : null;
+        if (remote != null && remote.isRangeable(minPartSize)) {
+            downloadRanges(remote);
+        } else {
+            downloadStream();
+        }
+        if (!empty(sha256)) verify();
+        return file;
+    }
+
+    /**
+     * @return the remote length, ETag and Last-Modified, or null if the server did not answer the HEAD request
+     */
+    private DownloadState probe() {
+        try (CloseableHttpResponse response = HttpClientRegistry.instance.getClient().execute(new HttpHead(url), HttpUtil.newContext())) {
+            if (response.getStatusLine().getStatusCode() != OK) return null;
+            final DownloadState state = new DownloadState()
+                    .setUrl(url)
+                    .setLength(headerLong(response, CONTENT_LENGTH))
+                    .setEtag(headerValue(response, ETAG))
+                    .setLastModified(headerValue(response, LAST_MODIFIED));
+            final String acceptRanges = headerValue(response, ACCEPT_RANGES);
+            return acceptRanges != null && acceptRanges.equalsIgnoreCase("bytes") ? state : state.setLength(-1);
+        } catch (Exception e) {
+            log.warn("probe("+url+"): "+e);
+            return null;
+        }
+    }
+
+    private void downloadRanges(DownloadState remote) throws IOException {
+        final File partial = getPartialFile();
+        DownloadState state = loadState();
+        if (state == null || !state.sameRemote(remote) || !partial.exists() || partial.length() != remote.getLength()) {
+            state = remote.split(parts, minPartSize);
+        }
+
+        final boolean ranged;
+        try (RandomAccessFile raf = new RandomAccessFile(partial, "rw")) {
+            // pre-allocate the file at its final length, so every range can be written in place
+            if (raf.length() != state.getLength()) raf.setLength(state.getLength());
+            final FileChannel channel = raf.getChannel();
+            final ExecutorService pool = ExecutorRegistry.instance.newIoPool("http-download", state.getRanges().size());
+            try {
+                final DownloadState progress = state;
+                ranged = retryPolicy.execute(URIUtil.getHostAndPort(url), () -> {
+                    final IOException error = fetchRanges(progress, channel, pool);
+                    if (error instanceof RangesNotSupportedException) return false;
+                    if (error != null) {
+                        saveState(progress);
+                        throw error;
+                    }
+                    return true;
+                });
+                if (ranged) channel.force(false);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        if (!ranged) {
+            // the server advertised Accept-Ranges, but sent the whole entity in reply to a range request
+            log.warn("downloadRanges("+url+"): server ignored Range header, downloading as a single stream");
+            deleteState();
+            downloadStream();
+            return;
+        }
+        Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        deleteState();
+    }
+
+    private static class RangesNotSupportedException extends IOException {
+        private static final long serialVersionUID = 1L;
+        RangesNotSupportedException(String message) { super(message); }
+    }
+
+    /**
+     * Fetch all incomplete ranges concurrently.
+     * @return the first error encountered, or null if every range is complete
+     */
+    private IOException fetchRanges(DownloadState state, FileChannel channel, ExecutorService pool) {
+        final List<Future<?>> futures = new ArrayList<>();
+        for (DownloadRange range : state.getRanges()) {
+            if (!range.isComplete()) futures.add(pool.submit(() -> { fetchRange(range, channel); return null; }));
+        }
+        IOException error = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                if (error == null) error = new InterruptedIOException("fetchRanges: interrupted");
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+        }
+        return error;
+    }
+
+    private void fetchRange(DownloadRange range, FileChannel channel) throws IOException {
+        final HttpGet get = new HttpGet(url);
+        get.setHeader(RANGE, "bytes="+range.nextByte()+"-"+range.getEnd());
+        // byte offsets only make sense for the unencoded body, so never let the server compress a range
+        get.setHeader(ACCEPT_ENCODING, "identity");
+        try (CloseableHttpResponse response = HttpClientRegistry.instance.getClient().execute(get, HttpUtil.newContext())) {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status == OK) throw new RangesNotSupportedException("fetchRange("+url+", "+range+"): server sent the whole entity");
+            if (status != PARTIAL_CONTENT || response.getEntity() == null) {
+                throw new IOException("fetchRange("+url+", "+range+"): expected HTTP status "+PARTIAL_CONTENT+" but was "+status);
+            }
+            final String contentRange = headerValue(response, CONTENT_RANGE);
+            if (!range.matches(contentRange)) {
+                throw new IOException("fetchRange("+url+", "+range+"): unexpected "+CONTENT_RANGE+": "+contentRange);
+            }
+            try (InputStream in = response.getEntity().getContent()) {
+                final byte[] buf = new byte[BUFFER_SIZE];
+                int count;
+                while (!range.isComplete() && (count = in.read(buf, 0, (int) Math.min(buf.length, range.remaining()))) != -1) {
+                    final ByteBuffer buffer = ByteBuffer.wrap(buf, 0, count);
+                    while (buffer.hasRemaining()) channel.write(buffer, range.nextByte() + buffer.position());
+                    range.setWritten(range.getWritten() + count);
+                }
+            }
+        }
+        if (!range.isComplete()) throw new EOFException("fetchRange("+url+", "+range+"): premature end of stream");
+    }
+
+    private void downloadStream() throws IOException {
+        final File partial = getPartialFile();
+        try {
+            retryPolicy.execute(url.startsWith("http") ? URIUtil.getHostAndPort(url) : null, () -> {
+                try (InputStream in = HttpUtil.get(url, RetryPolicy.SINGLE_ATTEMPT); OutputStream out = new FileOutputStream(partial)) {
+                    return IOUtils.copyLarge(in, out, new byte[BUFFER_SIZE]);
+                }
+            });
+        } catch (IOException e) {
+            if (partial.exists() && !partial.delete()) log.warn("downloadStream: error deleting "+abs(partial));
+            throw e;
+        }
+        Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void verify() throws IOException {
+        final String actual = sha256_file(file);
+        if (!sha256.equalsIgnoreCase(actual)) {
+            if (!file.delete()) log.warn("verify: error deleting "+abs(file));
+            throw new IOException("verify("+url+"): expected sha256 "+sha256+" but was "+actual);
+        }
+    }
+
+    private DownloadState loadState() {
+        final File stateFile = getStateFile();
+        if (!stateFile.exists()) return null;
+        try {
+            return JsonUtil.fromJson(stateFile, DownloadState.class);
+        } catch (Exception e) {
+            log.warn("loadState: ignoring unreadable "+abs(stateFile)+": "+e);
+            return null;
+        }
+    }
+
+    private void saveState(DownloadState state) {
+        try {
+            JsonUtil.writeJson(state, getStateFile());
+        } catch (IOException e) {
+            log.warn("saveState: "+e);
+        }
+    }
+
+    private void deleteState() {
+        final File stateFile = getStateFile();
+        if (stateFile.exists() && !stateFile.delete()) log.warn("deleteState: error deleting "+abs(stateFile));
+    }
+
+    private static String headerValue(CloseableHttpResponse response, String name) {
+        final Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static long headerLong(CloseableHttpResponse response, String name) {
+        final String value = headerValue(response, name);
+        try {
+            return value == null ? -1 : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @NoArgsConstructor @Accessors(chain=true)
+    public static class DownloadState {
+        @Getter @Setter private String url;
+        @Getter @Setter private long length;
+        @Getter @Setter private String etag;
+        @Getter @Setter private String lastModified;
+        @Getter @Setter private List<DownloadRange> ranges = new ArrayList<>();
+
+        public boolean isRangeable(long minPartSize) { return length > 0 && length >= 2 * minPartSize; }
+
+        public boolean sameRemote(DownloadState other) {
+            return length == other.length
+                    && Objects.equals(url, other.url)
+                    && Objects.equals(etag, other.etag)
+                    && Objects.equals(lastModified, other.lastModified);
+        }
+
+        public DownloadState split(int parts, long minPartSize) {
+            final int count = (int) Math.max(1, Math.min(parts, length / Math.max(1, minPartSize)));
+            final long size = length / count;
+            final List<DownloadRange> split = new ArrayList<>(count);
+            for (int i=0; i<count; i++) {
+                final long start = i * size;
+                final long end = i == count-1 ? length-1 : start + size - 1;
+                split.add(new DownloadRange(start, end, 0));
+            }
+            return new DownloadState().setUrl(url).setLength(length).setEtag(etag).setLastModified(lastModified).setRanges(split);
+        }
+    }
+
+    @NoArgsConstructor @AllArgsConstructor @ToString
+    public static class DownloadRange {
+        @Getter @Setter private long start;
+        @Getter @Setter private long end;  // inclusive
+        @Getter @Setter private long written;
+
+        public long nextByte() { return start + written; }
+        public long remaining() { return end - start + 1 - written; }
+        @JsonIgnore public boolean isComplete() { return remaining() <= 0; }
+
+        /**
+         * @param contentRange the Content-Range header of a response to a request for this range
+         * @return true if the response starts at nextByte and covers the rest of this range
+         */
+        public boolean matches(String contentRange) {
+            // bytes first-last/length (length may be *)
+            if (contentRange == null || !contentRange.startsWith("bytes ")) return false;
+            final int dash = contentRange.indexOf('-');
+            final int slash = contentRange.indexOf('/');
+            if (dash == -1 || slash < dash) return false;
+            try {
+                final long first = Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+                final long last = Long.parseLong(contentRange.substring(dash+1, slash).trim());
+                return first == nextByte() && last == end;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+    }
+
+}
@@ -15,6 +15,8 @@ import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.cobbzilla.util.collection.NameAndValue;
+import org.cobbzilla.util.io.StreamWriter;
+import org.cobbzilla.util.json.JsonUtil;
 import org.cobbzilla.util.string.StringUtil;
 
 import java.io.InputStream;
@@ -22,6 +24,7 @@ import java.net.URI;
 import java.util.*;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.http.HttpContentTypes.APPLICATION_JSON;
 import static org.cobbzilla.util.http.HttpContentTypes.NV_HTTP_JSON;
 import static org.cobbzilla.util.http.HttpMethods.*;
 
@@ -43,6 +46,18 @@ public class HttpRequestBean {
     public boolean hasData () { return entity != null; }
     public boolean hasStream () { return entityInputStream != null; }
 
+    // writes the request body directly to the connection, see JsonUtil.jsonWriter
+    @JsonIgnore @Getter @Setter private StreamWriter entityWriter;
+    public boolean hasEntityWriter () { return entityWriter != null; }
+
+    // if not set, HttpUtil.retryPolicy chooses one, see RetryPolicy
+    @JsonIgnore @Getter @Setter private RetryPolicy retryPolicy;
+
+    public HttpRequestBean setJsonEntity (Object thing) {
+        if (!hasContentType()) setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON);
+        return setEntityWriter(JsonUtil.jsonWriter(thing));
+    }
+
     @Getter @Setter private List<NameAndValue> headers = new ArrayList<>();
     public HttpRequestBean withHeader (String name, String value) { setHeader(name, value); return this; }
     public HttpRequestBean setHeader (String name, String value) {
@@ -93,6 +108,7 @@ public class HttpRequestBean {
 
     @JsonIgnore public String getHost () { return get_uri().getHost(); }
     @JsonIgnore public int getPort () { return get_uri().getPort(); }
+    @JsonIgnore public String getHostAndPort () { return URIUtil.getHostAndPort(get_uri()); }
     @JsonIgnore public String getPath () { return get_uri().getPath(); }
 
     @JsonIgnore @Getter(lazy=true) private final HttpHost httpHost = initHttpHost();
@@ -104,6 +120,17 @@ public class HttpRequestBean {
 
     public boolean hasAuth () { return authType != null; }
 
+    // per-request timeouts in milliseconds, null means the client default
+    @Getter @Setter private Integer connectTimeout;
+    @Getter @Setter private Integer socketTimeout;
+    public boolean hasTimeouts () { return connectTimeout != null || socketTimeout != null; }
+
+    // if true, the response entity is left open for the caller to stream (see HttpResponseBean), who must close the response
+    @Getter @Setter private boolean streamResponse;
+
+    // if set, response entities larger than this many bytes are written to a temp file instead of held in memory
+    @Getter @Setter private Long maxBufferedResponse;
+
     public HttpRequestBean setAuth(HttpAuthType authType, String name, String password) {
         setAuthType(authType);
         setAuthUsername(name);
@@ -133,6 +160,9 @@ public class HttpRequestBean {
     public static HttpRequestBean putJson (String path, String json) { return new HttpRequestBean(PUT, path, json, NV_HTTP_JSON); }
     public static HttpRequestBean postJson(String path, String json) { return new HttpRequestBean(POST, path, json, NV_HTTP_JSON); }
 
+    public static HttpRequestBean putJson (String path, Object thing) { return new HttpRequestBean(PUT, path).setJsonEntity(thing); }
+    public static HttpRequestBean postJson(String path, Object thing) { return new HttpRequestBean(POST, path).setJsonEntity(thing); }
+
     public String cURL () {
         // todo: add support for HTTP auth fields: authType/username/password
         final StringBuilder b = new StringBuilder("curl '"+getUri()).append("'");
@@ -6,30 +6,49 @@ import lombok.Setter;
 import lombok.ToString;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
 import org.cobbzilla.util.collection.NameAndValue;
+import org.cobbzilla.util.io.FileUtil;
 import org.cobbzilla.util.json.JsonUtil;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 import static org.apache.http.HttpHeaders.CONTENT_LENGTH;
 import static org.apache.http.HttpHeaders.CONTENT_TYPE;
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.io.FileUtil.abs;
 import static org.cobbzilla.util.string.StringUtil.UTF8cs;
 
+/**
+ * The status, headers and entity of an HTTP response.
+ *
+ * By default the entity is read fully into a byte array. Two other modes avoid holding large entities on the heap:
+ *   * streaming: the bean holds the open entity stream (see setEntityStream). getEntity(Class) parses straight
+ *     from the stream, and transferTo copies it to a file or stream. The entity can be read only once, and
+ *     the bean must be closed to release the underlying connection.
+ *   * spilling: setEntity(InputStream, maxBuffered) buffers up to maxBuffered bytes in memory and writes larger
+ *     entities to a temp file. The byte[] API keeps working (it reads the file), and close deletes the file.
+ */
 @Slf4j @Accessors(chain=true) @ToString(of={"status", "headers"})
-public class HttpResponseBean {
+public class HttpResponseBean implements Closeable {
 
     public static final HttpResponseBean OK = new HttpResponseBean().setStatus(HttpStatusCodes.OK);
 
     @Getter @Setter private int status;
     @Getter @Setter private List<NameAndValue> headers;
-    @JsonIgnore @Getter private byte[] entity;
+    @JsonIgnore private byte[] entity;
+    @JsonIgnore private InputStream entityStream;
+    @JsonIgnore private Closeable entityCloser;
+    @JsonIgnore @Getter private File entityFile;
     @Getter @Setter private long contentLength;
     @Getter @Setter private String contentType;
 
@@ -65,19 +84,189 @@ public class HttpResponseBean {
         }
     }
 
-    public boolean hasEntity () { return !empty(entity); }
+    /**
+     * Read the entity, keeping it in memory if it is at most maxBuffered bytes, otherwise writing it to a temp file.
+     * @param entity the entity stream. it is read fully, but not closed
+     * @param maxBuffered the largest entity to keep in memory. if null or negative, the entity is always kept in memory
+     */
+    public HttpResponseBean setEntity (InputStream entity, Long maxBuffered) {
+        if (entity == null || maxBuffered == null || maxBuffered < 0) return setEntity(entity);
+        try {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            IOUtils.copyLarge(entity, buffer, 0, maxBuffered + 1);
+            if (buffer.size() <= maxBuffered) {
+                this.entity = buffer.toByteArray();
+                return this;
+            }
+            final File temp = FileUtil.temp("http-entity-", ".tmp");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                buffer.writeTo(out);
+                IOUtils.copyLarge(entity, out);
+            } catch (IOException e) {
+                if (!temp.delete()) log.warn("setEntity: error deleting temp file: "+abs(temp));
+                throw e;
+            }
+            this.entity = null;
+            this.entityFile = temp;
+            return this;
+
+        } catch (IOException e) {
+            return die("setEntity: error reading stream: " + e, e);
+        }
+    }
+
+    /**
+     * Hold the entity as an open stream, without reading it
+     * @param entity the entity stream
+     * @param closer if not null, closed when this bean is closed (for example, the response that owns the stream)
+     */
+    public HttpResponseBean setEntityStream (InputStream entity, Closeable closer) {
+        this.entity = null;
+        this.entityStream = entity;
+        this.entityCloser = closer;
+        return this;
+    }
+
+    @JsonIgnore public boolean isStreaming () { return entityStream != null; }
+    @JsonIgnore public boolean isSpilled () { return entityFile != null; }
+
+    public boolean hasEntity () {
+        if (isStreaming()) return true;
+        if (isSpilled()) return entityFile.length() > 0;
+        return !empty(entity);
+    }
+
+    /**
+     * @return the entity as bytes. a streaming entity is read fully into memory (and then kept there).
+     */
+    public byte[] getEntity () {
+        if (isStreaming()) {
+            try (InputStream in = takeEntityStream()) {
+                entity = IOUtils.toByteArray(in);
+            } catch (IOException e) {
+                return die("getEntity: error reading stream: " + e, e);
+            } finally {
+                closeEntity();
+            }
+        }
+        if (isSpilled()) {
+            try {
+                return FileUtils.readFileToByteArray(entityFile);
+            } catch (IOException e) {
+                return die("getEntity: error reading "+abs(entityFile)+": " + e, e);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * @return a stream to read the entity. for a streaming entity, this is the open stream, and can be called only once.
+     */
+    @JsonIgnore public InputStream getEntityStream () throws IOException {
+        if (isStreaming()) return takeEntityStream();
+        if (isSpilled()) return new BufferedInputStream(new FileInputStream(entityFile));
+        return entity == null ? null : new ByteArrayInputStream(entity);
+    }
+
+    private InputStream takeEntityStream () {
+        final InputStream in = entityStream;
+        entityStream = null;
+        return in;
+    }
 
     public String getEntityString () {
         try {
-            return entity == null ? null : new String(entity, UTF8cs);
+            final byte[] bytes = getEntity();
+            return bytes == null ? null : new String(bytes, UTF8cs);
         } catch (Exception e) {
             log.warn("getEntityString: error parsing bytes: "+e);
             return null;
         }
     }
 
+    /**
+     * Parse the entity as JSON. Streaming and spilled entities are parsed directly from the stream or file,
+     * without first being copied into a String.
+     */
     public <T> T getEntity (Class<T> clazz) {
-        return entity == null ? null : JsonUtil.fromJsonOrDie(getEntityString(), clazz);
+        if (!isStreaming() && !isSpilled()) {
+            if (empty(entity)) return null;
+            try {
+                return JsonUtil.FULL_MAPPER.readValue(entity, clazz);
+            } catch (Exception e) {
+                return die("getEntity: error parsing entity as "+clazz.getName()+": "+e, e);
+            }
+        }
+        try (InputStream in = getEntityStream()) {
+            return JsonUtil.fromJson(in, clazz);
+        } catch (Exception e) {
+            return die("getEntity: error parsing entity as "+clazz.getName()+": "+e, e);
+        } finally {
+            if (!isSpilled()) closeEntity();
+        }
+    }
+
+    /**
+     * Write the entity to a stream. The stream is not closed.
+     * @return the number of bytes written
+     */
+    public long transferTo (OutputStream out) throws IOException {
+        try (InputStream in = getEntityStream()) {
+            return in == null ? 0 : IOUtils.copyLarge(in, out);
+        } finally {
+            if (!isSpilled()) closeEntity();
+        }
+    }
+
+    /**
+     * Write the entity to a file, using channel transfers where possible.
+     * @return the number of bytes written
+     */
+    public long transferTo (File file) throws IOException {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (isSpilled()) {
+                try (FileChannel src = FileChannel.open(entityFile.toPath(), StandardOpenOption.READ)) {
+                    return transfer(src, out);
+                }
+            }
+            try (InputStream in = getEntityStream()) {
+                return in == null ? 0 : transfer(Channels.newChannel(in), out);
+            } finally {
+                closeEntity();
+            }
+        }
+    }
+
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+
+    private static long transfer(ReadableByteChannel src, FileChannel out) throws IOException {
+        long position = 0;
+        long count;
+        while ((count = out.transferFrom(src, position, TRANSFER_CHUNK)) > 0) position += count;
+        return position;
+    }
+
+    private void closeEntity () {
+        try {
+            if (entityStream != null) entityStream.close();
+            if (entityCloser != null) entityCloser.close();
+        } catch (IOException e) {
+            log.warn("closeEntity: "+e);
+        } finally {
+            entityStream = null;
+            entityCloser = null;
+        }
+    }
+
+    /**
+     * Release the connection (for a streaming entity) or delete the temp file (for a spilled entity)
+     */
+    @Override public void close () {
+        closeEntity();
+        if (entityFile != null) {
+            if (entityFile.exists() && !entityFile.delete()) log.warn("close: error deleting temp file: "+abs(entityFile));
+            entityFile = null;
+        }
     }
 
     public Collection<String> getHeaderValues (String name) {
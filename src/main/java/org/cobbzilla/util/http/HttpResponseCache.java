@@ -0,0 +1,302 @@
+package org.cobbzilla.util.http;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.utils.DateUtils;
+import org.cobbzilla.util.collection.NameAndValue;
+import org.cobbzilla.util.json.JsonUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.http.HttpHeaders.*;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.daemon.ZillaRuntime.envInt;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+import static org.cobbzilla.util.io.FileUtil.abs;
+import static org.cobbzilla.util.io.FileUtil.getDefaultTempDir;
+import static org.cobbzilla.util.security.ShaUtil.sha256_hex;
+import static org.cobbzilla.util.system.Bytes.MB;
+
+/**
+ * A private cache for GET responses, enabled with HttpUtil.setResponseCache.
+ *
+ * Responses are kept in memory (an LRU bounded by total entity bytes) and on disk, as JSON files in a directory
+ * under the default temp dir. A memory miss falls back to the disk copy. When the disk files grow past maxDiskBytes,
+ * the oldest are deleted.
+ *
+ * Entries are keyed by the URI and the request headers. Requests with any header other than
+ * CACHEABLE_REQUEST_HEADERS are not cached, since such headers may carry credentials (API keys, tokens) or change
+ * the response. So every header a response can Vary on is either part of the key or absent from every cached
+ * request; responses with Vary: * are not stored.
+ *
+ * Freshness comes from Cache-Control max-age, or else Expires. Fresh responses are returned without a request.
+ * Stale responses with an ETag or Last-Modified are revalidated with If-None-Match / If-Modified-Since; a 304
+ * refreshes the stored copy. Responses marked no-store, responses with neither freshness nor a validator, requests
+ * with credentials or custom headers, and entities over maxEntryBytes are not stored. Only 200 responses are stored.
+ */
+@Slf4j
+public class HttpResponseCache {
+
+    public interface Fetcher { HttpResponseBean fetch(List<NameAndValue> conditionalHeaders) throws IOException; }
+
+    public static final String ENV_MAX_MEMORY_BYTES = "HTTP_CACHE_MAX_MEMORY_BYTES";
+    public static final String ENV_MAX_ENTRY_BYTES = "HTTP_CACHE_MAX_ENTRY_BYTES";
+    public static final String ENV_MAX_DISK_BYTES = "HTTP_CACHE_MAX_DISK_BYTES";
+
+    public static final int DEFAULT_MAX_MEMORY_BYTES = (int) (32*MB);
+    public static final int DEFAULT_MAX_ENTRY_BYTES = (int) (4*MB);
+    public static final int DEFAULT_MAX_DISK_BYTES = (int) (256*MB);
+
+    // lower case. these do not identify the caller, and are part of the cache key
+    public static final Set<String> CACHEABLE_REQUEST_HEADERS = new HashSet<>(Arrays.asList(
+            "accept", "accept-charset", "accept-encoding", "accept-language", "user-agent"));
+
+    // rough per-entry overhead for uri, headers and bookkeeping
+    private static final int ENTRY_OVERHEAD = 1024;
+
+    public static final HttpResponseCache instance = new HttpResponseCache(
+            envInt(ENV_MAX_MEMORY_BYTES, DEFAULT_MAX_MEMORY_BYTES),
+            envInt(ENV_MAX_ENTRY_BYTES, DEFAULT_MAX_ENTRY_BYTES),
+            new File(getDefaultTempDir(), "http-response-cache"),
+            envInt(ENV_MAX_DISK_BYTES, DEFAULT_MAX_DISK_BYTES));
+
+    @Getter private final long maxEntryBytes;
+    @Getter private final File dir;
+    @Getter private final long maxDiskBytes;
+    private final Cache<String, CachedResponse> memory;
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+
+    public HttpResponseCache(long maxMemoryBytes, long maxEntryBytes, File dir) {
+        this(maxMemoryBytes, maxEntryBytes, dir, DEFAULT_MAX_DISK_BYTES);
+    }
+
+    /**
+     * @param dir on-disk tier. may be null for a memory-only cache
+     * @param maxDiskBytes when the files in dir are larger than this in total, the oldest are deleted
+     */
+    public HttpResponseCache(long maxMemoryBytes, long maxEntryBytes, File dir, long maxDiskBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+        this.dir = dir;
+        this.maxDiskBytes = maxDiskBytes;
+        this.memory = CacheBuilder.newBuilder()
+                .maximumWeight(maxMemoryBytes)
+                .weigher((Weigher<String, CachedResponse>) (key, entry) -> entry.getSize() + ENTRY_OVERHEAD)
+                .build();
+        for (File f : diskFiles()) diskBytes.addAndGet(f.length());
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getRevalidated() { return revalidated.get(); }
+    public long getMemoryEntries() { return memory.size(); }
+    public long getDiskBytes() { return diskBytes.get(); }
+
+    public boolean isCacheable(HttpRequestBean request) {
+        if (!request.getMethod().equals(HttpMethods.GET) || request.hasAuth() || request.isStreamResponse()) return false;
+        for (NameAndValue header : request.getHeaders()) {
+            if (!CACHEABLE_REQUEST_HEADERS.contains(header.getName().toLowerCase())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the URI, followed by the request headers in a canonical order
+     */
+    public static String cacheKey(HttpRequestBean request) {
+        if (!request.hasHeaders()) return request.getUri();
+        final List<String> headers = new ArrayList<>(request.getHeaders().size());
+        for (NameAndValue header : request.getHeaders()) headers.add(header.getName().toLowerCase()+": "+header.getValue());
+        Collections.sort(headers);
+        return request.getUri() + "\n" + String.join("\n", headers);
+    }
+
+    /**
+     * @param request a cacheable request (see isCacheable)
+     * @param fetcher sends the request, adding any conditional headers given
+     * @return a cached, revalidated or newly fetched response
+     */
+    public HttpResponseBean getResponse(HttpRequestBean request, Fetcher fetcher) throws IOException {
+        final String key = cacheKey(request);
+        final CachedResponse cached = lookup(key);
+        final long now = now();
+
+        if (cached != null && cached.isFresh(now)) {
+            hits.incrementAndGet();
+            return cached.toResponseBean();
+        }
+
+        final List<NameAndValue> conditional = new ArrayList<>();
+        if (cached != null) {
+            if (!empty(cached.getEtag())) conditional.add(new NameAndValue(IF_NONE_MATCH, cached.getEtag()));
+            if (!empty(cached.getLastModified())) conditional.add(new NameAndValue(IF_MODIFIED_SINCE, cached.getLastModified()));
+        }
+
+        final HttpResponseBean response = fetcher.fetch(conditional);
+        if (cached != null && response.getStatus() == HttpStatusCodes.NOT_MODIFIED) {
+            revalidated.incrementAndGet();
+            if (hasDirective(response, "no-store")) {
+                remove(key);
+                return cached.toResponseBean();
+            }
+            setFreshness(cached, response, now);
+            if (!empty(response.getFirstHeaderValue(ETAG))) cached.setEtag(response.getFirstHeaderValue(ETAG));
+            store(cached);
+            return cached.toResponseBean();
+        }
+
+        misses.incrementAndGet();
+        if (response.getStatus() == HttpStatusCodes.OK) {
+            final CachedResponse entry = toEntry(request.getUri(), key, response, now);
+            if (entry != null) store(entry); else remove(key);
+        }
+        return response;
+    }
+
+    private CachedResponse toEntry(String uri, String key, HttpResponseBean response, long now) {
+        if (response.isStreaming() || response.isSpilled()) return null;
+        if (hasDirective(response, "no-store")) return null;
+        final String vary = response.getFirstHeaderValue(VARY);
+        if (vary != null && vary.contains("*")) return null;
+
+        final byte[] entity = response.getEntity();
+        if (entity != null && entity.length > maxEntryBytes) return null;
+
+        final CachedResponse entry = new CachedResponse(uri, response, entity)
+                .setKey(key)
+                .setEtag(response.getFirstHeaderValue(ETAG))
+                .setLastModified(response.getFirstHeaderValue(LAST_MODIFIED))
+                .setCtime(now);
+        setFreshness(entry, response, now);
+        return entry.isFresh(now) || entry.hasValidator() ? entry : null;
+    }
+
+    private static List<String> directives(HttpResponseBean response) {
+        final String cacheControl = response.getFirstHeaderValue(CACHE_CONTROL);
+        if (cacheControl == null) return Collections.emptyList();
+        final List<String> directives = new ArrayList<>();
+        for (String directive : cacheControl.toLowerCase().split(",")) directives.add(directive.trim());
+        return directives;
+    }
+
+    private static boolean hasDirective(HttpResponseBean response, String directive) {
+        return directives(response).contains(directive);
+    }
+
+    private void setFreshness(CachedResponse entry, HttpResponseBean response, long now) {
+        final List<String> directives = directives(response);
+        // no-cache and no-store win over max-age, wherever they appear
+        if (directives.contains("no-cache") || directives.contains("no-store")) {
+            entry.setExpires(0);
+            return;
+        }
+        for (String directive : directives) {
+            if (directive.startsWith("max-age=")) {
+                try {
+                    entry.setExpires(now + 1000L * Long.parseLong(directive.substring("max-age=".length()).trim()));
+                    return;
+                } catch (NumberFormatException e) {
+                    log.debug("setFreshness: invalid max-age: "+directive);
+                }
+            }
+        }
+        final String expires = response.getFirstHeaderValue(EXPIRES);
+        if (expires != null) {
+            final Date date = DateUtils.parseDate(expires);
+            entry.setExpires(date == null ? 0 : date.getTime());
+        }
+    }
+
+    private CachedResponse lookup(String key) {
+        final CachedResponse cached = memory.getIfPresent(key);
+        if (cached != null || dir == null) return cached;
+        final File file = diskFile(key);
+        if (!file.exists()) return null;
+        try {
+            final CachedResponse fromDisk = JsonUtil.fromJson(file, CachedResponse.class);
+            if (!key.equals(fromDisk.getKey())) return null;
+            memory.put(key, fromDisk);
+            return fromDisk;
+        } catch (Exception e) {
+            log.warn("lookup: removing unreadable "+abs(file)+": "+e);
+            remove(key);
+            return null;
+        }
+    }
+
+    private void store(CachedResponse entry) {
+        memory.put(entry.getKey(), entry);
+        if (dir == null) return;
+        if (!dir.exists() && !dir.mkdirs()) {
+            log.warn("store: error creating "+abs(dir));
+            return;
+        }
+        final File file = diskFile(entry.getKey());
+        final long previous = file.length();
+        try {
+            JsonUtil.writeJson(entry, file);
+        } catch (IOException e) {
+            log.warn("store: "+e);
+        }
+        if (diskBytes.addAndGet(file.length() - previous) > maxDiskBytes) pruneDisk();
+    }
+
+    /**
+     * Delete the oldest disk entries until the disk tier is at most 3/4 of maxDiskBytes
+     */
+    private synchronized void pruneDisk() {
+        final File[] files = diskFiles();
+        long total = 0;
+        for (File f : files) total += f.length();
+        if (total > maxDiskBytes) {
+            final long target = maxDiskBytes / 4 * 3;
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File f : files) {
+                if (total <= target) break;
+                final long length = f.length();
+                if (f.delete()) {
+                    total -= length;
+                } else {
+                    log.warn("pruneDisk: error deleting "+abs(f));
+                }
+            }
+        }
+        diskBytes.set(total);
+    }
+
+    /**
+     * @param key the cache key, see cacheKey. for a request with no headers, this is its URI
+     */
+    public void remove(String key) {
+        memory.invalidate(key);
+        if (dir == null) return;
+        final File file = diskFile(key);
+        final long length = file.length();
+        if (file.exists()) {
+            if (file.delete()) diskBytes.addAndGet(-length); else log.warn("remove: error deleting "+abs(file));
+        }
+    }
+
+    public void clear() {
+        memory.invalidateAll();
+        for (File f : diskFiles()) if (!f.delete()) log.warn("clear: error deleting "+abs(f));
+        diskBytes.set(0);
+    }
+
+    private File[] diskFiles() {
+        final File[] files = dir == null ? null : dir.listFiles((d, name) -> name.endsWith(".json"));
+        return files == null ? new File[0] : files;
+    }
+
+    private File diskFile(String key) { return new File(dir, sha256_hex(key) + ".json"); }
+
+}
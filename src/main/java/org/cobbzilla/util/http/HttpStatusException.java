@@ -0,0 +1,22 @@
+package org.cobbzilla.util.http;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * Thrown by HttpUtil.get for an HTTP error status that should not be retried, such as 400 or 403.
+ * The host answered, so this does not count as a failure for its circuit breaker.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    @Getter private final int status;
+
+    public HttpStatusException(String url, int status) {
+        super(url+": HTTP status "+status);
+        this.status = status;
+    }
+
+}
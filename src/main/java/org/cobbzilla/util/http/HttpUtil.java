@@ -1,47 +1,40 @@
 package org.cobbzilla.util.http;
 
 import lombok.Cleanup;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.exec.CommandLine;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.*;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 import org.cobbzilla.util.collection.NameAndValue;
 import org.cobbzilla.util.string.StringUtil;
-import org.cobbzilla.util.system.CommandResult;
-import org.cobbzilla.util.system.CommandShell;
-import org.cobbzilla.util.system.Sleep;
 
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
-import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import static com.google.common.net.HttpHeaders.CONTENT_DISPOSITION;
 import static org.apache.http.HttpHeaders.CONTENT_TYPE;
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
-import static org.cobbzilla.util.daemon.ZillaRuntime.hexnow;
-import static org.cobbzilla.util.http.HttpContentTypes.contentType;
+import static org.cobbzilla.util.http.HttpStatusCodes.NOT_FOUND;
 import static org.cobbzilla.util.http.HttpStatusCodes.NO_CONTENT;
-import static org.cobbzilla.util.http.URIUtil.getFileExt;
-import static org.cobbzilla.util.io.FileUtil.getDefaultTempDir;
-import static org.cobbzilla.util.string.StringUtil.CRLF;
-import static org.cobbzilla.util.system.Sleep.sleep;
 
 @Slf4j
 public class HttpUtil {
@@ -64,34 +57,69 @@ public class HttpUtil {
         return query_pairs;
     }
 
-    public static InputStream get (String urlString) throws IOException {
+    public static InputStream get (String urlString) throws IOException { return get(urlString, defaultRetryPolicy); }
+
+    public static InputStream get (String urlString, RetryPolicy retryPolicy) throws IOException {
         final URL url = new URL(urlString);
-        final URLConnection urlConnection = url.openConnection();
-        return urlConnection.getInputStream();
+        if (!url.getProtocol().startsWith("http")) {
+            final URLConnection urlConnection = url.openConnection();
+            return urlConnection.getInputStream();
+        }
+        return retryPolicy.execute(URIUtil.getHostAndPort(urlString), () -> {
+            final CloseableHttpResponse response = HttpClientRegistry.instance.getClient().execute(new HttpGet(urlString), newContext());
+            final int status = response.getStatusLine().getStatusCode();
+            if (status >= 400) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                response.close();
+                if (status == NOT_FOUND) throw new FileNotFoundException(urlString);
+                if (!retryPolicy.isRetryableStatus(status)) throw new HttpStatusException(urlString, status);
+                throw new IOException("get("+urlString+"): HTTP status "+status);
+            }
+            // closing the stream returns the connection to the pool
+            return response.getEntity() == null ? new ByteArrayInputStream(new byte[0]) : response.getEntity().getContent();
+        });
+    }
+
+    /**
+     * If set, GET requests sent by getResponse, and url2string, go through this cache. See HttpResponseCache.
+     */
+    @Getter @Setter private static HttpResponseCache responseCache;
+
+    /**
+     * Used by HttpUtil methods for idempotent requests, unless a request sets its own policy
+     */
+    @Getter @Setter private static RetryPolicy defaultRetryPolicy = RetryPolicy.DEFAULT;
+
+    /**
+     * @return the request's own retry policy if it has one. Otherwise, the default policy for idempotent requests
+     * with a replayable body, or RetryPolicy.NONE (which still applies circuit breakers).
+     */
+    public static RetryPolicy retryPolicy(HttpRequestBean requestBean) {
+        if (requestBean.getRetryPolicy() != null) return requestBean.getRetryPolicy();
+        if (requestBean.hasStream()) return RetryPolicy.NONE;
+        switch (requestBean.getMethod()) {
+            case HttpMethods.GET: case HttpMethods.PUT: case HttpMethods.DELETE: return defaultRetryPolicy;
+            default: return RetryPolicy.NONE;
+        }
+    }
+
+    /**
+     * @return a context with its own cookie store, so that requests sent with a shared client do not share cookies
+     */
+    public static HttpClientContext newContext() {
+        final HttpClientContext context = HttpClientContext.create();
+        context.setCookieStore(new BasicCookieStore());
+        return context;
     }
 
     public static HttpResponseBean upload (String url,
                                            File file,
                                            Map<String, String> headers) throws IOException {
-        @Cleanup final CloseableHttpClient client = HttpClients.createDefault();
-        final HttpPost method = new HttpPost(url);
-        final FileBody fileBody = new FileBody(file);
-        MultipartEntityBuilder builder = MultipartEntityBuilder.create().addPart("file", fileBody);
-        method.setEntity(builder.build());
-
+        final HttpRequestBean request = new HttpRequestBean(HttpMethods.POST, url);
         if (headers != null) {
-            for (Map.Entry<String, String> header : headers.entrySet()) {
-                method.addHeader(new BasicHeader(header.getKey(), header.getValue()));
-            }
+            for (Map.Entry<String, String> header : headers.entrySet()) request.setHeader(header.getKey(), header.getValue());
         }
-
-        @Cleanup final CloseableHttpResponse response = client.execute(method);
-
-        final HttpResponseBean responseBean = new HttpResponseBean()
-                .setEntityBytes(EntityUtils.toByteArray(response.getEntity()))
-                .setHttpHeaders(response.getAllHeaders())
-                .setStatus(response.getStatusLine().getStatusCode());
-        return responseBean;
+        return new MultipartUpload(request).addFile(file).upload();
     }
 
     public static final int DEFAULT_RETRIES = 3;
@@ -105,28 +133,21 @@ public class HttpUtil {
     public static File url2file (String url, File file) throws IOException {
         return url2file(url, file, DEFAULT_RETRIES);
     }
+    /**
+     * Download a URL to a file. Large files are fetched as parallel byte ranges when the server supports them,
+     * and a failed download resumes from where it stopped. See HttpDownload.
+     */
     public static File url2file (String url, File file, int retries) throws IOException {
-        if (file == null) file = File.createTempFile("url2file-", getFileExt((url)), getDefaultTempDir());
-        IOException lastException = null;
-        long sleep = 100;
-        for (int i=0; i<retries; i++) {
-            try {
-                @Cleanup final InputStream in = get(url);
-                @Cleanup final OutputStream out = new FileOutputStream(file);
-                IOUtils.copy(in, out);
-                lastException = null;
-                break;
-            } catch (IOException e) {
-                lastException = e;
-                sleep(sleep, "waiting to possibly retry after IOException: "+lastException);
-                sleep *= 5;
-            }
-        }
-        if (lastException != null) throw lastException;
-        return file;
+        return new HttpDownload(url, file).setRetries(retries).download();
     }
 
     public static String url2string (String url) throws IOException {
+        if (responseCache != null && url.startsWith("http")) {
+            final HttpResponseBean response = getResponse(new HttpRequestBean(url));
+            if (response.getStatus() == NOT_FOUND) throw new FileNotFoundException(url);
+            if (response.getStatus() >= 400) throw new IOException("url2string("+url+"): HTTP status "+response.getStatus());
+            return response.getEntityString();
+        }
         @Cleanup final InputStream in = get(url);
         final ByteArrayOutputStream out = new ByteArrayOutputStream();
         IOUtils.copy(in, out);
@@ -134,108 +155,134 @@ public class HttpUtil {
     }
 
     public static HttpResponseBean getResponse(HttpRequestBean requestBean) throws IOException {
-        final HttpClientBuilder clientBuilder = requestBean.initClientBuilder(HttpClients.custom());
-        @Cleanup final CloseableHttpClient client = clientBuilder.build();
-        return getResponse(requestBean, client);
+        return getResponse(requestBean, HttpClientRegistry.instance.getClient(requestBean));
     }
 
     public static HttpResponseBean getResponse(HttpRequestBean requestBean, HttpClient client) throws IOException {
 
-        if (requestBean.hasStream()) return getStreamResponse(requestBean);
+        if (requestBean.hasStream()) return getStreamResponse(requestBean, client);
 
-        final HttpResponseBean bean = new HttpResponseBean();
+        final HttpResponseCache cache = responseCache;
+        if (cache != null && cache.isCacheable(requestBean)) {
+            return cache.getResponse(requestBean, conditionalHeaders -> send(requestBean, client, conditionalHeaders));
+        }
+        return send(requestBean, client, null);
+    }
 
-        final HttpUriRequest request = initHttpRequest(requestBean);
+    private static HttpResponseBean send(HttpRequestBean requestBean, HttpClient client, List<NameAndValue> extraHeaders) throws IOException {
+        return retryPolicy(requestBean).executeHttp(requestBean.getHostAndPort(), () -> {
+            final HttpUriRequest request = initHttpRequest(requestBean);
 
-        for (NameAndValue header : requestBean.getHeaders()) {
-            request.setHeader(header.getName(), header.getValue());
-        }
+            for (NameAndValue header : requestBean.getHeaders()) {
+                request.setHeader(header.getName(), header.getValue());
+            }
+            if (extraHeaders != null) {
+                for (NameAndValue header : extraHeaders) request.setHeader(header.getName(), header.getValue());
+            }
 
-        final HttpResponse response = client.execute(request);
+            return getResponse(requestBean, request, client);
+        });
+    }
 
-        for (Header header : response.getAllHeaders()) {
-            bean.addHeader(header.getName(), header.getValue());
-        }
+    /**
+     * Send a request that has already been built from requestBean
+     * @param requestBean supplies response options: streamResponse and maxBufferedResponse
+     */
+    public static HttpResponseBean getResponse(HttpRequestBean requestBean, HttpUriRequest request, HttpClient client) throws IOException {
 
-        bean.setStatus(response.getStatusLine().getStatusCode());
-        if (response.getStatusLine().getStatusCode() != NO_CONTENT) {
-            bean.setContentLength(response.getEntity().getContentLength());
-            final Header contentType = response.getEntity().getContentType();
-            if (contentType != null) {
-                bean.setContentType(contentType.getValue());
+        final HttpResponseBean bean = new HttpResponseBean();
+
+        final HttpResponse response = client.execute(request, newContext());
+        boolean streaming = false;
+        try {
+            for (Header header : response.getAllHeaders()) {
+                bean.addHeader(header.getName(), header.getValue());
             }
-            @Cleanup final InputStream content = response.getEntity().getContent();
-            bean.setEntity(content);
+
+            bean.setStatus(response.getStatusLine().getStatusCode());
+            if (response.getStatusLine().getStatusCode() != NO_CONTENT && response.getEntity() != null) {
+                bean.setContentLength(response.getEntity().getContentLength());
+                final Header contentType = response.getEntity().getContentType();
+                if (contentType != null) {
+                    bean.setContentType(contentType.getValue());
+                }
+                if (requestBean.isStreamResponse()) {
+                    bean.setEntityStream(response.getEntity().getContent(), response instanceof Closeable ? (Closeable) response : null);
+                    streaming = true;
+                } else {
+                    @Cleanup final InputStream content = response.getEntity().getContent();
+                    bean.setEntity(content, requestBean.getMaxBufferedResponse());
+                }
+            }
+        } finally {
+            // release the connection back to the pool, unless the caller will stream the entity
+            if (!streaming) EntityUtils.consumeQuietly(response.getEntity());
         }
 
         return bean;
     }
 
+    /**
+     * Send a request without blocking the calling thread. See AsyncHttpClient for concurrency limits and timeouts.
+     */
+    public static CompletableFuture<HttpResponseBean> getResponseAsync(HttpRequestBean requestBean) {
+        return AsyncHttpClient.instance.getResponse(requestBean);
+    }
+
+    public static CompletableFuture<HttpResponseBean> getResponseAsync(HttpRequestBean requestBean, long timeout) {
+        return AsyncHttpClient.instance.getResponse(requestBean, timeout);
+    }
+
+    /**
+     * Send many requests concurrently
+     * @return an iterator of results, in the order they complete
+     */
+    public static Iterator<HttpAsyncResult> getResponses(Collection<HttpRequestBean> requests) {
+        return AsyncHttpClient.instance.getResponses(requests);
+    }
+
     public static HttpResponseBean getStreamResponse(HttpRequestBean request) {
+        return getStreamResponse(request, HttpClientRegistry.instance.getClient(request));
+    }
+
+    /**
+     * Upload the request's entityInputStream as a multipart file part, streamed with chunked encoding.
+     * The request's entity is used as the filename.
+     */
+    public static HttpResponseBean getStreamResponse(HttpRequestBean request, HttpClient client) {
         if (!request.hasStream()) return die("getStreamResponse: request stream was not set");
         try {
-            final String boundary = hexnow();
-            request.withHeader(CONTENT_TYPE, "multipart/form-data; boundary=" + boundary);
-
-            @Cleanup("disconnect") final HttpURLConnection connection = (HttpURLConnection) new URL(request.getUri()).openConnection();
-            connection.setDoOutput(true);
-            connection.setRequestMethod(request.getMethod());
-            for (NameAndValue header : request.getHeaders()) {
-                connection.setRequestProperty(header.getName(), header.getValue());
-            }
-
-            @Cleanup final OutputStream output = connection.getOutputStream();
-            final PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, Charset.defaultCharset()), true);
-            writer.append("--" + boundary).append(CRLF);
-            final String filename = request.getEntity();
-            addStreamHeader(writer, CONTENT_DISPOSITION, "form-data; name=\"file\"; filename=\""+ filename +"\"");
-            addStreamHeader(writer, CONTENT_TYPE, contentType(filename));
-            writer.append(CRLF).flush();
-            IOUtils.copy(request.getEntityInputStream(), output);
-            output.flush();
-            writer.append(CRLF);
-            writer.append("--").append(boundary).append("--").append(CRLF).flush();
-
-            HttpResponseBean response = new HttpResponseBean()
-                    .setStatus(connection.getResponseCode())
-                    .setHttpHeaders(connection.getHeaderFields());
-            try {
-                response.setEntity(connection.getInputStream());
-            } catch (IOException ioe) {
-                response.setEntity(connection.getErrorStream());
-            }
-
-            return response;
+            return new MultipartUpload(request)
+                    .addStream(MultipartUpload.DEFAULT_PART_NAME, request.getEntityInputStream(), request.getEntity())
+                    .upload(client);
         } catch (Exception e) {
             return die("getStreamResponse: "+e, e);
         }
     }
 
-    private static PrintWriter addStreamHeader(PrintWriter writer, String name, String value) {
-        writer.append(name).append(": ").append(value).append(CRLF);
-        return writer;
-    }
-
     public static HttpResponseBean getResponse(String urlString) throws IOException {
+        if (responseCache != null) return getResponse(new HttpRequestBean(urlString));
+        return defaultRetryPolicy.executeHttp(URIUtil.getHostAndPort(urlString), () -> {
+            final HttpResponseBean bean = new HttpResponseBean();
+            final CloseableHttpClient client = HttpClientRegistry.instance.getClient();
+            @Cleanup final CloseableHttpResponse response = client.execute(new HttpGet(urlString), newContext());
+
+            for (Header header : response.getAllHeaders()) {
+                bean.addHeader(header.getName(), header.getValue());
+            }
 
-        final HttpResponseBean bean = new HttpResponseBean();
-        @Cleanup final CloseableHttpClient client = HttpClients.createDefault();
-        final HttpResponse response = client.execute(new HttpGet(urlString));
-
-        for (Header header : response.getAllHeaders()) {
-            bean.addHeader(header.getName(), header.getValue());
-        }
-
-        bean.setStatus(response.getStatusLine().getStatusCode());
-        if (response.getEntity() != null) {
-            final Header contentType = response.getEntity().getContentType();
-            if (contentType != null) bean.setContentType(contentType.getValue());
+            bean.setStatus(response.getStatusLine().getStatusCode());
+            if (response.getEntity() != null) {
+                final Header contentType = response.getEntity().getContentType();
+                if (contentType != null) bean.setContentType(contentType.getValue());
 
-            bean.setContentLength(response.getEntity().getContentLength());
-            bean.setEntity(response.getEntity().getContent());
-        }
+                bean.setContentLength(response.getEntity().getContentLength());
+                @Cleanup final InputStream content = response.getEntity().getContent();
+                bean.setEntity(content);
+            }
 
-        return bean;
+            return bean;
+        });
     }
 
     public static HttpUriRequest initHttpRequest(HttpRequestBean requestBean) {
@@ -262,7 +309,16 @@ public class HttpUtil {
                     return die("Invalid request method: " + requestBean.getMethod());
             }
 
-            if (requestBean.hasData() && request instanceof HttpEntityEnclosingRequestBase) {
+            if (requestBean.hasTimeouts() && request instanceof HttpRequestBase) {
+                final RequestConfig.Builder config = RequestConfig.custom();
+                if (requestBean.getConnectTimeout() != null) config.setConnectTimeout(requestBean.getConnectTimeout());
+                if (requestBean.getSocketTimeout() != null) config.setSocketTimeout(requestBean.getSocketTimeout());
+                ((HttpRequestBase) request).setConfig(config.build());
+            }
+
+            if (requestBean.hasEntityWriter() && request instanceof HttpEntityEnclosingRequestBase) {
+                ((HttpEntityEnclosingRequestBase) request).setEntity(new EntityTemplate(requestBean.getEntityWriter()::write));
+            } else if (requestBean.hasData() && request instanceof HttpEntityEnclosingRequestBase) {
                 setData(requestBean.getEntity(), (HttpEntityEnclosingRequestBase) request);
             }
 
@@ -291,35 +347,23 @@ public class HttpUtil {
 
     public static boolean isOk(String url) { return isOk(url, URIUtil.getHost(url)); }
 
-    public static boolean isOk(String url, String host) {
-        final CommandLine command = new CommandLine("curl")
-                .addArgument("--insecure") // since we are requested via the IP address, the cert will not match
-                .addArgument("--header").addArgument("Host: " + host) // pass FQDN via Host header
-                .addArgument("--silent")
-                .addArgument("--location")                              // follow redirects
-                .addArgument("--write-out").addArgument("%{http_code}") // just print status code
-                .addArgument("--output").addArgument("/dev/null")       // and ignore data
-                .addArgument(url);
-        try {
-            final CommandResult result = CommandShell.exec(command);
-            final String statusCode = result.getStdout();
-            return result.isZeroExitStatus() && statusCode != null && statusCode.trim().startsWith("2");
+    /**
+     * @return true if the URL returns a 2xx status. Results are cached briefly, see HealthProber.
+     */
+    public static boolean isOk(String url, String host) { return HealthProber.instance.probe(url, host).isOk(); }
 
+    public static boolean isOk(String url, String host, int maxTries, long sleepUnit) {
+        // no circuit breaker: callers use this to wait for a host to come up
+        final RetryPolicy policy = new RetryPolicy()
+                .setMaxAttempts(maxTries)
+                .setInitialDelay(sleepUnit)
+                .setMaxDelay(Long.MAX_VALUE)
+                .setCircuitBreakers(null);
+        try {
+            final HealthProbeTarget target = new HealthProbeTarget(url, host);
+            return policy.execute(host, () -> HealthProber.instance.probeNow(target).isOk(), ok -> !ok);
         } catch (IOException e) {
-            log.warn("isOk: Error fetching " + url + " with Host header=" + host + ": " + e);
             return false;
         }
     }
-
-    public static boolean isOk(String url, String host, int maxTries, long sleepUnit) {
-        long sleep = sleepUnit;
-        for (int i = 0; i < maxTries; i++) {
-            if (i > 0) {
-                Sleep.sleep(sleep);
-                sleep *= 2;
-            }
-            if (isOk(url, host)) return true;
-        }
-        return false;
-    }
 }
@@ -0,0 +1,162 @@
+package org.cobbzilla.util.http;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import org.apache.commons.io.output.ProxyOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.InputStreamBody;
+import org.cobbzilla.util.collection.NameAndValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.http.HttpHeaders.CONTENT_TYPE;
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+import static org.cobbzilla.util.http.HttpContentTypes.contentType;
+
+/**
+ * A multipart/form-data request whose body is streamed to the connection, never buffered in memory.
+ *
+ * When every part has a known length (files, text, and streams added with a length), the request is sent with a
+ * fixed Content-Length. Otherwise, or when chunked is set, it is sent with chunked transfer encoding.
+ * Requests are sent with the pooled clients from HttpClientRegistry, and retried according to HttpUtil.retryPolicy
+ * unless a part is a stream.
+ *
+ * The method, URI, headers, auth and timeouts come from an HttpRequestBean. Any Content-Type header on the bean is
+ * ignored, since the multipart entity supplies its own (with the boundary).
+ */
+@Accessors(chain=true)
+public class MultipartUpload {
+
+    public static final String DEFAULT_PART_NAME = "file";
+
+    @Getter private final HttpRequestBean request;
+    private final MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+
+    @Getter @Setter private UploadProgressListener listener;
+    @Getter @Setter private boolean chunked = false;
+
+    // stream parts can only be sent once, so uploads with stream parts are never retried
+    @Getter private boolean replayable = true;
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    @Getter private long contentLength = -1;
+    @Getter private long startTime;
+    @Getter private long endTime;
+
+    public MultipartUpload(String url) { this(new HttpRequestBean(HttpMethods.POST, url)); }
+
+    public MultipartUpload(HttpRequestBean request) { this.request = request; }
+
+    public MultipartUpload addFile(File file) { return addFile(DEFAULT_PART_NAME, file); }
+
+    public MultipartUpload addFile(String name, File file) {
+        builder.addPart(name, new FileBody(file, partContentType(file.getName()), file.getName()));
+        return this;
+    }
+
+    /**
+     * Add a part whose length is unknown. The request will be sent with chunked encoding.
+     */
+    public MultipartUpload addStream(String name, InputStream in, String filename) {
+        return addStream(name, in, filename, -1);
+    }
+
+    /**
+     * @param length the exact number of bytes that will be read from the stream, or -1 if unknown
+     */
+    public MultipartUpload addStream(String name, InputStream in, String filename, long length) {
+        replayable = false;
+        builder.addPart(name, new InputStreamBody(in, partContentType(filename), filename) {
+            @Override public long getContentLength() { return length; }
+        });
+        return this;
+    }
+
+    /**
+     * @return the content type for a part with this filename, or application/octet-stream if it cannot be determined
+     */
+    public static ContentType partContentType(String filename) {
+        if (filename == null) return ContentType.DEFAULT_BINARY;
+        try {
+            return ContentType.parse(contentType(filename));
+        } catch (IllegalStateException e) {
+            // contentType dies on unknown extensions
+            return ContentType.DEFAULT_BINARY;
+        }
+    }
+
+    public MultipartUpload addText(String name, String value) {
+        builder.addTextBody(name, value);
+        return this;
+    }
+
+    public long getBytesSent() { return bytesSent.get(); }
+
+    public long getElapsed() { return startTime == 0 ? 0 : (endTime == 0 ? now() : endTime) - startTime; }
+
+    public double getBytesPerSecond() {
+        final long elapsed = getElapsed();
+        return elapsed == 0 ? 0 : 1000.0 * getBytesSent() / elapsed;
+    }
+
+    public HttpResponseBean upload() throws IOException {
+        return upload(HttpClientRegistry.instance.getClient(request));
+    }
+
+    public HttpResponseBean upload(HttpClient client) throws IOException {
+        final HttpEntity entity = builder.build();
+        contentLength = chunked ? -1 : entity.getContentLength();
+        startTime = now();
+        endTime = 0;
+        final RetryPolicy retryPolicy = replayable ? HttpUtil.retryPolicy(request) : RetryPolicy.NONE;
+        try {
+            return retryPolicy.executeHttp(request.getHostAndPort(), () -> {
+                final HttpUriRequest method = HttpUtil.initHttpRequest(request);
+                if (!(method instanceof HttpEntityEnclosingRequestBase)) return die("upload: method cannot have a body: "+request.getMethod());
+                ((HttpEntityEnclosingRequestBase) method).setEntity(new ProgressEntity(entity));
+
+                for (NameAndValue header : request.getHeaders()) {
+                    if (!header.getName().equalsIgnoreCase(CONTENT_TYPE)) method.setHeader(header.getName(), header.getValue());
+                }
+
+                bytesSent.set(0);
+                return HttpUtil.getResponse(request, method, client);
+            });
+        } finally {
+            endTime = now();
+        }
+    }
+
+    private void sent(int count) {
+        final long total = bytesSent.addAndGet(count);
+        if (listener != null) listener.progress(total, contentLength);
+    }
+
+    private class ProgressEntity extends HttpEntityWrapper {
+
+        ProgressEntity(HttpEntity entity) { super(entity); }
+
+        @Override public long getContentLength() { return contentLength; }
+        @Override public boolean isChunked() { return contentLength < 0; }
+
+        @Override public void writeTo(OutputStream out) throws IOException {
+            wrappedEntity.writeTo(new ProxyOutputStream(out) {
+                @Override protected void afterWrite(int n) { if (n > 0) sent(n); }
+            });
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+package org.cobbzilla.util.http;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+import static org.cobbzilla.util.system.Sleep.sleep;
+
+/**
+ * Retries calls with exponential backoff and jitter, and guards each host:port with a CircuitBreaker.
+ *
+ * The delay before retry n (starting at 1) is initialDelay * multiplier^(n-1), capped at maxDelay, then reduced by a
+ * random amount of up to (jitter * delay), so that many clients retrying after the same outage spread out their requests.
+ * Retries stop after maxAttempts, or when the next attempt would start after maxElapsed (if set).
+ *
+ * A call is retried when it throws an IOException that retryOn accepts, or when its result is judged retryable
+ * (for HTTP responses, when the status is one of retryStatuses). Only these count as failures for the circuit breaker;
+ * any other outcome, including an error that is not retried such as a 404, shows that the host is up and counts as a success.
+ * When the circuit is open, calls fail immediately with a CircuitOpenException, which is never retried.
+ *
+ * Counters are kept per policy; circuit counters are kept by the CircuitBreakers registry.
+ */
+@Slf4j @Accessors(chain=true)
+public class RetryPolicy {
+
+    public interface RetryableCall<T> { T call() throws IOException; }
+
+    public static final Set<Integer> DEFAULT_RETRY_STATUSES = new HashSet<>(Arrays.asList(429, 502, 503, 504));
+
+    public static final Predicate<IOException> DEFAULT_RETRY_ON
+            = e -> !(e instanceof FileNotFoundException) && !(e instanceof HttpStatusException) && !(e instanceof CircuitOpenException);
+
+    /** never retries, but still uses circuit breakers */
+    public static final RetryPolicy NONE = new RetryPolicy().setMaxAttempts(1);
+
+    /** never retries and skips circuit breakers: for calls made within another policy's execute, which already has them */
+    public static final RetryPolicy SINGLE_ATTEMPT = new RetryPolicy().setMaxAttempts(1).setCircuitBreakers(null);
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy();
+
+    @Getter @Setter private int maxAttempts = 3;
+    @Getter @Setter private long initialDelay = 100;
+    @Getter @Setter private double multiplier = 2.0;
+    @Getter @Setter private long maxDelay = TimeUnit.SECONDS.toMillis(10);
+    @Getter @Setter private double jitter = 0.5;
+    @Getter @Setter private long maxElapsed = 0;
+    @Getter @Setter private Set<Integer> retryStatuses = DEFAULT_RETRY_STATUSES;
+    @Getter @Setter private Predicate<IOException> retryOn = DEFAULT_RETRY_ON;
+
+    /** set to null to disable circuit breaking */
+    @Getter @Setter private CircuitBreakers circuitBreakers = CircuitBreakers.instance;
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    public long getAttempts() { return attempts.get(); }
+    public long getRetries() { return retries.get(); }
+    public long getExhausted() { return exhausted.get(); }
+
+    public boolean isRetryableStatus(int status) { return retryStatuses != null && retryStatuses.contains(status); }
+
+    /**
+     * @param retry the retry number, starting at 1
+     * @return milliseconds to wait before that retry
+     */
+    public long delay(int retry) {
+        final double base = Math.min(maxDelay, initialDelay * Math.pow(multiplier, retry - 1));
+        return (long) (base - base * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    public <T> T execute(String host, RetryableCall<T> call) throws IOException {
+        return execute(host, call, r -> false);
+    }
+
+    public HttpResponseBean executeHttp(String host, RetryableCall<HttpResponseBean> call) throws IOException {
+        return execute(host, call, r -> isRetryableStatus(r.getStatus()));
+    }
+
+    /**
+     * @param host the host:port being called, which selects the circuit breaker. may be null for no circuit breaking.
+     * @param call the call to make
+     * @param retryResult returns true if a result should be treated as a failure and retried
+     * @return the first successful result, or the last result if it was retryable but no attempts remain
+     * @throws IOException the last exception, if the last attempt threw one
+     */
+    public <T> T execute(String host, RetryableCall<T> call, Predicate<T> retryResult) throws IOException {
+        final CircuitBreaker breaker = breaker(host);
+        final long start = now();
+        for (int attempt = 1; ; attempt++) {
+            if (breaker != null && !breaker.allowRequest()) throw new CircuitOpenException(host);
+            attempts.incrementAndGet();
+
+            T result = null;
+            IOException error = null;
+            try {
+                result = call.call();
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                if (breaker != null) breaker.failure();
+                throw e;
+            }
+
+            final boolean failed = error != null || retryResult.test(result);
+            final boolean retryable = error != null ? retryOn.test(error) : failed;
+            if (breaker != null) {
+                if (retryable) breaker.failure(); else breaker.success();
+            }
+            if (!failed) return result;
+
+            final long delay = delay(attempt);
+            if (!retryable || !canRetry(attempt, start, delay)) {
+                exhausted.incrementAndGet();
+                if (error != null) throw error;
+                return result;
+            }
+            closeQuietly(result);
+            retries.incrementAndGet();
+            sleep(delay, "execute: waiting to retry "+host+" after "+(error != null ? error : "result "+result));
+        }
+    }
+
+    /**
+     * Like execute, without blocking: retries are scheduled on the timer.
+     * Exceptions are retried if they are IOExceptions that retryOn accepts.
+     */
+    public <T> CompletableFuture<T> executeAsync(String host,
+                                                 Supplier<CompletableFuture<T>> call,
+                                                 Predicate<T> retryResult,
+                                                 ScheduledExecutorService timer) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        attemptAsync(host, call, retryResult, timer, 1, now(), result);
+        return result;
+    }
+
+    private <T> void attemptAsync(String host,
+                                  Supplier<CompletableFuture<T>> call,
+                                  Predicate<T> retryResult,
+                                  ScheduledExecutorService timer,
+                                  int attempt,
+                                  long start,
+                                  CompletableFuture<T> result) {
+        final CircuitBreaker breaker = breaker(host);
+        if (breaker != null && !breaker.allowRequest()) {
+            result.completeExceptionally(new CircuitOpenException(host));
+            return;
+        }
+        attempts.incrementAndGet();
+        call.get().whenComplete((value, e) -> {
+            final Throwable error = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            final boolean failed = error != null || retryResult.test(value);
+            final boolean retryable = error == null ? failed : error instanceof IOException && retryOn.test((IOException) error);
+            if (breaker != null) {
+                // timeouts and other errors that are not IOExceptions count as failures, as RuntimeExceptions do in execute
+                if (retryable || (error != null && !(error instanceof IOException))) breaker.failure(); else breaker.success();
+            }
+            if (!failed) {
+                result.complete(value);
+                return;
+            }
+            final long delay = delay(attempt);
+            if (!retryable || !canRetry(attempt, start, delay) || result.isDone()) {
+                exhausted.incrementAndGet();
+                if (error != null) result.completeExceptionally(error); else result.complete(value);
+                return;
+            }
+            closeQuietly(value);
+            retries.incrementAndGet();
+            timer.schedule(() -> attemptAsync(host, call, retryResult, timer, attempt + 1, start, result), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private CircuitBreaker breaker(String host) {
+        return circuitBreakers == null || host == null ? null : circuitBreakers.get(host);
+    }
+
+    private boolean canRetry(int attempt, long start, long delay) {
+        if (attempt >= maxAttempts) return false;
+        return maxElapsed <= 0 || now() - start + delay < maxElapsed;
+    }
+
+    private static void closeQuietly(Object result) {
+        if (result instanceof Closeable) {
+            try {
+                ((Closeable) result).close();
+            } catch (Exception e) {
+                log.warn("closeQuietly: "+e);
+            }
+        }
+    }
+
+}
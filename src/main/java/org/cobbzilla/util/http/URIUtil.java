@@ -19,6 +19,16 @@ public class URIUtil {
     public static int getPort(String uri) { return toUri(uri).getPort(); }
     public static String getPath(String uri) { return toUri(uri).getPath(); }
 
+    /**
+     * @return "host:port", with the scheme's default port if the URI does not have one
+     */
+    public static String getHostAndPort(String uri) { return getHostAndPort(toUri(uri)); }
+
+    public static String getHostAndPort(URI uri) {
+        final int port = uri.getPort() != -1 ? uri.getPort() : "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        return uri.getHost() + ":" + port;
+    }
+
     public static String getHostUri(String uri) {
         final URI u = toUri(uri);
         return u.getScheme() + "://" + u.getHost();
@@ -0,0 +1,12 @@
+package org.cobbzilla.util.http;
+
+public interface UploadProgressListener {
+
+    /**
+     * Called as the body of a MultipartUpload is written to the connection
+     * @param bytesSent total bytes sent so far
+     * @param totalBytes size of the whole request body, or -1 if it is sent with chunked encoding
+     */
+    void progress(long bytesSent, long totalBytes);
+
+}
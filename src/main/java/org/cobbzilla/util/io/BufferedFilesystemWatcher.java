@@ -2,27 +2,20 @@ package org.cobbzilla.util.io;
 
 import lombok.Getter;
 import lombok.ToString;
-import org.cobbzilla.util.collection.InspectCollection;
-import org.cobbzilla.util.system.Sleep;
+import org.cobbzilla.util.daemon.Debouncer;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
-import static org.cobbzilla.util.daemon.ZillaRuntime.now;
-import static org.cobbzilla.util.daemon.ZillaRuntime.terminate;
-import static org.cobbzilla.util.io.FileUtil.abs;
 
 /**
  * Sometimes you just want to know that something changed, and you don't really care what.
- * Extend this class and override the "fire" method. You will receive one callback when
- * your timeout elapses, or if the buffer of events exceeds maxEvents.
+ * Extend this class and override the "fire" method. You will receive one callback once events stop arriving for
+ * getQuietPeriod() milliseconds, but no later than timeout milliseconds after the first event, or as soon as
+ * maxEvents different paths have changed. Events for the same path are coalesced into one.
  */
 @ToString(callSuper=true, of={"timeout", "maxEvents"})
 public abstract class BufferedFilesystemWatcher extends FilesystemWatcher implements Closeable {
@@ -30,77 +23,51 @@ public abstract class BufferedFilesystemWatcher extends FilesystemWatcher implem
     @Getter private final long timeout;
     @Getter private final int maxEvents;
 
-    private final Thread monitor;
-    private long lastFlush;
-    private final Queue<WatchEvent<?>> buffer = new ConcurrentLinkedQueue<>();
-    private BfsMonitor bfsMonitor;
+    private final Debouncer<Object, WatchEvent<?>> buffer;
 
     /**
      * Called when some changes have occurred.
-     * This will be called if the number of events exceeds maxEvents, or if
-     * timeout milliseconds have elapsed since the last time it was called (any
-     * at least one event has occurred)
+     * This will be called if the number of events reaches maxEvents, or once events stop arriving,
+     * and at most timeout milliseconds after the first event.
      * @param events A collection of events.
      */
     protected abstract void fire(List<WatchEvent<?>> events);
 
     public BufferedFilesystemWatcher(Path path, long timeout, int maxEvents) {
         super(path);
-        bfsMonitor = new BfsMonitor();
-        monitor = new Thread(bfsMonitor, "bfs-monitor("+abs(path)+")");
-        monitor.setDaemon(true);
-        monitor.start();
         this.timeout = timeout;
         this.maxEvents = maxEvents;
+        this.buffer = new Debouncer<>(getQuietPeriod(), timeout, maxEvents, this::fire, BufferedFilesystemWatcher::merge, Debouncer.DEFAULT_SCHEDULER);
     }
 
     public BufferedFilesystemWatcher(File path, long timeout, int maxEvents) {
         this(path.toPath(), timeout, maxEvents);
     }
 
+    /**
+     * @return how long to wait after the last event before firing. by default, a tenth of the timeout
+     */
+    protected long getQuietPeriod() { return timeout / 10; }
+
+    public int getBufferSize() { return buffer.size(); }
+
     @Override public void close() throws IOException {
-        if (monitor != null) {
-            bfsMonitor.alive = false;
-            terminate(monitor, 2000);
-        }
+        buffer.close();
         super.close();
     }
 
-    private boolean beenTooLong() { return now() - lastFlush > timeout; }
-    private boolean bufferTooBig() { return InspectCollection.isLargerThan(buffer, maxEvents); }
+    @Override protected void handleEvent(WatchEvent<?> event) { buffer.add(key(event), event); }
 
-    private boolean shouldFlush() { return bufferTooBig() || (!buffer.isEmpty() && beenTooLong()); }
-
-    @Override protected void handleEvent(WatchEvent<?> event) { buffer.add(event); }
-
-    private class BfsMonitor implements Runnable {
-        public volatile boolean alive = false;
-        @Override public void run() {
-            alive = true;
-            while (alive) {
-                Sleep.sleep(timeout / 10);
-                if (shouldFlush()) flush();
-            }
-        }
+    static Object key(WatchEvent<?> event) {
+        return event instanceof FilesystemWatchEvent ? ((FilesystemWatchEvent) event).getPath() : event.context();
     }
 
-    private synchronized void flush() {
-        // sanity check that we have not flushed recently
-        if (!shouldFlush()) return;
-
-        // nothing to flush?
-        if (buffer.isEmpty()) return;
-
-        final List<WatchEvent<?>> events = new ArrayList<>(buffer.size());
-        while (!buffer.isEmpty()) {
-            events.add(buffer.poll());
-            if (events.size() > maxEvents) {
-                fire(events);
-                events.clear();
-            }
-        }
-        if (!events.isEmpty()) fire(events);
-        lastFlush = now();
+    static WatchEvent<?> merge(WatchEvent<?> previous, WatchEvent<?> next) {
+        if (!(previous instanceof FilesystemWatchEvent) || !(next instanceof FilesystemWatchEvent)) return next;
+        final FilesystemWatchEvent prev = (FilesystemWatchEvent) previous;
+        final FilesystemWatchEvent nxt = (FilesystemWatchEvent) next;
+        final WatchEvent.Kind<?> kind = FilesystemWatchEvent.coalesce(prev.kind(), nxt.kind());
+        return kind == null ? null : new FilesystemWatchEvent(kind, nxt.getPath(), nxt.context(), nxt.isDirectory(), prev.count() + nxt.count());
     }
 
 }
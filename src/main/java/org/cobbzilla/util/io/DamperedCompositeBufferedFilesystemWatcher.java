@@ -2,59 +2,31 @@ package org.cobbzilla.util.io;
 
 import lombok.extern.slf4j.Slf4j;
 
+import org.cobbzilla.util.daemon.Debouncer;
+
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
-
-import static org.cobbzilla.util.system.Sleep.nap;
 
+/**
+ * Combines the events of all its watchers, and calls uber_fire once there have been no events for the damper duration.
+ */
 @Slf4j
 public abstract class DamperedCompositeBufferedFilesystemWatcher extends CompositeBufferedFilesystemWatcher {
 
-    private final AtomicLong damper = new AtomicLong(0);
-    private final AtomicReference<Thread> damperThread = new AtomicReference<>();
-    private final AtomicReference<List<WatchEvent<?>>> buffer = new AtomicReference<>();
+    private Debouncer<Object, WatchEvent<?>> buffer;
 
     protected void init(long damperDuration, int maxEvents) {
-
-        this.damper.set(damperDuration);
-        this.buffer.set(new ArrayList<WatchEvent<?>>(maxEvents*10));
-
-        this.damperThread.set(new Thread(new Runnable() {
-            @Override public void run() {
-                log.debug(status()+" starting, sleeping for a while until there is some activity");
-                //noinspection InfiniteLoopStatement
-                while (true) {
-                    if (!nap(TimeUnit.HOURS.toMillis(4), "waiting for filesystem watcher trigger to fire")) {
-                        // we were interrupted. sleep for the damper time
-                        while (!nap(damper.get())) {
-                            // there was more activity, go back to sleep
-                            log.debug(status()+" more activity while napping for damper, trying again");
-                        }
-                        // we successfully napped without being interrupted! fire the big trigger
-                        log.debug(status()+": napped successfully, calling fire");
-                        List<WatchEvent<?>> events;
-                        synchronized (buffer) {
-                            events = new ArrayList<>(buffer.get());
-                            buffer.get().clear();
-                        }
-                        uber_fire(events);
-                    }
-                    log.debug(status()+" just fired, going back to sleep for a while until there is some more activity");
-                }
-            }
-        }));
-        damperThread.get().setDaemon(true);
-        damperThread.get().start();
+        this.buffer = new Debouncer<>(damperDuration, 0, 0, events -> {
+            log.debug(status()+": damper elapsed, calling uber_fire with "+events.size()+" events");
+            uber_fire(events);
+        }, BufferedFilesystemWatcher::merge, Debouncer.DEFAULT_SCHEDULER);
     }
 
-    protected String status() { synchronized (buffer) { return "[" + buffer.get().size() + " events]"; } }
+    protected String status() { return "[" + (buffer == null ? 0 : buffer.size()) + " events]"; }
 
     /**
      * Called when the thing finally really fires.
@@ -63,13 +35,18 @@ public abstract class DamperedCompositeBufferedFilesystemWatcher extends Composi
     public abstract void uber_fire(List<WatchEvent<?>> events);
 
     @Override public void fire(List<WatchEvent<?>> events) {
-        log.debug(status()+": fire adding "+events.size()+" events...");
-        synchronized (buffer) {
-            buffer.get().addAll(events);
-        }
-        synchronized (damperThread.get()) {
-            damperThread.get().interrupt();
+        if (buffer == null) {
+            // the superclass constructor started watching before init was called
+            log.warn("fire: not yet initialized, dropping "+events.size()+" events");
+            return;
         }
+        log.debug(status()+": fire adding "+events.size()+" events...");
+        for (WatchEvent<?> event : events) buffer.add(BufferedFilesystemWatcher.key(event), event);
+    }
+
+    @Override public void close() throws IOException {
+        if (buffer != null) buffer.close();
+        super.close();
     }
 
     public DamperedCompositeBufferedFilesystemWatcher(long timeout, int maxEvents, long damper) {
@@ -29,6 +29,12 @@ public class Decompressors {
         return name.toLowerCase().endsWith(".zip");
     }
 
+    public static boolean isGzipFile(File file) { return isGzipFile(file.getName()); }
+
+    public static boolean isGzipFile(String name) {
+        return name.toLowerCase().endsWith(".gz");
+    }
+
     public static boolean isDecompressible(File file) { return isDecompressible(file.getName()); }
 
     public static boolean isDecompressible(String name) {
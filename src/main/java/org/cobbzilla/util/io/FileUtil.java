@@ -7,9 +7,13 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
@@ -302,6 +306,16 @@ public class FileUtil {
         return toFile(file, data, false);
     }
 
+    public static File toFile(File file, StreamWriter writer) throws IOException {
+        if (!ensureDirExists(file.getParentFile())) {
+            throw new IOException("Error creating directory: "+file.getParentFile());
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            writer.write(out);
+        }
+        return file;
+    }
+
     public static File toFile(File file, String data, boolean append) throws IOException {
         if (!ensureDirExists(file.getParentFile())) {
             throw new IOException("Error creating directory: "+file.getParentFile());
@@ -312,6 +326,52 @@ public class FileUtil {
         return file;
     }
 
+    /**
+     * Write data to a temp file in the same directory as file, then rename it over file.
+     * Readers of file see either the old contents or the new contents, never a partial write.
+     * If file already exists, its POSIX permissions, and its owner and group where possible, are kept.
+     */
+    public static File toFileAtomic(File file, String data) throws IOException {
+        return toFileAtomic(file, new ByteArrayInputStream(data.getBytes()));
+    }
+
+    public static File toFileAtomic(File file, InputStream in) throws IOException {
+        return toFileAtomic(file, out -> IOUtils.copyLarge(in, out));
+    }
+
+    public static File toFileAtomic(File file, StreamWriter writer) throws IOException {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if (!ensureDirExists(dir)) throw new IOException("Error creating directory: "+dir);
+        final File temp = File.createTempFile("."+file.getName()+".", ".tmp", dir);
+        try {
+            toFile(temp, writer);
+            if (file.exists()) copyPosixAttributes(file.toPath(), temp.toPath());
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if (temp.exists() && !temp.delete()) log.warn("toFileAtomic: error deleting temp file: "+abs(temp));
+        }
+        return file;
+    }
+
+    private static void copyPosixAttributes(Path from, Path to) throws IOException {
+        final PosixFileAttributeView toView = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (toView == null) return; // not a POSIX filesystem
+        final PosixFileAttributes attrs = Files.readAttributes(from, PosixFileAttributes.class);
+        toView.setPermissions(attrs.permissions());
+        try {
+            final PosixFileAttributes toAttrs = toView.readAttributes();
+            if (!attrs.owner().equals(toAttrs.owner())) toView.setOwner(attrs.owner());
+            if (!attrs.group().equals(toAttrs.group())) toView.setGroup(attrs.group());
+        } catch (IOException e) {
+            // usually only root may change the owner
+            log.debug("copyPosixAttributes: error setting owner/group of "+to+": "+e);
+        }
+    }
+
     public static void renameOrDie (File from, File to) {
         if (!from.renameTo(to)) die("Error renaming "+abs(from)+" -> "+abs(to));
     }
@@ -413,7 +473,8 @@ public class FileUtil {
             return false;
         }
         if (dir.exists() && dir.isDirectory()) return true;
-        if (!dir.exists() && !dir.mkdirs()) {
+        // mkdirs fails if another thread creates the directory first, so check again before giving up
+        if (!dir.exists() && !dir.mkdirs() && !dir.isDirectory()) {
             log.error("ensureDirExists: error creating: " + abs(dir));
             return false;
         }
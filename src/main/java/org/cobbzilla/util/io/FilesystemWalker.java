@@ -1,41 +1,58 @@
 package org.cobbzilla.util.io;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.util.daemon.AwaitResult;
+import org.cobbzilla.util.daemon.ExecutorRegistry;
 import org.cobbzilla.util.string.StringUtil;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-
-import static org.cobbzilla.util.daemon.Await.awaitAll;
-import static org.cobbzilla.util.daemon.DaemonThreadFactory.fixedPool;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
 import static org.cobbzilla.util.io.FileUtil.abs;
-import static org.cobbzilla.util.io.FileUtil.isSymlink;
-import static org.cobbzilla.util.system.Sleep.sleep;
 import static org.cobbzilla.util.time.TimeUtil.parseDuration;
 
+/**
+ * Walks directory trees in parallel on a work-stealing ForkJoinPool from ExecutorRegistry, calling the visitors for each file (and
+ * optionally each directory) as it is found.
+ *
+ * Each directory is one task; files are visited by the thread that lists their directory, so a slow visitor slows
+ * the walk rather than letting work pile up. Completion is detected with CountedCompleters, without tracking a
+ * Future per file. When symlinks are followed, each directory is walked only once, so symlink loops terminate.
+ */
 @Accessors(chain=true) @Slf4j
 public class FilesystemWalker {
 
+    public static final int MAX_RECORDED_FAILURES = 1000;
+
     @Getter private final List<File> dirs = new ArrayList<>();
     @Getter private final List<FilesystemVisitor> visitors = new ArrayList<>();
     @Getter @Setter private boolean includeSymlinks = true;
     @Getter @Setter private boolean visitDirs = false;
     @Getter @Setter private int threads = 5;
-    @Getter @Setter private int size = 1_000_000;
     @Getter @Setter private long timeout = TimeUnit.MINUTES.toMillis(15);
     @Getter @Setter private FileFilter filter;
-    @Getter @Setter private long sleepTime = TimeUnit.SECONDS.toMillis(5);
+
+    // the roots are at depth 0; entries deeper than maxDepth are not visited
+    @Getter @Setter private int maxDepth = Integer.MAX_VALUE;
+
+    /** @deprecated no longer used: the walker does not keep a list of tasks */
+    @Deprecated @Getter @Setter private int size = 1_000_000;
+
+    /** @deprecated no longer used: completion is signaled, not polled */
+    @Deprecated @Getter @Setter private long sleepTime = TimeUnit.SECONDS.toMillis(5);
 
     public boolean hasFilter () { return filter != null; }
 
@@ -45,68 +62,178 @@ public class FilesystemWalker {
     public FilesystemWalker withVisitor (FilesystemVisitor visitor) { visitors.add(visitor); return this; }
     public FilesystemWalker withTimeoutDuration (String duration) { setTimeout(parseDuration(duration)); return this; }
 
-    @Getter(lazy=true) private final ExecutorService pool = fixedPool(getThreads());
-    @Getter(lazy=true) private final List<Future<?>> futures = new ArrayList<>(getSize());
+    private final AtomicLong dirsVisited = new AtomicLong();
+    private final AtomicLong filesVisited = new AtomicLong();
+    private final AtomicLong bytesVisited = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final Set<Object> walkedDirs = ConcurrentHashMap.newKeySet();
+    private final Queue<Exception> failures = new ConcurrentLinkedQueue<>();
+    @Getter private long startTime;
+    @Getter private long endTime;
+
+    public long getDirsVisited () { return dirsVisited.get(); }
+    public long getFilesVisited () { return filesVisited.get(); }
+    public long getBytesVisited () { return bytesVisited.get(); }
+    public long getErrors () { return errors.get(); }
+
+    public long getElapsed () { return startTime == 0 ? 0 : (endTime == 0 ? now() : endTime) - startTime; }
+    public double getDirsPerSecond () { return perSecond(dirsVisited.get()); }
+    public double getFilesPerSecond () { return perSecond(filesVisited.get()); }
+    public double getBytesPerSecond () { return perSecond(bytesVisited.get()); }
+    private double perSecond (long count) {
+        final long elapsed = getElapsed();
+        return elapsed == 0 ? 0 : 1000.0 * count / elapsed;
+    }
 
-    public AwaitResult walk() {
-        for (File dir : dirs) fileJob(dir);
+    /**
+     * @return the result of the walk: at most MAX_RECORDED_FAILURES failures (see getErrors for the total),
+     * and a single timeout if the walk did not finish within the timeout
+     */
+    public AwaitResult<Void> walk() {
+        final AwaitResult<Void> result = new AwaitResult<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final ForkJoinPool pool = ExecutorRegistry.instance.newForkJoinPool("fs-walker", threads);
+        dirsVisited.set(0);
+        filesVisited.set(0);
+        bytesVisited.set(0);
+        errors.set(0);
+        walkedDirs.clear();
+        failures.clear();
+        startTime = now();
+        endTime = 0;
+        try {
+            pool.execute(new RootTask(done));
+            if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+                log.warn("walk: timed out after "+timeout+"ms, visited "+filesVisited.get()+" files in "+dirsVisited.get()+" dirs");
+                result.timeout();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("walk: interrupted");
+        } finally {
+            endTime = now();
+            pool.shutdownNow();
+        }
+        for (Exception e : failures) result.fail(e);
+        if (!failures.isEmpty()) log.warn(StringUtil.toString(failures, "\n---------"));
+        return result;
+    }
 
-        // wait for number of futures to stop increasing
-        do {
-            final int lastNumFutures = numFutures();
-            awaitFutures();
-            if (numFutures() == lastNumFutures) break;
-            sleep(getSleepTime());
-        } while (true);
-        return awaitFutures();
+    private void fail(Exception e) {
+        errors.incrementAndGet();
+        if (failures.size() < MAX_RECORDED_FAILURES) failures.add(e);
     }
 
-    private AwaitResult awaitFutures() {
-        final AwaitResult result = awaitAll(getFutures(), getTimeout());
-        if (!result.allSucceeded()) log.warn(StringUtil.toString(result.getFailures().values(), "\n---------"));
-        return result;
+    private void visit(File file) {
+        for (FilesystemVisitor visitor : visitors) {
+            try {
+                visitor.visit(file);
+            } catch (Exception e) {
+                fail(new IllegalStateException("visit("+abs(file)+"): "+e, e));
+            }
+        }
     }
 
-    private int numFutures () {
-        final List<Future<?>> futures = getFutures();
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (futures) { return futures.size(); }
+    /**
+     * @return true if the directory has not been walked before. only tracked when following symlinks,
+     * since a loop requires a symlink
+     */
+    private boolean firstVisit(Path dir, BasicFileAttributes attrs) {
+        if (!includeSymlinks) return true;
+        Object key = attrs.fileKey();
+        if (key == null) {
+            try {
+                key = dir.toRealPath();
+            } catch (IOException e) {
+                key = dir.toAbsolutePath().normalize();
+            }
+        }
+        return walkedDirs.add(key);
     }
 
-    private boolean fileJob(File f) {
-        final List<Future<?>> futures = getFutures();
-        final Future<?> future = getPool().submit(new FsWalker(f));
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (futures) { return futures.add(future); }
+    private BasicFileAttributes attributes(Path path) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attrs.isSymbolicLink()) return attrs;
+        return includeSymlinks ? Files.readAttributes(path, BasicFileAttributes.class) : null;
     }
 
-    @AllArgsConstructor
-    private class FsWalker implements Runnable {
-        private final File file;
+    private class RootTask extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+        private final CountDownLatch done;
 
-        @Override public void run() {
-            if (isSymlink(file) && !includeSymlinks) return;
+        RootTask(CountDownLatch done) { this.done = done; }
 
-            if (file.isFile()) {
-                // visit the file
-                visit();
+        @Override public void compute() {
+            for (File root : dirs) entry(this, root.toPath(), 0);
+            tryComplete();
+        }
 
-            } else if (file.isDirectory()) {
-                // should we visit directory entries?
-                if (visitDirs) visit();
+        @Override public void onCompletion(CountedCompleter<?> caller) { done.countDown(); }
 
-                // should we filter directory entries?
-                final File[] files = hasFilter() ? file.listFiles(filter) : file.listFiles();
+        @Override public boolean onExceptionalCompletion(Throwable ex, CountedCompleter<?> caller) {
+            log.error("walk: unexpected error: "+ex, ex);
+            done.countDown();
+            return true;
+        }
+    }
 
-                // walk each entry in the directory
-                if (files != null) for (File f : files) fileJob(f);
+    /**
+     * Visit a file now, or fork a task to walk a directory
+     */
+    private void entry(CountedCompleter<?> parent, Path path, int depth) {
+        final BasicFileAttributes attrs;
+        try {
+            attrs = attributes(path);
+        } catch (Exception e) {
+            fail(new IllegalStateException("entry("+path+"): "+e, e));
+            return;
+        }
+        if (attrs == null) return; // a symlink, and we are not following them
 
-            } else {
-                log.warn("unexpected file: neither file nor directory, skipping: "+abs(file));
+        if (attrs.isDirectory()) {
+            if (!firstVisit(path, attrs)) {
+                log.debug("entry: already walked, skipping (symlink loop?): "+path);
+                return;
             }
+            dirsVisited.incrementAndGet();
+            if (visitDirs) visit(path.toFile());
+            if (depth < maxDepth) {
+                parent.addToPendingCount(1);
+                new DirTask(parent, path, depth).fork();
+            }
+
+        } else if (attrs.isRegularFile()) {
+            filesVisited.incrementAndGet();
+            bytesVisited.addAndGet(attrs.size());
+            visit(path.toFile());
 
+        } else {
+            log.warn("unexpected file: neither file nor directory, skipping: "+path);
         }
+    }
 
-        private void visit() { for (FilesystemVisitor visitor : getVisitors()) visitor.visit(file); }
+    private class DirTask extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        private final int depth;
+
+        DirTask(CountedCompleter<?> parent, Path dir, int depth) {
+            super(parent);
+            this.dir = dir;
+            this.depth = depth;
+        }
+
+        @Override public void compute() {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path path : entries) {
+                    if (hasFilter() && !filter.accept(path.toFile())) continue;
+                    entry(this, path, depth + 1);
+                }
+            } catch (Exception e) {
+                fail(new IllegalStateException("walk("+dir+"): "+e, e));
+            }
+            tryComplete();
+        }
     }
+
 }
@@ -0,0 +1,42 @@
+package org.cobbzilla.util.io;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * A coalesced event from FilesystemWatchHub: the net change to one path.
+ * The context is the path relative to the registration root; getPath returns the absolute path.
+ */
+@AllArgsConstructor @ToString(of={"kind", "path", "directory", "count"})
+public class FilesystemWatchEvent implements WatchEvent<Path> {
+
+    private final Kind<?> kind;
+    @Getter private final Path path;
+    private final Path context;
+    @Getter private final boolean directory;
+    private final int count;
+
+    @Override @SuppressWarnings("unchecked") public Kind<Path> kind() { return (Kind<Path>) kind; }
+    @Override public int count() { return count; }
+    @Override public Path context() { return context; }
+
+    public boolean isOverflow() { return kind == OVERFLOW; }
+
+    /**
+     * Combine two successive kinds of event on the same path into the net change
+     * @return the net kind, or null if the changes cancel out (created, then deleted)
+     */
+    public static Kind<?> coalesce(Kind<?> previous, Kind<?> next) {
+        if (previous == null || previous == next) return next;
+        if (previous == ENTRY_CREATE) return next == ENTRY_DELETE ? null : ENTRY_CREATE;
+        if (previous == ENTRY_DELETE) return next == ENTRY_CREATE ? ENTRY_MODIFY : ENTRY_DELETE;
+        return next; // previous was ENTRY_MODIFY
+    }
+
+}
@@ -0,0 +1,378 @@
+package org.cobbzilla.util.io;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.daemon.ExecutorRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.envInt;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+
+/**
+ * Watches many directory trees with a single WatchService and a single thread.
+ *
+ * A recursive registration watches every directory under its root, including directories created later; their
+ * existing contents are reported as created. Raw events are collected until the WatchService has nothing more to
+ * report, then coalesced into at most one event per path (see FilesystemWatchEvent.coalesce) and passed to each
+ * interested listener on a bounded, shared executor. When the WatchService overflows, the trees are rescanned, any
+ * missed directories are registered, and listeners receive an OVERFLOW event.
+ *
+ * Roots that do not exist yet, or that stop being watched (for example because they were deleted), are retried
+ * every retryInterval milliseconds until they can be watched again. A directory that was deleted and re-created
+ * is watched again, even when its events coalesce to a modification.
+ */
+@Slf4j
+public class FilesystemWatchHub implements Closeable {
+
+    public static final String ENV_DISPATCH_THREADS = "FS_WATCH_DISPATCH_THREADS";
+    public static final int DEFAULT_DISPATCH_THREADS = 2;
+    public static final long POLL_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    public static final FilesystemWatchHub instance = new FilesystemWatchHub(
+            ExecutorRegistry.instance.shared("fs-watch-dispatch", envInt(ENV_DISPATCH_THREADS, DEFAULT_DISPATCH_THREADS)));
+
+    private final ExecutorService dispatcher;
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+    private final Map<Path, WatchKey> dirKeys = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> keyDirs = new ConcurrentHashMap<>();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private WatchService watchService;
+    private Thread thread;
+
+    private final AtomicLong rawEvents = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+
+    public FilesystemWatchHub(ExecutorService dispatcher) { this.dispatcher = dispatcher; }
+
+    public long getRawEvents() { return rawEvents.get(); }
+    public long getDispatched() { return dispatched.get(); }
+    public long getOverflows() { return overflows.get(); }
+    public int getWatchedDirs() { return dirKeys.size(); }
+    public int getRegistrations() { return registrations.size(); }
+
+    public Registration watch(Path root, FilesystemWatchListener listener) { return watch(root, true, listener); }
+
+    public Registration watch(Path root, boolean recursive, FilesystemWatchListener listener) {
+        return watch(root, recursive, TimeUnit.SECONDS.toMillis(10), listener);
+    }
+
+    /**
+     * @param root directory to watch
+     * @param recursive if true, watch all directories under root, otherwise only root itself
+     * @param retryInterval if root does not exist, how often to check again
+     * @param listener receives events
+     * @return the registration. close it to stop watching
+     */
+    public Registration watch(Path root, boolean recursive, long retryInterval, FilesystemWatchListener listener) {
+        if (closed.get()) return die("watch: hub is closed");
+        start();
+        final Registration registration = new Registration(root.toAbsolutePath().normalize(), recursive, retryInterval, listener);
+        registrations.add(registration);
+        registration.register(false);
+        return registration;
+    }
+
+    private synchronized void start() {
+        if (thread != null) return;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            die("start: error creating WatchService: "+e, e);
+        }
+        thread = new Thread(this::run, "fs-watch-hub");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) return;
+        for (Registration r : registrations) r.close();
+        synchronized (this) {
+            if (thread != null) thread.interrupt();
+            if (watchService != null) watchService.close();
+        }
+    }
+
+    private void run() {
+        while (!closed.get()) {
+            try {
+                final Map<Path, List<WatchEvent<?>>> batch = new LinkedHashMap<>();
+                boolean overflow = false;
+                WatchKey key = watchService.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    final Path dir = keyDirs.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        rawEvents.incrementAndGet();
+                        if (event.kind() == OVERFLOW) {
+                            overflow = true;
+                        } else if (dir != null) {
+                            batch.computeIfAbsent(dir, d -> new ArrayList<>()).add(event);
+                        }
+                    }
+                    if (!key.reset()) {
+                        log.debug("run: watch key no longer valid: "+dir);
+                        if (dir != null) {
+                            keyDirs.remove(key);
+                            dirKeys.remove(dir, key);
+                            for (Registration r : registrations) {
+                                if (r.root.equals(dir)) r.lost();
+                            }
+                        }
+                    }
+                    // collect everything already queued, so that bursts are coalesced
+                    key = watchService.poll();
+                }
+                if (overflow) overflow();
+                if (!batch.isEmpty()) dispatch(batch);
+                for (Registration r : registrations) {
+                    if (r.isPending() && now() >= r.nextRetry) r.register(true);
+                }
+
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                if (!closed.get()) log.warn("run: exiting unexpectedly: "+e);
+                return;
+
+            } catch (Exception e) {
+                log.error("run: error handling events: "+e, e);
+            }
+        }
+    }
+
+    private void dispatch(Map<Path, List<WatchEvent<?>>> batch) {
+        // a directory deleted and created again is a new directory: its old keys are stale, even if still valid
+        for (Path path : replaced(batch)) {
+            if (Files.isDirectory(path)) forget(path);
+        }
+        for (Registration r : registrations) {
+            final Map<Path, WatchEvent.Kind<?>> changes = new LinkedHashMap<>();
+            final Map<Path, Integer> counts = new HashMap<>();
+            for (Map.Entry<Path, List<WatchEvent<?>>> entry : batch.entrySet()) {
+                final Path dir = entry.getKey();
+                if (!r.covers(dir)) continue;
+                for (WatchEvent<?> event : entry.getValue()) {
+                    final Path path = dir.resolve((Path) event.context());
+                    final WatchEvent.Kind<?> kind = FilesystemWatchEvent.coalesce(changes.get(path), event.kind());
+                    if (kind == null) changes.remove(path); else changes.put(path, kind);
+                    counts.merge(path, event.count(), Integer::sum);
+                }
+            }
+            if (changes.isEmpty()) continue;
+
+            final List<FilesystemWatchEvent> events = new ArrayList<>(changes.size());
+            for (Map.Entry<Path, WatchEvent.Kind<?>> change : changes.entrySet()) {
+                final Path path = change.getKey();
+                final boolean isDir = change.getValue() == ENTRY_DELETE ? dirKeys.containsKey(path) : Files.isDirectory(path);
+                events.add(new FilesystemWatchEvent(change.getValue(), path, r.root.relativize(path), isDir, counts.get(path)));
+                if (isDir && r.recursive && change.getValue() != ENTRY_DELETE
+                        && (change.getValue() == ENTRY_CREATE || !isWatched(path))) {
+                    // watch the new directory, and report what was created in it before the watch started
+                    r.registerTree(path, events);
+                }
+            }
+            r.send(events);
+        }
+    }
+
+    /**
+     * @return paths that were deleted and then created within the batch
+     */
+    private static Set<Path> replaced(Map<Path, List<WatchEvent<?>>> batch) {
+        final Set<Path> replaced = new HashSet<>();
+        final Set<Path> deleted = new HashSet<>();
+        for (Map.Entry<Path, List<WatchEvent<?>>> entry : batch.entrySet()) {
+            for (WatchEvent<?> event : entry.getValue()) {
+                final Path path = entry.getKey().resolve((Path) event.context());
+                if (event.kind() == ENTRY_DELETE) {
+                    deleted.add(path);
+                } else if (event.kind() == ENTRY_CREATE && deleted.contains(path)) {
+                    replaced.add(path);
+                }
+            }
+        }
+        return replaced;
+    }
+
+    private boolean isWatched(Path dir) {
+        final WatchKey key = dirKeys.get(dir);
+        return key != null && key.isValid();
+    }
+
+    // stop watching dir and everything under it, so that the directories found there now can be registered
+    private void forget(Path dir) {
+        for (Map.Entry<Path, WatchKey> entry : dirKeys.entrySet()) {
+            if (entry.getKey().startsWith(dir) && dirKeys.remove(entry.getKey(), entry.getValue())) {
+                keyDirs.remove(entry.getValue());
+                entry.getValue().cancel();
+            }
+        }
+    }
+
+    private void overflow() {
+        overflows.incrementAndGet();
+        log.warn("overflow: events were lost, rescanning "+registrations.size()+" registrations");
+        for (Registration r : registrations) {
+            if (r.isPending()) continue;
+            r.register(true);
+            r.send(Collections.singletonList(new FilesystemWatchEvent(OVERFLOW, r.root, r.root.relativize(r.root), true, 1)));
+        }
+    }
+
+    private void registerDir(Path dir) throws IOException {
+        if (isWatched(dir)) return;
+        final WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        keyDirs.put(key, dir);
+        final WatchKey stale = dirKeys.put(dir, key);
+        if (stale != null && stale != key) keyDirs.remove(stale);
+    }
+
+    private void unregisterUnused() {
+        for (Map.Entry<Path, WatchKey> entry : dirKeys.entrySet()) {
+            boolean used = false;
+            for (Registration r : registrations) {
+                if (r.covers(entry.getKey())) { used = true; break; }
+            }
+            if (!used && dirKeys.remove(entry.getKey(), entry.getValue())) {
+                keyDirs.remove(entry.getValue());
+                entry.getValue().cancel();
+            }
+        }
+    }
+
+    public class Registration implements Closeable {
+
+        @Getter private final Path root;
+        @Getter private final boolean recursive;
+        private final long retryInterval;
+        private final FilesystemWatchListener listener;
+
+        private volatile boolean pending = true;
+        private volatile long nextRetry = 0;
+        private boolean logNotExists = true;
+
+        // batches are delivered by one task at a time, in order
+        private final Queue<List<FilesystemWatchEvent>> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+
+        private Registration(Path root, boolean recursive, long retryInterval, FilesystemWatchListener listener) {
+            this.root = root;
+            this.recursive = recursive;
+            this.retryInterval = retryInterval;
+            this.listener = listener;
+        }
+
+        public boolean isPending() { return pending; }
+
+        boolean covers(Path dir) { return recursive ? dir.startsWith(root) : dir.equals(root); }
+
+        // the root is no longer watched (it was deleted, or is no longer accessible): register it again when possible
+        private synchronized void lost() {
+            if (pending) return;
+            log.warn("lost: no longer watching "+root+", will retry");
+            forget(root);
+            pending = true;
+            logNotExists = false;
+            nextRetry = now();
+        }
+
+        private synchronized void register(boolean rescan) {
+            try {
+                if (!Files.isDirectory(root)) throw new NoSuchFileException(root.toString());
+                if (recursive) {
+                    registerTree(root, null);
+                } else {
+                    registerDir(root);
+                }
+                if (pending && !logNotExists) log.info("register: now watching "+root);
+                pending = false;
+                logNotExists = true;
+
+            } catch (NoSuchFileException e) {
+                if (logNotExists) {
+                    log.warn("register: watch dir does not exist, waiting for it to exist: "+root);
+                    logNotExists = false;
+                }
+                pending = true;
+                nextRetry = now() + retryInterval;
+
+            } catch (IOException e) {
+                log.warn("register: error watching "+root+(rescan ? " (rescan)" : "")+": "+e);
+                pending = true;
+                nextRetry = now() + retryInterval;
+            }
+        }
+
+        /**
+         * @param created if not null, an event is added here for every entry under dir, except dir itself
+         */
+        private void registerTree(Path dir, List<FilesystemWatchEvent> created) {
+            try {
+                Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                    @Override public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                        registerDir(d);
+                        if (created != null && !d.equals(dir)) created.add(new FilesystemWatchEvent(ENTRY_CREATE, d, root.relativize(d), true, 1));
+                        return FileVisitResult.CONTINUE;
+                    }
+                    @Override public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+                        if (created != null) created.add(new FilesystemWatchEvent(ENTRY_CREATE, f, root.relativize(f), false, 1));
+                        return FileVisitResult.CONTINUE;
+                    }
+                    @Override public FileVisitResult visitFileFailed(Path f, IOException e) {
+                        log.debug("registerTree: skipping "+f+": "+e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                log.warn("registerTree("+dir+"): "+e);
+            }
+        }
+
+        private void send(List<FilesystemWatchEvent> events) {
+            queue.add(events);
+            drain();
+        }
+
+        private void drain() {
+            if (!sending.compareAndSet(false, true)) return;
+            dispatcher.submit(() -> {
+                try {
+                    List<FilesystemWatchEvent> events;
+                    while ((events = queue.poll()) != null) {
+                        try {
+                            listener.onEvents(events);
+                            dispatched.addAndGet(events.size());
+                        } catch (Exception e) {
+                            log.warn("drain: listener error for "+root+": "+e, e);
+                        }
+                    }
+                } finally {
+                    sending.set(false);
+                }
+                // a batch may have been queued after the last poll
+                if (!queue.isEmpty()) drain();
+            });
+        }
+
+        @Override public void close() {
+            if (registrations.remove(this)) unregisterUnused();
+        }
+
+        @Override public String toString() { return "Registration{root="+root+", recursive="+recursive+", pending="+pending+"}"; }
+    }
+
+}
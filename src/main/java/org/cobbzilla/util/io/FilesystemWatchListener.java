@@ -0,0 +1,15 @@
+package org.cobbzilla.util.io;
+
+import java.util.List;
+
+public interface FilesystemWatchListener {
+
+    /**
+     * Called with the changes seen in one pass of FilesystemWatchHub, at most one event per path.
+     * Calls for the same registration are never concurrent, and arrive in order.
+     * @param events the coalesced events. An OVERFLOW event (with the root as its path) means some events were lost
+     *               and the tree should be rescanned.
+     */
+    void onEvents(List<FilesystemWatchEvent> events);
+
+}
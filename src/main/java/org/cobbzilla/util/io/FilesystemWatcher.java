@@ -1,90 +1,109 @@
 package org.cobbzilla.util.io;
 
-import lombok.Cleanup;
 import lombok.Getter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
-import org.cobbzilla.util.system.Sleep;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.*;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
-import static org.cobbzilla.util.daemon.ZillaRuntime.terminate;
 import static org.cobbzilla.util.io.FileUtil.abs;
 
-@Slf4j @ToString(of={"path", "done"})
+/**
+ * Watches a directory, and by default everything under it, calling the on* methods as things change.
+ * Watches are multiplexed onto FilesystemWatchHub.instance, so watchers do not have their own threads.
+ * Events passed to handleEvent are FilesystemWatchEvents, whose context is relative to the watched path.
+ */
+@Slf4j @ToString(of={"path", "recursive"})
 public class FilesystemWatcher implements Runnable, Closeable {
 
     public static final long STOP_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
 
-    private final Thread thread = new Thread(this);
-    private final AtomicBoolean done = new AtomicBoolean(false);
     @Getter private final Path path;
+    @Getter private final boolean recursive;
+    private FilesystemWatchHub.Registration registration;
+
+    public FilesystemWatcher(File path) { this(path.toPath()); }
+    public FilesystemWatcher(Path path) { this(path, true); }
+    public FilesystemWatcher(Path path, boolean recursive) {
+        this.path = path;
+        this.recursive = recursive;
+    }
 
-    public FilesystemWatcher(File path) { this.path = path.toPath(); }
-    public FilesystemWatcher(Path path) { this.path = path; }
+    protected FilesystemWatchHub getHub() { return FilesystemWatchHub.instance; }
 
     public synchronized void start () {
-        done.set(false);
-        thread.setDaemon(true);
-        thread.start();
+        if (registration != null) return;
+        registration = getHub().watch(path, recursive, getSleepWhileNotExists(), events -> {
+            for (FilesystemWatchEvent event : events) handleEvent(event);
+        });
     }
 
     public synchronized void stop () {
-        done.set(true);
-        terminate(thread, STOP_TIMEOUT);
+        if (registration == null) return;
+        registration.close();
+        registration = null;
+        notifyAll();
     }
 
+    public synchronized boolean isRunning () { return registration != null; }
+
     @Override public void close() throws IOException { stop(); }
 
-    // print the events and the affected file
     protected void handleEvent(WatchEvent<?> event) {
 
-        WatchEvent.Kind<?> kind = event.kind();
-        Path path = event.context() instanceof Path ? (Path) event.context() : null;
-        File file = path == null ? null : path.toFile();
+        final WatchEvent.Kind<?> kind = event.kind();
+        final Path path = event.context() instanceof Path ? (Path) event.context() : null;
 
-        if (file == null) {
+        if (path == null) {
             log.warn("null path in event: "+event);
             return;
         }
+        final File file = toFile(path);
+        final boolean isDir = event instanceof FilesystemWatchEvent ? ((FilesystemWatchEvent) event).isDirectory() : file.isDirectory();
 
         if (kind.equals(StandardWatchEventKinds.ENTRY_CREATE)) {
-            if (file.isDirectory()) {
-                onDirCreated(toFile(path));
+            if (isDir) {
+                onDirCreated(file);
             } else {
-                onFileCreated(toFile(path));
+                onFileCreated(file);
             }
         } else if (kind.equals(StandardWatchEventKinds.ENTRY_DELETE)) {
-            if (file.isDirectory()) {
-                onDirDeleted(toFile(path));
+            if (isDir) {
+                onDirDeleted(file);
             } else {
-                onFileDeleted(toFile(path));
+                onFileDeleted(file);
             }
         } else if (kind.equals(StandardWatchEventKinds.ENTRY_MODIFY)) {
-            if (file.isDirectory()) {
-                onDirModified(toFile(path));
+            if (isDir) {
+                onDirModified(file);
             } else {
-                onFileModified(toFile(path));
+                onFileModified(file);
             }
+        } else if (kind.equals(StandardWatchEventKinds.OVERFLOW)) {
+            onOverflow();
         }
     }
 
-    protected void onDirCreated(File path) { log.info("dir created: "+ abs(path)); }
-    protected void onFileCreated(File path) { log.info("file created: "+ abs(path)); }
+    protected void onDirCreated(File path) { log.debug("dir created: "+ abs(path)); }
+    protected void onFileCreated(File path) { log.debug("file created: "+ abs(path)); }
+
+    protected void onDirModified(File path) { log.debug("dir modified: "+ abs(path)); }
+    protected void onFileModified(File path) { log.debug("file modified: "+ abs(path)); }
 
-    protected void onDirModified(File path) { log.info("dir modified: "+ abs(path)); }
-    protected void onFileModified(File path) { log.info("file modified: "+ abs(path)); }
+    protected void onDirDeleted(File path) { log.debug("dir deleted: "+ abs(path)); }
+    protected void onFileDeleted(File path) { log.debug("file deleted: "+ abs(path)); }
 
-    protected void onDirDeleted(File path) { log.info("dir deleted: "+ abs(path)); }
-    protected void onFileDeleted(File path) { log.info("file deleted: "+ abs(path)); }
+    /** Some events were lost. Anything under the path may have changed. */
+    protected void onOverflow() { log.warn("events lost, rescan needed: "+abs(path)); }
 
-    public File toFile(Path p) { return new File(path.toFile(), p.toFile().getName()); }
+    public File toFile(Path p) { return path.resolve(p).toFile(); }
 
     /**
      * If the path does not exist, we cannot create the watch. But we can keep trying, and we do.
@@ -93,61 +112,21 @@ public class FilesystemWatcher implements Runnable, Closeable {
     protected long getSleepWhileNotExists() { return 10_000; }
 
     /**
-     * If null is returned, the watcher will terminate on any unexpected Exception
-     * @return how long to sleep after some other unknown Exception (besides InterruptedException) occurs.
+     * @deprecated no longer used: errors are handled by FilesystemWatchHub
      */
-    protected Integer getSleepAfterUnexpectedError() { return 10_000; }
+    @Deprecated protected Integer getSleepAfterUnexpectedError() { return 10_000; }
 
+    /**
+     * Start watching, and block until stopped
+     */
     @Override public void run() {
-        boolean logNotExists = true;
-        while (!done.get()) {
-            try {
-                log.info("Registering watch service on " + path);
-                @Cleanup final WatchService watchService = path.getFileSystem().newWatchService();
-                path.register(watchService,
-                        StandardWatchEventKinds.ENTRY_CREATE,
-                        StandardWatchEventKinds.ENTRY_MODIFY,
-                        StandardWatchEventKinds.ENTRY_DELETE);
-                logNotExists = true;
-
-                // loop forever to watch directory
-                while (!done.get()) {
-                    final WatchKey watchKey;
-                    watchKey = watchService.take(); // this call is blocking until events are present
-
-                    // poll for file system events on the WatchKey
-                    log.info("Waiting for FS events on " + path);
-                    for (final WatchEvent<?> event : watchKey.pollEvents()) {
-                        log.info("Handling event: " + event.kind().name() + " " + event.context());
-                        handleEvent(event);
-                    }
-
-                    // if the watched directed gets deleted, get out of run method
-                    if (!watchKey.reset()) {
-                        log.warn("watchKey could not be reset, perhaps path (" + path + ") was removed?");
-                        watchKey.cancel();
-                        watchService.close();
-                        break;
-                    }
-                }
-
-            } catch (InterruptedException e) {
-                die("watch thread interrupted, exiting: " + e, e);
-
-            } catch (NoSuchFileException e) {
-                if (logNotExists) {
-                    log.warn("watch dir does not exist, waiting for it to exist: " + e);
-                    logNotExists = false;
-                }
-                Sleep.sleep(getSleepWhileNotExists(), "waiting for path to exist: " + abs(path));
-
-            } catch (Exception e) {
-                if (getSleepAfterUnexpectedError() != null) {
-                    log.warn("error in watch thread, waiting to re-create the watch: " + e, e);
-                    Sleep.sleep(getSleepAfterUnexpectedError());
-
-                } else {
-                    die("error in watch thread, exiting: " + e, e);
+        start();
+        synchronized (this) {
+            while (registration != null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    die("watch thread interrupted, exiting: " + e, e);
                 }
             }
         }
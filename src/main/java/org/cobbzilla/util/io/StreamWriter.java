@@ -0,0 +1,14 @@
+package org.cobbzilla.util.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes content directly to a stream, so callers do not need to build the whole content in memory first.
+ * Implementations should be repeatable: each call to write must write the same content.
+ */
+public interface StreamWriter {
+
+    void write (OutputStream out) throws IOException;
+
+}
@@ -24,8 +24,7 @@ public class UniqueFileWalkerMain extends BaseMain<UniqueFileWalkerOptions> {
         final UniqueFileWalkerOptions options = getOptions();
 
         final UniqueFileFsWalker visitor = new UniqueFileFsWalker(options.getSize());
-        final AwaitResult result = new FilesystemWalker()
-                .setSize(options.getSize())
+        final AwaitResult<Void> result = new FilesystemWalker()
                 .setThreads(options.getThreads())
                 .withDirs(options.getDirs())
                 .withTimeoutDuration(options.getTimeoutDuration())
@@ -34,11 +33,11 @@ public class UniqueFileWalkerMain extends BaseMain<UniqueFileWalkerOptions> {
 
         if (!result.allSucceeded()) {
             if (result.numFails() > 0) {
-                out(">>>>> "+result.getFailures().values().size()+" failures:");
-                out(StringUtil.toString(result.getFailures().values(), "\n-----"));
+                out(">>>>> "+result.numFails()+" failures:");
+                out(StringUtil.toString(result.getAllFailures(), "\n-----"));
             }
             if (result.numTimeouts() > 0) {
-                out(">>>>> "+result.getTimeouts().size()+" timeouts");
+                out(">>>>> "+result.numTimeouts()+" timeouts");
             }
         }
         int i=1;
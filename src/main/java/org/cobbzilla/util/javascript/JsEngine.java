@@ -2,106 +2,275 @@ package org.cobbzilla.util.javascript;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.script.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
 import static org.cobbzilla.util.json.JsonUtil.fromJsonOrDie;
 
+/**
+ * Evaluates JavaScript expressions with a pool of Nashorn engines.
+ *
+ * The pool starts with minEngines engines and grows on demand up to maxEngines. When all engines are in use, callers
+ * wait (in arrival order) for up to acquireTimeout milliseconds before failing. Engines idle for longer than
+ * idleTimeout are discarded, down to minEngines. New engines evaluate the warmup scripts before they are used.
+ *
+ * Each pooled engine has a global scope into which the default script is evaluated once, when the engine is created.
+ * Scripts are compiled once per engine and kept in a bounded cache keyed by code text. For each evaluation, the
+ * context values are bound into the engine's global scope, and removed afterwards, along with any other globals the
+ * script defined, so evaluations do not see each other's variables.
+ */
 @Accessors(chain=true) @Slf4j
 public class JsEngine {
 
     private final ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
-    private final List<ScriptEngine> availableScriptEngines;
 
-    private int maxEngines;
+    // idle engines, most recently used first. engines idle for longer than idleTimeout are removed from the end.
+    private final Deque<PooledEngine> idleEngines = new ConcurrentLinkedDeque<>();
+
+    // one permit per engine that may be in use, so at most maxEngines ever exist. fair, so waiters are served in order.
+    private final Semaphore permits;
+
+    private final int minEngines;
+    private final int maxEngines;
+    private final long acquireTimeout;
+    private final long idleTimeout;
+    private final String[] warmupScripts;
+    private final int maxCompiledScripts;
     private String defaultScript;
     public String getDefaultScript () { return empty(defaultScript) ? "" : defaultScript; }
 
+    private final AtomicInteger numEngines = new AtomicInteger(0);
+    private final AtomicInteger inUse = new AtomicInteger(0);
+    private final AtomicLong created = new AtomicLong(0);
+    private final AtomicLong destroyed = new AtomicLong(0);
+    private final AtomicLong acquired = new AtomicLong(0);
+    private final AtomicLong timeouts = new AtomicLong(0);
+    private final AtomicLong totalWaitNanos = new AtomicLong(0);
+    private final AtomicLong maxWaitNanos = new AtomicLong(0);
+
     public JsEngine() { this(new JsEngineConfig(1, 1, null)); }
 
     public JsEngine(JsEngineConfig config) {
-        availableScriptEngines = new ArrayList<>(config.getMinEngines());
-        maxEngines = config.getMaxEngines();
+        minEngines = config.getMinEngines();
+        maxEngines = Math.max(1, config.getMaxEngines());
+        acquireTimeout = config.getAcquireTimeout();
+        idleTimeout = config.getIdleTimeout();
+        warmupScripts = config.getWarmupScripts();
+        maxCompiledScripts = config.getMaxCompiledScripts();
         defaultScript = config.getDefaultScript();
-        for (int i=0; i<config.getMinEngines(); i++) {
-            availableScriptEngines.add(getNashorn(false));
+        permits = new Semaphore(maxEngines, true);
+        for (int i=0; i<Math.min(minEngines, maxEngines); i++) {
+            idleEngines.add(newEngine(false));
         }
-        nashCounter = new AtomicInteger(availableScriptEngines.size());
+    }
+
+    public int getMaxEngines () { return maxEngines; }
+    public int getNumEngines () { return numEngines.get(); }
+    public int getInUse () { return inUse.get(); }
+    public int getIdle () { return idleEngines.size(); }
+    public long getCreated () { return created.get(); }
+    public long getDestroyed () { return destroyed.get(); }
+    public long getAcquired () { return acquired.get(); }
+    public long getTimeouts () { return timeouts.get(); }
+    public long getTotalWaitMillis () { return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get()); }
+    public long getMaxWaitMillis () { return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()); }
+    public double getAverageWaitMillis () {
+        final long count = acquired.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / (count * 1_000_000.0);
     }
 
     protected ScriptEngine getNashorn() { return getNashorn(true); }
 
-    private final AtomicInteger nashCounter;
-    private final AtomicInteger inUse = new AtomicInteger(0);
     protected ScriptEngine getNashorn(boolean report) {
         final ScriptEngine engine = scriptEngineManager.getEngineByName("nashorn");
-        if (report) log.info("getNashorn: creating scripting engine #"+nashCounter.incrementAndGet()+" ("+availableScriptEngines.size()+" available, "+inUse.get()+" in use)");
+        if (report) log.info("getNashorn: creating scripting engine #"+(created.get()+1)+" ("+idleEngines.size()+" available, "+inUse.get()+" in use)");
+        return engine;
+    }
+
+    private PooledEngine newEngine(boolean report) {
+        final PooledEngine engine = new PooledEngine(getNashorn(report));
+        numEngines.incrementAndGet();
+        created.incrementAndGet();
         return engine;
     }
 
     public <T> T evaluate(String code, Map<String, Object> context) {
-        ScriptEngine engine = null;
-        final int numEngines;
-        synchronized (availableScriptEngines) {
-            numEngines = availableScriptEngines.size();
-            if (numEngines > 0) {
-                engine = availableScriptEngines.remove(0);
+        final PooledEngine engine = acquire(code);
+        try {
+            return (T) engine.eval(code, context);
+        } catch (ScriptException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            release(engine);
+        }
+    }
+
+    private PooledEngine acquire(String code) {
+        final long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                return die("evaluate("+code+"): timed out after "+acquireTimeout+"ms waiting for a js engine, maxEngines="+maxEngines+", "+inUse.get()+" in use");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return die("evaluate("+code+"): interrupted waiting for a js engine");
         }
-        if (engine == null) {
-            if (numEngines >= maxEngines) return die("evaluate("+code+"): maxEngines ("+maxEngines+") reached, no js engines available to execute, "+inUse.get()+" in use");
-            engine = getNashorn();
+        final long waited = System.nanoTime() - start;
+        acquired.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        final PooledEngine engine;
+        try {
+            final PooledEngine idle = idleEngines.pollFirst();
+            engine = idle != null ? idle : newEngine(true);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
         }
         inUse.incrementAndGet();
+        return engine;
+    }
 
-        try {
-            final ScriptContext scriptContext = new SimpleScriptContext();
-            final SimpleBindings bindings = new SimpleBindings();
-            for (Map.Entry<String, Object> entry : context.entrySet()) {
-                final Object value = entry.getValue();
-                final Object wrappedOut;
-                Object[] wrappedArray = null;
-                if (value == null) {
-                    wrappedOut = null;
-                } else if (value instanceof JsWrappable) {
-                    wrappedOut = ((JsWrappable) value).jsObject();
-                } else if (value instanceof ArrayNode) {
-                    wrappedOut = fromJsonOrDie((JsonNode) value, Object[].class);
-                } else if (value instanceof JsonNode) {
-                    wrappedOut = fromJsonOrDie((JsonNode) value, Object.class);
-                } else if (value.getClass().isArray()) {
-                    wrappedArray = (Object[]) value;
-                    wrappedOut = null;
-                } else {
-                    wrappedOut = value;
+    private void release(PooledEngine engine) {
+        engine.lastUsed = now();
+        idleEngines.offerFirst(engine);
+        inUse.decrementAndGet();
+        permits.release();
+        shrink();
+    }
+
+    // remove engines that have been idle for longer than idleTimeout, keeping at least minEngines
+    private void shrink() {
+        if (idleTimeout <= 0) return;
+        final long cutoff = now() - idleTimeout;
+        while (true) {
+            final PooledEngine oldest = idleEngines.peekLast();
+            if (oldest == null || oldest.lastUsed > cutoff) return;
+            final int count = numEngines.get();
+            if (count <= minEngines) return;
+            if (!numEngines.compareAndSet(count, count - 1)) continue;
+            if (idleEngines.removeLastOccurrence(oldest)) {
+                destroyed.incrementAndGet();
+            } else {
+                // another thread took it (to use or to remove it)
+                numEngines.incrementAndGet();
+            }
+        }
+    }
+
+    private static final String UNDEFINE_KEYS = "__jsengine_undefine_keys";
+    private static final String UNDEFINE_SCRIPT
+            = "(function (g, keys) { for (var i = 0; i < keys.length; i++) g[keys[i]] = undefined; })(this, "+UNDEFINE_KEYS+");";
+
+    private static Object wrap(Object value) {
+        if (value == null) return null;
+        if (value instanceof JsWrappable) return ((JsWrappable) value).jsObject();
+        if (value instanceof ArrayNode) return fromJsonOrDie((JsonNode) value, Object[].class);
+        if (value instanceof JsonNode) return fromJsonOrDie((JsonNode) value, Object.class);
+        return value;
+    }
+
+    /**
+     * A Nashorn engine, its global scope (with the default script already evaluated), and its compiled scripts.
+     * Used by one thread at a time.
+     *
+     * After each evaluation the global scope is put back as it was after the default script: added globals are
+     * removed, and globals that were reassigned or deleted get their original values back. Changes made inside a
+     * library object (for example, setting a property on it) are not undone.
+     */
+    private class PooledEngine {
+
+        private final ScriptEngine engine;
+        private final Bindings global;
+        private final Map<String, Object> baseline;
+        private final Cache<String, CompiledScript> scripts;
+        private CompiledScript undefine;
+        private volatile long lastUsed = now();
+
+        PooledEngine(ScriptEngine engine) {
+            this.engine = engine;
+            this.global = engine.createBindings();
+            this.scripts = CacheBuilder.newBuilder().maximumSize(maxCompiledScripts).build();
+            if (!empty(defaultScript)) {
+                try {
+                    engine.eval(defaultScript, global);
+                } catch (ScriptException e) {
+                    throw new IllegalStateException("PooledEngine: error evaluating default script: "+e, e);
                 }
-                if (wrappedArray != null) {
-                    bindings.put(entry.getKey(), wrappedArray);
-                } else {
-                    bindings.put(entry.getKey(), wrappedOut);
+            }
+            this.baseline = new HashMap<>(global);
+            if (warmupScripts != null) {
+                for (String script : warmupScripts) {
+                    try {
+                        eval(script, Collections.emptyMap());
+                    } catch (Exception e) {
+                        log.warn("PooledEngine: error evaluating warmup script ("+script+"): "+e);
+                    }
                 }
             }
-            scriptContext.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+        }
+
+        Object eval(String code, Map<String, Object> context) throws ScriptException {
+            final CompiledScript script = compile(code);
+            for (Map.Entry<String, Object> entry : context.entrySet()) global.put(entry.getKey(), wrap(entry.getValue()));
             try {
-                Object eval = engine.eval(getDefaultScript()+"\n"+code, scriptContext);
-                return (T) eval;
-            } catch (ScriptException e) {
-                throw new IllegalStateException(e);
+                return script.eval(global);
+            } finally {
+                reset();
             }
-        } finally {
-            synchronized (availableScriptEngines) {
-                availableScriptEngines.add(engine);
+        }
+
+        // remove everything an evaluation added to the global scope, and restore anything it replaced or deleted
+        private void reset() throws ScriptException {
+            final List<String> undeletable = new ArrayList<>();
+            for (String key : new ArrayList<>(global.keySet())) {
+                if (baseline.containsKey(key)) continue;
+                global.remove(key);
+                // top-level var declarations cannot be deleted, so they are set to undefined instead
+                if (global.containsKey(key)) undeletable.add(key);
             }
-            inUse.decrementAndGet();
+            for (Map.Entry<String, Object> entry : baseline.entrySet()) {
+                // values are compared with equals: script objects are returned in a new mirror on each get
+                if (!global.containsKey(entry.getKey()) || !Objects.equals(global.get(entry.getKey()), entry.getValue())) {
+                    global.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (!undeletable.isEmpty()) {
+                global.put(UNDEFINE_KEYS, undeletable.toArray(new String[undeletable.size()]));
+                try {
+                    undefine().eval(global);
+                } finally {
+                    global.remove(UNDEFINE_KEYS);
+                }
+            }
+        }
+
+        private CompiledScript undefine() throws ScriptException {
+            if (undefine == null) undefine = ((Compilable) engine).compile(UNDEFINE_SCRIPT);
+            return undefine;
+        }
+
+        private CompiledScript compile(String code) throws ScriptException {
+            final CompiledScript found = scripts.getIfPresent(code);
+            if (found != null) return found;
+            final CompiledScript compiled = ((Compilable) engine).compile(code);
+            scripts.put(code, compiled);
+            return compiled;
         }
     }
 
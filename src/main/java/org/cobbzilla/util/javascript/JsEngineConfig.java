@@ -1,16 +1,39 @@
 package org.cobbzilla.util.javascript;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.experimental.Accessors;
 
-@NoArgsConstructor @AllArgsConstructor @Accessors(chain=true)
+import java.util.concurrent.TimeUnit;
+
+@NoArgsConstructor @Accessors(chain=true)
 public class JsEngineConfig {
 
+    public static final int DEFAULT_MAX_COMPILED_SCRIPTS = 1000;
+    public static final long DEFAULT_ACQUIRE_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
     @Getter @Setter private int minEngines;
     @Getter @Setter private int maxEngines;
     @Getter @Setter private String defaultScript;
 
+    // compiled scripts kept per engine, keyed by code text
+    @Getter @Setter private int maxCompiledScripts = DEFAULT_MAX_COMPILED_SCRIPTS;
+
+    // milliseconds to wait for an engine when maxEngines are in use
+    @Getter @Setter private long acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+
+    // milliseconds an engine may sit unused before it is discarded (keeping minEngines). zero or less to keep all engines
+    @Getter @Setter private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    // evaluated by each new engine before it is used, to compile and warm up common expressions
+    @Getter @Setter private String[] warmupScripts;
+
+    public JsEngineConfig(int minEngines, int maxEngines, String defaultScript) {
+        this.minEngines = minEngines;
+        this.maxEngines = maxEngines;
+        this.defaultScript = defaultScript;
+    }
+
 }
@@ -40,7 +40,7 @@ public class JsonEdit {
     public String edit () throws Exception {
         JsonNode root = readJson();
         for (JsonEditOperation operation : operations) {
-            if (operation.isRead()) return JsonUtil.toString(findNode(root, operation.getPath()));
+            if (operation.isRead()) return JsonUtil.toString(findNode(root, operation.getJsonPath()));
             root = apply(root, operation);
         }
         return JsonUtil.toString(JSON.treeToValue(root, Object.class));
@@ -57,7 +57,7 @@ public class JsonEdit {
     }
 
     private JsonNode apply(JsonNode root, JsonEditOperation operation) throws IOException {
-        final List<JsonNode> path = findNodePath(root, operation.getPath());
+        final List<JsonNode> path = findNodePath(root, operation.getJsonPath());
 
         switch (operation.getType()) {
             case write:
@@ -136,7 +136,7 @@ public class JsonEdit {
                 ((ObjectNode) parent).set(childName, newNode);
 
                 // re-generate path now that we've created one missing parent
-                path = findNodePath(root, operation.getPath());
+                path = findNodePath(root, operation.getJsonPath());
                 parent = newNode;
             }
 
@@ -0,0 +1,145 @@
+package org.cobbzilla.util.json;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.daemon.DaemonThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.*;
+import static org.cobbzilla.util.io.FileUtil.*;
+import static org.cobbzilla.util.json.JsonUtil.JSON_FILES;
+
+/**
+ * Applies one list of JsonEditOperations to many JSON files, using a bounded pool of workers.
+ *
+ * Each operation's path is compiled once, before any worker starts, and shared by every file.
+ * Outputs are written atomically (temp file + rename). By default files are edited in place; if an output
+ * directory is set, each output is written there, at the same path relative to the directory or glob it came from.
+ * A file added by itself is written at its bare name, so run fails if two inputs would be written to the same output.
+ */
+@Accessors(chain=true) @Slf4j
+public class JsonEditBatch {
+
+    public static final String GLOB_CHARS = "*?[{";
+
+    @Getter @Setter private List<JsonEditOperation> operations = new ArrayList<>();
+    @Getter @Setter private File outputDir;
+    @Getter @Setter private int parallel = processorCount();
+
+    // input file -> path of its output, relative to outputDir
+    private final Map<File, String> inputs = new LinkedHashMap<>();
+
+    public JsonEditBatch addOperation (JsonEditOperation operation) { operations.add(operation); return this; }
+
+    public List<File> getInputs () { return new ArrayList<>(inputs.keySet()); }
+
+    /**
+     * @param input a JSON file, or a directory (all .json files beneath it are added), or a glob (for example configs/**&#47;*.json)
+     * @return this
+     */
+    public JsonEditBatch addInput (String input) {
+        if (isGlob(input)) return addGlob(input);
+        return addInput(new File(input));
+    }
+
+    public JsonEditBatch addInput (File input) {
+        if (input.isDirectory()) {
+            final Path base = input.toPath();
+            for (File f : listFilesRecursively(input, JSON_FILES)) {
+                if (f.isFile()) inputs.put(f, base.relativize(f.toPath()).toString());
+            }
+        } else {
+            inputs.put(input, input.getName());
+        }
+        return this;
+    }
+
+    public JsonEditBatch addGlob (String glob) {
+        final String prefix = glob.substring(0, indexOfAny(glob, GLOB_CHARS));
+        final int lastSlash = prefix.lastIndexOf('/');
+        final Path base = Paths.get(lastSlash == -1 ? "" : prefix.substring(0, lastSlash+1));
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:"+glob);
+        try (Stream<Path> paths = Files.walk(base)) {
+            paths.filter(p -> matcher.matches(p) && Files.isRegularFile(p))
+                    .forEach(p -> inputs.put(p.toFile(), base.relativize(p).toString()));
+        } catch (IOException e) {
+            return die("addGlob("+glob+"): "+e, e);
+        }
+        return this;
+    }
+
+    public static boolean isGlob (String input) { return indexOfAny(input, GLOB_CHARS) != -1; }
+
+    private static int indexOfAny (String s, String chars) {
+        for (int i=0; i<s.length(); i++) if (chars.indexOf(s.charAt(i)) != -1) return i;
+        return -1;
+    }
+
+    private File outputFor (File input) {
+        return outputDir == null ? input : new File(outputDir, inputs.get(input));
+    }
+
+    public JsonEditBatchResult run () {
+        if (empty(operations)) return die("run: no operations");
+        for (JsonEditOperation operation : operations) {
+            if (operation.isRead()) return die("run: read operations are not supported in batch mode");
+            operation.getJsonPath(); // compile now, so workers share the compiled path
+        }
+        if (outputDir != null) {
+            final Map<String, File> outputs = new HashMap<>();
+            for (Map.Entry<File, String> input : inputs.entrySet()) {
+                final File other = outputs.put(input.getValue(), input.getKey());
+                if (other != null) {
+                    return die("run: "+abs(other)+" and "+abs(input.getKey())+" would both be written to "+abs(outputFor(input.getKey())));
+                }
+            }
+        }
+
+        final JsonEditBatchResult result = new JsonEditBatchResult();
+        final ExecutorService pool = DaemonThreadFactory.fixedPool("json-edit-batch", Math.min(parallel, Math.max(1, inputs.size())));
+        try {
+            final List<Future<JsonEditBatchResult.FileResult>> futures = new ArrayList<>(inputs.size());
+            for (File input : inputs.keySet()) {
+                final File output = outputFor(input);
+                futures.add(pool.submit(() -> edit(input, output)));
+            }
+            for (Future<JsonEditBatchResult.FileResult> future : futures) {
+                try {
+                    result.add(future.get());
+                } catch (InterruptedException e) {
+                    return die("run: interrupted: "+e, e);
+                } catch (ExecutionException e) {
+                    return die("run: unexpected error: "+e.getCause(), e);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return result.finish();
+    }
+
+    private JsonEditBatchResult.FileResult edit (File input, File output) {
+        final long start = now();
+        final long bytes = input.length();
+        try {
+            final String json = new JsonEdit().setJsonData(input).setOperations(operations).edit();
+            toFileAtomic(output, json);
+            return new JsonEditBatchResult.FileResult(input, output, bytes, now() - start, null);
+
+        } catch (Exception e) {
+            log.warn("edit("+abs(input)+"): "+e);
+            return new JsonEditBatchResult.FileResult(input, output, bytes, now() - start, e);
+        }
+    }
+
+}
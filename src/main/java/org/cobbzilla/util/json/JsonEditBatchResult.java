@@ -0,0 +1,65 @@
+package org.cobbzilla.util.json;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+import static org.cobbzilla.util.io.FileUtil.abs;
+
+public class JsonEditBatchResult {
+
+    @AllArgsConstructor
+    public static class FileResult {
+        @Getter private final File input;
+        @Getter private final File output;
+        @Getter private final long bytes;
+        @Getter private final long millis;
+        @Getter private final Exception error;
+
+        public boolean isSuccess() { return error == null; }
+
+        @Override public String toString() {
+            return abs(input) + (isSuccess() ? " -> "+abs(output) : " FAILED: "+error) + " ("+millis+"ms)";
+        }
+    }
+
+    private final long start = now();
+    @Getter private long elapsed;
+    @Getter private long bytes;
+    @Getter private int successCount;
+    @Getter private int failureCount;
+
+    private final List<FileResult> results = new ArrayList<>();
+    public List<FileResult> getResults() { return Collections.unmodifiableList(results); }
+
+    void add(FileResult result) {
+        results.add(result);
+        bytes += result.getBytes();
+        if (result.isSuccess()) successCount++; else failureCount++;
+    }
+
+    JsonEditBatchResult finish() { elapsed = now() - start; return this; }
+
+    public int getCount() { return results.size(); }
+    public boolean isSuccess() { return failureCount == 0; }
+
+    public List<FileResult> getFailures() {
+        final List<FileResult> failures = new ArrayList<>();
+        for (FileResult r : results) if (!r.isSuccess()) failures.add(r);
+        return failures;
+    }
+
+    public double getFilesPerSecond() { return elapsed == 0 ? results.size() * 1000.0 : results.size() * 1000.0 / elapsed; }
+    public double getBytesPerSecond() { return elapsed == 0 ? bytes * 1000.0 : bytes * 1000.0 / elapsed; }
+
+    @Override public String toString() {
+        return getCount()+" files ("+successCount+" succeeded, "+failureCount+" failed) in "+elapsed+"ms: "
+                + String.format("%.1f files/sec, %.1f KB/sec", getFilesPerSecond(), getBytesPerSecond()/1024.0);
+    }
+
+}
@@ -15,54 +15,36 @@ import static org.cobbzilla.util.json.JsonUtil.FULL_MAPPER;
 public class JsonEditOperation {
 
     @Getter @Setter private JsonEditOperationType type;
-    @Getter @Setter private String path;
+    @Getter private String path;
+    public JsonEditOperation setPath(String path) { this.path = path; this.jsonPath = null; return this; }
+
     @Getter @Setter private String json;
 
     public boolean isRead() { return type == JsonEditOperationType.read; }
 
     public JsonNode getNode () throws IOException { return FULL_MAPPER.readTree(json); }
 
-    public boolean hasIndex () { return getIndex() != null; }
-
-    @JsonIgnore @Getter(lazy=true) private final List<String> tokens = initTokens();
-    private List<String> initTokens() { return JsonUtil.tokenize(path); }
-
-    public boolean isEmptyBrackets () {
-        int bracketPos = path.indexOf("[");
-        int bracketClosePos = path.indexOf("]");
-        return bracketPos != -1 && bracketClosePos != -1 && bracketClosePos == bracketPos+1;
+    // compiled once, then shared by every document this operation is applied to
+    @JsonIgnore private volatile JsonPath jsonPath;
+    @JsonIgnore public JsonPath getJsonPath() {
+        JsonPath p = jsonPath;
+        if (p == null) jsonPath = p = JsonPath.path(path);
+        return p;
     }
+    public JsonEditOperation setJsonPath(JsonPath jsonPath) { this.path = jsonPath.getPath(); this.jsonPath = jsonPath; return this; }
 
-    public Integer getIndex() {
-        List<String> tokens = getTokens();
-        if (tokens.size() <= 1) return index(path);
-        return index(tokens.get(tokens.size()-1));
-    }
+    public boolean hasIndex () { return getJsonPath().hasIndex(); }
 
-    private Integer index(String path) {
-        try {
-            int bracketPos = path.indexOf("[");
-            int bracketClosePos = path.indexOf("]");
-            if (bracketPos != -1 && bracketClosePos != -1 && bracketClosePos > bracketPos) {
-                return new Integer(path.substring(bracketPos + 1, bracketClosePos));
-            }
-        } catch (Exception ignored) {}
-        return null;
-    }
+    @JsonIgnore public List<String> getTokens() { return getJsonPath().getTokens(); }
 
-    public String getName() {
-        final List<String> tokens = getTokens();
-        if (tokens.size() <= 1) return stripEmptyTrailingBrackets(path);
-        return stripEmptyTrailingBrackets(tokens.get(tokens.size() - 1));
-    }
+    public boolean isEmptyBrackets () { return getJsonPath().isEmptyBrackets(); }
 
-    private String stripEmptyTrailingBrackets(String path) {
-        return path.endsWith("[]") ? path.substring(0, path.length()-2) : path;
-    }
+    public Integer getIndex() { return getJsonPath().getIndex(); }
+
+    public String getName() { return getJsonPath().getName(); }
 
-    public int getNumPathSegments() { return getTokens().size(); }
+    public int getNumPathSegments() { return getJsonPath().getNumPathSegments(); }
 
-    public String getName(int part) {
-        return getTokens().get(part); }
+    public String getName(int part) { return getJsonPath().getName(part); }
 
 }
@@ -0,0 +1,87 @@
+package org.cobbzilla.util.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.io.Decompressors.isGzipFile;
+import static org.cobbzilla.util.io.FileUtil.abs;
+
+/**
+ * JSON-lines (NDJSON) files: one JSON document per line.
+ *
+ * Readers and writers hold one record (or one batch of records, for parallel readers) in memory at a time.
+ * Files whose names end in .gz are transparently gunzipped when read, and gzipped when written.
+ * Appending to a .gz file adds a new gzip member, which readers handle transparently.
+ */
+public class JsonLines {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    public static <T> JsonLinesReader<T> reader(File file, Class<T> clazz) throws IOException {
+        return reader(file, clazz, JsonUtil.FULL_MAPPER);
+    }
+
+    public static <T> JsonLinesReader<T> reader(File file, Class<T> clazz, ObjectMapper mapper) throws IOException {
+        return new JsonLinesReader<>(open(file), clazz, mapper);
+    }
+
+    public static <T> JsonLinesReader<T> reader(InputStream in, Class<T> clazz, ObjectMapper mapper) throws IOException {
+        return new JsonLinesReader<>(in, clazz, mapper);
+    }
+
+    /**
+     * A reader that decodes batches of lines concurrently. Useful when binding each record is CPU-heavy.
+     * Records are returned in the same order as they appear in the input.
+     * @param threads number of decoding threads
+     * @param batchSize number of lines decoded per task
+     */
+    public static <T> JsonLinesReader<T> parallelReader(File file, Class<T> clazz, ObjectMapper mapper, int threads, int batchSize) throws IOException {
+        return new JsonLinesReader<>(open(file), clazz, mapper, threads, batchSize);
+    }
+
+    public static <T> JsonLinesReader<T> parallelReader(InputStream in, Class<T> clazz, ObjectMapper mapper, int threads, int batchSize) throws IOException {
+        return new JsonLinesReader<>(in, clazz, mapper, threads, batchSize);
+    }
+
+    /**
+     * @return a Stream of the records in the file. Close the stream to close the file.
+     */
+    public static <T> Stream<T> stream(File file, Class<T> clazz) throws IOException {
+        return reader(file, clazz).stream();
+    }
+
+    public static <T> JsonLinesWriter<T> writer(File file) throws IOException {
+        return writer(file, false, JsonUtil.NOTNULL_MAPPER);
+    }
+
+    public static <T> JsonLinesWriter<T> writer(File file, boolean append) throws IOException {
+        return writer(file, append, JsonUtil.NOTNULL_MAPPER);
+    }
+
+    public static <T> JsonLinesWriter<T> writer(File file, boolean append, ObjectMapper mapper) throws IOException {
+        return new JsonLinesWriter<>(create(file, append), mapper);
+    }
+
+    public static <T> JsonLinesWriter<T> writer(OutputStream out, ObjectMapper mapper) throws IOException {
+        return new JsonLinesWriter<>(out, mapper);
+    }
+
+    public static InputStream open(File file) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        return isGzipFile(file) ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    public static OutputStream create(File file, boolean append) throws IOException {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) return die("create: error creating directory: "+abs(dir));
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file, append), BUFFER_SIZE);
+        return isGzipFile(file) ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+}
@@ -0,0 +1,153 @@
+package org.cobbzilla.util.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.daemon.DaemonThreadFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.string.StringUtil.UTF8cs;
+
+/**
+ * Reads a JSON-lines stream one record at a time. Create instances with JsonLines.reader or JsonLines.parallelReader.
+ *
+ * A sequential reader binds every record with one ObjectReader over one parser, so there is no per-line
+ * parser or reader setup. A parallel reader splits the input into batches of lines and binds each batch on a
+ * worker thread; at most (threads * 2) batches are in memory at once.
+ */
+@Slf4j
+public class JsonLinesReader<T> implements Iterator<T>, Closeable {
+
+    @Getter private final Class<T> type;
+    private final InputStream in;
+    private final ObjectReader reader;
+
+    // sequential mode
+    private final JsonParser parser;
+    private final MappingIterator<T> values;
+
+    // parallel mode
+    private final BufferedReader lines;
+    private final ExecutorService pool;
+    private final int maxPending;
+    private final int batchSize;
+    private final Deque<Future<List<T>>> pending = new ArrayDeque<>();
+    private Iterator<T> batch = Collections.emptyIterator();
+    private boolean eof = false;
+
+    @Getter private long count = 0;
+
+    JsonLinesReader(InputStream in, Class<T> type, ObjectMapper mapper) throws IOException {
+        this.type = type;
+        this.in = in;
+        this.reader = mapper.readerFor(type);
+        this.parser = mapper.getFactory().createParser(in);
+        this.values = reader.readValues(parser);
+        this.lines = null;
+        this.pool = null;
+        this.maxPending = 0;
+        this.batchSize = 0;
+    }
+
+    JsonLinesReader(InputStream in, Class<T> type, ObjectMapper mapper, int threads, int batchSize) {
+        this.type = type;
+        this.in = in;
+        this.reader = mapper.readerFor(type);
+        this.parser = null;
+        this.values = null;
+        this.lines = new BufferedReader(new InputStreamReader(in, UTF8cs), JsonLines.BUFFER_SIZE);
+        this.pool = DaemonThreadFactory.fixedPool("json-lines-reader", threads);
+        this.maxPending = Math.max(1, threads) * 2;
+        this.batchSize = batchSize <= 0 ? JsonLines.DEFAULT_BATCH_SIZE : batchSize;
+    }
+
+    public boolean isParallel() { return pool != null; }
+
+    @Override public boolean hasNext() {
+        if (!isParallel()) return values.hasNext();
+        while (!batch.hasNext()) {
+            fill();
+            if (pending.isEmpty()) return false;
+            batch = await(pending.removeFirst()).iterator();
+        }
+        return true;
+    }
+
+    @Override public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        count++;
+        return isParallel() ? batch.next() : values.next();
+    }
+
+    /**
+     * @return the records as a Stream. Closing the stream closes this reader.
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::closeQuietly);
+    }
+
+    private void fill() {
+        while (!eof && pending.size() < maxPending) {
+            final List<String> chunk = readLines();
+            if (chunk.isEmpty()) break;
+            pending.addLast(pool.submit(() -> decode(chunk)));
+        }
+    }
+
+    private List<String> readLines() {
+        final List<String> chunk = new ArrayList<>(batchSize);
+        try {
+            String line;
+            while (chunk.size() < batchSize) {
+                if ((line = lines.readLine()) == null) {
+                    eof = true;
+                    break;
+                }
+                if (!line.trim().isEmpty()) chunk.add(line);
+            }
+        } catch (IOException e) {
+            return die("readLines: "+e, e);
+        }
+        return chunk;
+    }
+
+    private List<T> decode(List<String> chunk) throws IOException {
+        final List<T> records = new ArrayList<>(chunk.size());
+        for (String line : chunk) records.add(reader.readValue(line));
+        return records;
+    }
+
+    private List<T> await(Future<List<T>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            return die("await: interrupted: "+e, e);
+        } catch (ExecutionException e) {
+            return die("await: error decoding batch: "+e.getCause(), e);
+        }
+    }
+
+    @Override public void close() throws IOException {
+        if (pool != null) pool.shutdownNow();
+        if (values != null) values.close();
+        if (parser != null) parser.close();
+        in.close();
+    }
+
+    private void closeQuietly() {
+        try { close(); } catch (Exception e) { log.warn("close: "+e); }
+    }
+
+}
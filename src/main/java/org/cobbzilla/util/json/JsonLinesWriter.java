@@ -0,0 +1,60 @@
+package org.cobbzilla.util.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+
+/**
+ * Writes records as JSON lines through a single SequenceWriter. Create instances with JsonLines.writer.
+ * Every record, including the last, is followed by a newline, so a file can be appended to later.
+ */
+public class JsonLinesWriter<T> implements Closeable, Flushable {
+
+    private static final SerializedString NEWLINE = new SerializedString("\n");
+
+    private final OutputStream out;
+    private final JsonGenerator generator;
+    private final SequenceWriter writer;
+
+    @Getter private long count = 0;
+
+    JsonLinesWriter(OutputStream out, ObjectMapper mapper) throws IOException {
+        this.out = out;
+        this.generator = mapper.getFactory().createGenerator(out);
+        this.generator.setRootValueSeparator(NEWLINE);
+        this.writer = mapper.writer().without(SerializationFeature.INDENT_OUTPUT).writeValues(generator);
+    }
+
+    public JsonLinesWriter<T> write(T record) throws IOException {
+        writer.write(record);
+        count++;
+        return this;
+    }
+
+    public JsonLinesWriter<T> writeAll(Collection<? extends T> records) throws IOException {
+        for (T record : records) write(record);
+        return this;
+    }
+
+    @Override public void flush() throws IOException { writer.flush(); }
+
+    @Override public void close() throws IOException {
+        try {
+            writer.close();
+            if (count > 0) generator.writeRaw('\n');
+            generator.close();
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.cobbzilla.util.json;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+
+/**
+ * A JSON path (as understood by JsonUtil.findNodePath), compiled once into an array of typed segments.
+ * Compiled paths are immutable and cached, so evaluating the same path against many documents
+ * does not re-tokenize or re-parse it.
+ *
+ * Syntax: fields are separated by dots, field names may be single-quoted to include dots,
+ * a field may be followed by [n] to select an array element, or by [] to append to an array.
+ */
+public class JsonPath {
+
+    public static final int MAX_CACHED_PATHS = 10_000;
+
+    private static final Cache<String, JsonPath> paths = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_PATHS).build();
+
+    public static JsonPath path(String path) {
+        if (path == null) path = "";
+        final JsonPath cached = paths.getIfPresent(path);
+        if (cached != null) return cached;
+        // compiled outside the cache, so that an invalid path throws its own exception rather than a wrapped one
+        final JsonPath compiled = new JsonPath(path);
+        paths.put(path, compiled);
+        return compiled;
+    }
+
+    public enum SegmentType { field, index, append }
+
+    @AllArgsConstructor
+    public static class Segment {
+        @Getter private final SegmentType type;
+        @Getter private final String name;
+        @Getter private final int index;
+
+        public boolean isField() { return type == SegmentType.field; }
+        public boolean isIndex() { return type == SegmentType.index; }
+        public boolean isAppend() { return type == SegmentType.append; }
+
+        @Override public String toString() {
+            switch (type) {
+                case index:  return "["+index+"]";
+                case append: return "[]";
+                default:     return name;
+            }
+        }
+    }
+
+    @Getter private final String path;
+    private final Segment[] segments;
+
+    // properties of the last path token, used by JsonEdit and JsonUtil.replaceNode
+    @Getter private final List<String> tokens;
+    @Getter private final String name;
+    @Getter private final Integer index;
+    @Getter private final boolean emptyBrackets;
+    @Getter private final String simplePath;
+    @Getter private final Integer simpleIndex;
+
+    private JsonPath(String path) {
+        this.path = path;
+
+        final List<String> pathParts = empty(path) ? Collections.emptyList() : JsonUtil.tokenize(path);
+        this.tokens = Collections.unmodifiableList(pathParts);
+
+        final List<Segment> segs = new ArrayList<>();
+        boolean first = true;
+        for (String pathPart : pathParts) {
+            int idx = -1;
+            boolean append = false;
+            final int bracketPos = pathPart.indexOf("[");
+            final int bracketClosePos = pathPart.indexOf("]");
+            if (bracketPos != -1 && bracketClosePos < bracketPos) die("JsonPath: unterminated bracket in path: "+path);
+            if (bracketPos != -1 && bracketClosePos != -1 && bracketClosePos > bracketPos) {
+                if (bracketClosePos == bracketPos+1) {
+                    // ends with [], they mean to append
+                    append = true;
+                } else {
+                    idx = Integer.parseInt(pathPart.substring(bracketPos + 1, bracketClosePos));
+                }
+                pathPart = pathPart.substring(0, bracketPos);
+            }
+            if (!empty(pathPart)) {
+                segs.add(new Segment(SegmentType.field, pathPart, -1));
+            } else if (!first) {
+                die("JsonPath: invalid path: "+path);
+            }
+            if (idx != -1) {
+                segs.add(new Segment(SegmentType.index, null, idx));
+            } else if (append) {
+                segs.add(new Segment(SegmentType.append, null, -1));
+            }
+            first = false;
+        }
+        this.segments = segs.toArray(new Segment[segs.size()]);
+
+        final String last = tokens.size() <= 1 ? path : tokens.get(tokens.size()-1);
+        this.name = last.endsWith("[]") ? last.substring(0, last.length()-2) : last;
+        this.index = parseIndex(last);
+
+        final int bracketPos = path.indexOf("[");
+        final int bracketClosePos = path.indexOf("]");
+        this.emptyBrackets = bracketPos != -1 && bracketClosePos != -1 && bracketClosePos == bracketPos+1;
+
+        this.simplePath = path.contains(".") ? path.substring(path.lastIndexOf(".")+1) : path;
+        this.simpleIndex = simplePath.contains("[") ? parseIndex(simplePath) : null;
+    }
+
+    private static Integer parseIndex(String s) {
+        try {
+            final int bracketPos = s.indexOf("[");
+            final int bracketClosePos = s.indexOf("]");
+            if (bracketPos != -1 && bracketClosePos != -1 && bracketClosePos > bracketPos) {
+                return Integer.valueOf(s.substring(bracketPos + 1, bracketClosePos));
+            }
+        } catch (Exception ignored) {}
+        return null;
+    }
+
+    public boolean isEmpty() { return segments.length == 0; }
+    public int size() { return segments.length; }
+    public Segment segment(int i) { return segments[i]; }
+
+    public boolean hasIndex() { return index != null; }
+    public int getNumPathSegments() { return tokens.size(); }
+    public String getName(int part) { return tokens.get(part); }
+
+    @Override public String toString() { return path; }
+
+    @Override public boolean equals(Object o) { return o instanceof JsonPath && ((JsonPath) o).path.equals(path); }
+    @Override public int hashCode() { return path.hashCode(); }
+
+}
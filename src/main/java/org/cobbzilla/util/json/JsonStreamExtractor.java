@@ -0,0 +1,97 @@
+package org.cobbzilla.util.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Cleanup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * Extracts the value at a path from a JSON document without building a tree for the whole document.
+ * Paths use the same syntax as JsonUtil.findNodePath (see JsonPath). Subtrees that are not on the path are skipped, and only the matched value is bound
+ * to the target class, so memory use is bounded by the size of the selected value.
+ */
+public class JsonStreamExtractor {
+
+    public static <T> T extract(InputStream in, String path, Class<T> clazz, ObjectMapper mapper) throws IOException {
+        @Cleanup final JsonParser parser = mapper.getFactory().createParser(in);
+        return extract(parser, path, clazz, mapper);
+    }
+
+    public static <T> T extract(File file, String path, Class<T> clazz, ObjectMapper mapper) throws IOException {
+        @Cleanup final JsonParser parser = mapper.getFactory().createParser(file);
+        return extract(parser, path, clazz, mapper);
+    }
+
+    public static <T> T extract(String json, String path, Class<T> clazz, ObjectMapper mapper) throws IOException {
+        @Cleanup final JsonParser parser = mapper.getFactory().createParser(json);
+        return extract(parser, path, clazz, mapper);
+    }
+
+    public static <T> T extract(JsonParser parser, String path, Class<T> clazz, ObjectMapper mapper) throws IOException {
+        return extract(parser, JsonPath.path(path), clazz, mapper);
+    }
+
+    /**
+     * @param parser a parser positioned before the start of the document
+     * @param path the path to find
+     * @param clazz the class to bind the matched value to
+     * @param mapper the mapper used to bind the value
+     * @param <T> the type of object to return
+     * @return the value at the path, or null if the document is empty or the path does not exist
+     */
+    public static <T> T extract(JsonParser parser, JsonPath path, Class<T> clazz, ObjectMapper mapper) throws IOException {
+        if (parser.nextToken() == null) return null;
+        if (!seek(parser, path)) return null;
+        return mapper.readValue(parser, clazz);
+    }
+
+    private static boolean seek(JsonParser parser, JsonPath path) throws IOException {
+        for (int i=0; i<path.size(); i++) {
+            final JsonPath.Segment segment = path.segment(i);
+            switch (segment.getType()) {
+                case field:
+                    if (!seekField(parser, segment.getName())) return false;
+                    break;
+                case index:
+                    if (!seekIndex(parser, segment.getIndex())) return false;
+                    break;
+                case append:
+                    // they mean to append: there is nothing to find
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean seekField(JsonParser parser, String field) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) return false;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            final boolean match = field.equals(parser.getCurrentName());
+            parser.nextToken();
+            if (match) return true;
+            parser.skipChildren();
+        }
+        if (token == null) die("extract: unexpected end of input looking for field: "+field);
+        return false;
+    }
+
+    private static boolean seekIndex(JsonParser parser, int index) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) return false;
+        int i = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) return die("extract: unexpected end of input looking for index: "+index);
+            if (i++ == index) return true;
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+}
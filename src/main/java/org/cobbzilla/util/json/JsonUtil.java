@@ -1,6 +1,7 @@
 package org.cobbzilla.util.json;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.*;
@@ -8,7 +9,7 @@ import com.fasterxml.jackson.databind.node.*;
 import org.cobbzilla.util.io.FileSuffixFilter;
 import org.cobbzilla.util.io.FileUtil;
 import org.cobbzilla.util.io.FilenameSuffixFilter;
-import org.cobbzilla.util.io.StreamUtil;
+import org.cobbzilla.util.io.StreamWriter;
 
 import java.io.*;
 import java.math.BigDecimal;
@@ -160,20 +161,80 @@ public class JsonUtil {
         }
     }
 
+    // streaming writers: the JSON is written through the mapper's generator (which uses the factory's
+    // recycled buffers) directly to the target, without building the JSON text as a String first.
+    // the target stream or writer is flushed but not closed.
+
+    public static void writeJson (Object o, OutputStream out) throws IOException { writeJson(o, out, NOTNULL_MAPPER); }
+
+    public static void writeJson (Object o, OutputStream out, ObjectMapper m) throws IOException {
+        try (JsonGenerator gen = m.getFactory().createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            m.writeValue(gen, o);
+        }
+    }
+
+    public static void writeJson (Object o, OutputStream out, Class<?> jsonView) throws IOException {
+        try (JsonGenerator gen = NOTNULL_MAPPER.getFactory().createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            viewWriter(jsonView).writeValue(gen, o);
+        }
+    }
+
+    public static void writeJson (Object o, Writer out) throws IOException { writeJson(o, out, NOTNULL_MAPPER); }
+
+    public static void writeJson (Object o, Writer out, ObjectMapper m) throws IOException {
+        try (JsonGenerator gen = m.getFactory().createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            m.writeValue(gen, o);
+        }
+    }
+
+    public static void writeJson (Object o, Writer out, Class<?> jsonView) throws IOException {
+        try (JsonGenerator gen = NOTNULL_MAPPER.getFactory().createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            viewWriter(jsonView).writeValue(gen, o);
+        }
+    }
+
+    // file writes replace the file atomically: readers see either the old JSON or the new JSON
+    public static File writeJson (Object o, File file) throws IOException { return writeJson(o, file, NOTNULL_MAPPER); }
+
+    public static File writeJson (Object o, File file, ObjectMapper m) throws IOException {
+        return FileUtil.toFileAtomic(file, jsonWriter(o, m));
+    }
+
+    public static File writeJson (Object o, File file, Class<?> jsonView) throws IOException {
+        return FileUtil.toFileAtomic(file, jsonWriter(o, jsonView));
+    }
+
+    public static File writeJsonOrDie (Object o, File file) {
+        try { return writeJson(o, file); } catch (Exception e) {
+            return die("writeJson: exception writing object ("+o+") to "+FileUtil.abs(file)+": "+e, e);
+        }
+    }
+
+    /**
+     * @return a StreamWriter that writes the object as JSON, for use with FileUtil.toFile or HttpRequestBean.setEntityWriter
+     */
+    public static StreamWriter jsonWriter (Object o) { return jsonWriter(o, NOTNULL_MAPPER); }
+    public static StreamWriter jsonWriter (Object o, ObjectMapper m) { return out -> writeJson(o, out, m); }
+    public static StreamWriter jsonWriter (Object o, Class<?> jsonView) { return out -> writeJson(o, out, jsonView); }
+
     public static <T> T fromJson(InputStream json, Class<T> clazz) throws Exception {
-        return fromJson(StreamUtil.toString(json), clazz);
+        return fromJson(json, clazz, JsonUtil.FULL_MAPPER);
     }
 
     public static <T> T fromJson(InputStream json, Class<T> clazz, ObjectMapper mapper) throws Exception {
-        return fromJson(StreamUtil.toString(json), clazz, mapper);
+        return JsonStreamExtractor.extract(json, null, clazz, mapper);
     }
 
     public static <T> T fromJson(File json, Class<T> clazz) throws Exception {
-        return fromJson(FileUtil.toString(json), clazz);
+        return fromJson(json, clazz, JsonUtil.FULL_MAPPER);
     }
 
     public static <T> T fromJson(File json, Class<T> clazz, ObjectMapper mapper) throws Exception {
-        return fromJson(FileUtil.toString(json), clazz, mapper);
+        return JsonStreamExtractor.extract(json, null, clazz, mapper);
     }
 
     public static <T> T fromJson(String json, Class<T> clazz) throws Exception {
@@ -221,12 +282,21 @@ public class JsonUtil {
         }
     }
 
+    // these stream through the document, binding only the value found at the path (see JsonStreamExtractor)
     public static <T> T fromJson(String json, String path, Class<T> clazz) throws Exception {
-        return fromJson(FULL_MAPPER.readTree(json), path, clazz);
+        return JsonStreamExtractor.extract(json, path, clazz, FULL_MAPPER);
     }
 
     public static <T> T fromJson(File json, String path, Class<T> clazz) throws Exception {
-        return fromJson(FULL_MAPPER.readTree(json), path, clazz);
+        return JsonStreamExtractor.extract(json, path, clazz, FULL_MAPPER);
+    }
+
+    public static <T> T fromJson(InputStream json, String path, Class<T> clazz) throws Exception {
+        return JsonStreamExtractor.extract(json, path, clazz, FULL_MAPPER);
+    }
+
+    public static <T> T fromJson(InputStream json, String path, Class<T> clazz, ObjectMapper mapper) throws Exception {
+        return JsonStreamExtractor.extract(json, path, clazz, mapper);
     }
 
     public static <T> T fromJson(JsonNode child, Class<? extends T> childClass) throws Exception {
@@ -253,11 +323,19 @@ public class JsonUtil {
         }
     }
     public static <T> T fromJson(JsonNode node, String path, Class<T> clazz, ObjectMapper mapper) throws Exception {
+        return fromJson(node, JsonPath.path(path), clazz, mapper);
+    }
+
+    public static <T> T fromJson(JsonNode node, JsonPath path, Class<T> clazz, ObjectMapper mapper) throws Exception {
         node = findNode(node, path);
         return mapper.convertValue(node, clazz);
     }
 
     public static JsonNode findNode(JsonNode node, String path) throws IOException {
+        return findNode(node, JsonPath.path(path));
+    }
+
+    public static JsonNode findNode(JsonNode node, JsonPath path) throws IOException {
         if (node == null) return null;
         final List<JsonNode> nodePath = findNodePath(node, path);
         if (nodePath == null || nodePath.isEmpty()) return null;
@@ -274,44 +352,38 @@ public class JsonUtil {
     }
 
     public static List<JsonNode> findNodePath(JsonNode node, String path) throws IOException {
+        return findNodePath(node, JsonPath.path(path));
+    }
+
+    public static List<JsonNode> findNodePath(JsonNode node, JsonPath path) throws IOException {
 
-        final List<JsonNode> nodePath = new ArrayList<>();
+        final List<JsonNode> nodePath = new ArrayList<>(path.size()+1);
         nodePath.add(node);
-        if (empty(path)) return nodePath;
-        final List<String> pathParts = tokenize(path);
-
-        for (String pathPart : pathParts) {
-            int index = -1;
-            int bracketPos = pathPart.indexOf("[");
-            int bracketClosePos = pathPart.indexOf("]");
-            boolean isEmptyBrackets = false;
-            if (bracketPos != -1 && bracketClosePos != -1 && bracketClosePos > bracketPos) {
-                if (bracketClosePos == bracketPos+1) {
-                    // ends with [], they mean to append
-                    isEmptyBrackets = true;
-                } else {
-                    index = Integer.parseInt(pathPart.substring(bracketPos + 1, bracketClosePos));
-                }
-                pathPart = pathPart.substring(0, bracketPos);
-            }
-            if (!empty(pathPart)) {
-                node = node.get(pathPart);
-                if (node == null) {
+
+        for (int i=0; i<path.size(); i++) {
+            final JsonPath.Segment segment = path.segment(i);
+            switch (segment.getType()) {
+                case field:
+                    node = node == null ? null : node.get(segment.getName());
+                    if (node == null) {
+                        nodePath.add(MISSING);
+                        return nodePath;
+                    }
+                    nodePath.add(node);
+                    break;
+
+                case index:
+                    if (node == null) {
+                        nodePath.add(MISSING);
+                        return nodePath;
+                    }
+                    node = node.get(segment.getIndex());
+                    nodePath.add(node);
+                    break;
+
+                case append:
                     nodePath.add(MISSING);
                     return nodePath;
-                }
-                nodePath.add(node);
-
-            } else if (nodePath.size() > 1) {
-                return die("findNodePath: invalid path: "+path);
-            }
-            if (index != -1) {
-                node = node.get(index);
-                nodePath.add(node);
-
-            } else if (isEmptyBrackets) {
-                nodePath.add(MISSING);
-                return nodePath;
             }
         }
         return nodePath;
@@ -352,13 +424,15 @@ public class JsonUtil {
     }
 
     public static ObjectNode replaceNode(ObjectNode document, String path, String replacement) throws Exception {
+        return replaceNode(document, JsonPath.path(path), replacement);
+    }
 
-        final String simplePath = path.contains(".") ? path.substring(path.lastIndexOf(".")+1) : path;
-        Integer index = null;
-        if (simplePath.contains("[")) {
-            index = Integer.parseInt(simplePath.substring(simplePath.indexOf("[")+1, simplePath.indexOf("]")));
-        }
-        final List<JsonNode> found = findNodePath(document, path);
+    public static ObjectNode replaceNode(ObjectNode document, JsonPath jsonPath, String replacement) throws Exception {
+
+        final String path = jsonPath.getPath();
+        final String simplePath = jsonPath.getSimplePath();
+        final Integer index = jsonPath.getSimpleIndex();
+        final List<JsonNode> found = findNodePath(document, jsonPath);
         if (found == null || found.isEmpty() || found.get(found.size()-1).equals(MISSING)) {
             throw new IllegalArgumentException("path not found: "+path);
         }
@@ -2,10 +2,16 @@ package org.cobbzilla.util.json.main;
 
 import org.cobbzilla.util.io.FileUtil;
 import org.cobbzilla.util.json.JsonEdit;
+import org.cobbzilla.util.json.JsonEditBatch;
+import org.cobbzilla.util.json.JsonEditBatchResult;
 import org.cobbzilla.util.json.JsonEditOperation;
 import org.cobbzilla.util.main.BaseMain;
 
+import java.util.Arrays;
+import java.util.List;
+
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.json.JsonUtil.json;
 
 public class JsonEditor extends BaseMain<JsonEditorOptions> {
 
@@ -13,12 +19,14 @@ public class JsonEditor extends BaseMain<JsonEditorOptions> {
 
     public void run() throws Exception {
         final JsonEditorOptions options = getOptions();
+        if (options.isBatch()) {
+            runBatch();
+            return;
+        }
+
         JsonEdit edit = new JsonEdit()
                 .setJsonData(options.getInputJson())
-                .addOperation(new JsonEditOperation()
-                        .setType(options.getOperationType())
-                        .setPath(options.getPath())
-                        .setJson(options.getValue()));
+                .setOperations(getOperations());
 
         final String json = edit.edit();
 
@@ -34,4 +42,27 @@ public class JsonEditor extends BaseMain<JsonEditorOptions> {
         System.exit(0);
     }
 
-}
\ No newline at end of file
+    private List<JsonEditOperation> getOperations() {
+        final JsonEditorOptions options = getOptions();
+        if (options.hasScript()) return Arrays.asList(json(FileUtil.toStringOrDie(options.getScript()), JsonEditOperation[].class));
+        return Arrays.asList(new JsonEditOperation()
+                .setType(options.getOperationType())
+                .setPath(options.getPath())
+                .setJson(options.getValue()));
+    }
+
+    private void runBatch() {
+        final JsonEditorOptions options = getOptions();
+        final JsonEditBatch batch = new JsonEditBatch()
+                .setOperations(getOperations())
+                .setOutputDir(options.getOutputDir())
+                .setParallel(options.getParallel());
+        for (String input : options.getInputs()) batch.addInput(input);
+
+        final JsonEditBatchResult result = batch.run();
+        for (JsonEditBatchResult.FileResult r : result.getFailures()) err(r.toString());
+        out(result.toString());
+        System.exit(result.isSuccess() ? 0 : 1);
+    }
+
+}
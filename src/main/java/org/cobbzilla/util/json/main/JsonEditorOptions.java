@@ -7,7 +7,11 @@ import org.cobbzilla.util.main.BaseMainOptions;
 import org.kohsuke.args4j.Option;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.daemon.ZillaRuntime.processorCount;
 import static org.cobbzilla.util.io.StreamUtil.toStringOrDie;
 
 public class JsonEditorOptions extends BaseMainOptions {
@@ -48,4 +52,33 @@ public class JsonEditorOptions extends BaseMainOptions {
 
     public boolean hasOutfile () { return outfile != null; }
 
+    public static final String USAGE_INPUTS = "Batch mode: a JSON file, a directory (all .json files beneath it), or a glob (for example 'configs/**/*.json'). " +
+            "May be repeated. Files are edited in place unless an output directory is set.";
+    public static final String OPT_INPUTS = "-i";
+    public static final String LONGOPT_INPUTS = "--inputs";
+    @Option(name=OPT_INPUTS, aliases=LONGOPT_INPUTS, usage=USAGE_INPUTS)
+    @Getter @Setter private List<String> inputs = new ArrayList<>();
+
+    public boolean isBatch () { return !empty(inputs); }
+
+    public static final String USAGE_OUTPUT_DIR = "Batch mode: write outputs to this directory, at the same relative path as each input. Default is to edit inputs in place.";
+    public static final String OPT_OUTPUT_DIR = "-d";
+    public static final String LONGOPT_OUTPUT_DIR = "--output-dir";
+    @Option(name=OPT_OUTPUT_DIR, aliases=LONGOPT_OUTPUT_DIR, usage=USAGE_OUTPUT_DIR)
+    @Getter @Setter private File outputDir;
+
+    public static final String USAGE_SCRIPT = "A JSON file containing an array of operations (objects with type, path and json) to apply, instead of a single -o/-p/-v operation.";
+    public static final String OPT_SCRIPT = "-s";
+    public static final String LONGOPT_SCRIPT = "--script";
+    @Option(name=OPT_SCRIPT, aliases=LONGOPT_SCRIPT, usage=USAGE_SCRIPT)
+    @Getter @Setter private File script;
+
+    public boolean hasScript () { return script != null; }
+
+    public static final String USAGE_PARALLEL = "Batch mode: number of files to edit concurrently. Default is the number of processors.";
+    public static final String OPT_PARALLEL = "-j";
+    public static final String LONGOPT_PARALLEL = "--parallel";
+    @Option(name=OPT_PARALLEL, aliases=LONGOPT_PARALLEL, usage=USAGE_PARALLEL)
+    @Getter @Setter private int parallel = processorCount();
+
 }
@@ -0,0 +1,255 @@
+package org.cobbzilla.util.reflect;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.beanutils.PropertyUtilsBean;
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.reflect.ReflectionUtil.*;
+
+/**
+ * A copy plan between two classes, computed once and cached. The plan is the list of getter/setter pairs that
+ * ReflectionUtil.copy would use, with field selection, exclusions and @Transient filtering already applied.
+ * Copying then only calls the cached accessors.
+ */
+@Slf4j
+public class BeanCopier {
+
+    // per source class
+    public static final int MAX_CACHED_COPIERS = 1_000;
+
+    // held by the source class, as PropertyAccessors are, so cached plans do not keep class loaders alive
+    private static final ClassValue<Copiers> cached = new ClassValue<Copiers>() {
+        @Override protected Copiers computeValue(Class<?> type) { return new Copiers(); }
+    };
+
+    private static class Copiers {
+        private final Cache<CopierKey, BeanCopier> copiers = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_COPIERS).build();
+        private final Cache<CopierKey, BeanCopier> mergers = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_COPIERS).build();
+    }
+
+    private static final PropertyUtilsBean propertyUtils = new PropertyUtilsBean();
+
+    /**
+     * @param srcClass the class of the source object
+     * @param destClass the class of the destination object (if a Map, values are put into the map)
+     * @param fields if not null, only fields with these names will be copied
+     * @param exclude if not null, fields with these names will not be copied
+     * @return a copier with the same semantics as ReflectionUtil.copy(dest, src, fields, exclude)
+     */
+    public static BeanCopier copier(Class<?> srcClass, Class<?> destClass, String[] fields, String[] exclude) {
+        final Cache<CopierKey, BeanCopier> copiers = cached.get(srcClass).copiers;
+        final CopierKey key = new CopierKey(srcClass, destClass, fields, exclude);
+        final BeanCopier found = copiers.getIfPresent(key);
+        if (found != null) return found;
+        try {
+            return copiers.get(key, () -> new BeanCopier(key));
+        } catch (ExecutionException e) {
+            return die("copier("+srcClass.getName()+", "+destClass.getName()+"): "+e, e);
+        }
+    }
+
+    /**
+     * @param origClass the class of the source object
+     * @param destClass the class of the destination object
+     * @return a copier whose properties are every readable bean property of origClass that is writeable on destClass
+     */
+    public static BeanCopier merger(Class<?> origClass, Class<?> destClass) {
+        final Cache<CopierKey, BeanCopier> mergers = cached.get(origClass).mergers;
+        final CopierKey key = new CopierKey(origClass, destClass, null, null);
+        final BeanCopier found = mergers.getIfPresent(key);
+        if (found != null) return found;
+        try {
+            return mergers.get(key, () -> new BeanCopier(origClass, destClass));
+        } catch (ExecutionException e) {
+            return die("merger("+origClass.getName()+", "+destClass.getName()+"): "+e, e);
+        }
+    }
+
+    /**
+     * Find the setter that copyFromMap would use for a value
+     * @param destClass class of the destination object
+     * @param field the field name
+     * @param valueType the class of the value
+     * @return the setter whose parameter is exactly valueType, or its primitive type; or null if neither exists
+     */
+    public static PropertyAccessors.Accessor setterFor(Class<?> destClass, String field, Class<?> valueType) {
+        final PropertyPath path = PropertyPath.path(field);
+        if (path.size() != 1) return null;
+        final PropertyAccessors accessors = PropertyAccessors.forClass(destClass);
+        final PropertyAccessors.Accessor setter = accessors.exactSetter(path.setterName(0), valueType);
+        if (setter != null) return setter;
+        final Class<?> pc = getPrimitiveClass(valueType);
+        return pc == null ? null : accessors.exactSetter(path.setterName(0), pc);
+    }
+
+    @Getter private final Class<?> srcClass;
+    @Getter private final Class<?> destClass;
+    @Getter private final List<Property> properties;
+    private final boolean destIsMap;
+
+    private BeanCopier(CopierKey key) {
+        this.srcClass = key.srcClass;
+        this.destClass = key.destClass;
+        this.destIsMap = Map.class.isAssignableFrom(destClass);
+
+        final String[] fields = key.fields == null ? null : key.fields.toArray(new String[0]);
+        final String[] exclude = key.exclude == null ? null : key.exclude.toArray(new String[0]);
+        final List<Property> props = new ArrayList<>();
+        for (Method getter : srcClass.getMethods()) {
+            // only look for getters on the source object (methods with no arguments that have a return value)
+            if (getter.getParameterTypes().length != 0) continue;
+            if (getter.getReturnType().equals(Void.class)) continue;
+
+            // and it must be named appropriately
+            final String fieldName = fieldName(getter.getName());
+            if (fieldName == null || ArrayUtils.contains(exclude, fieldName)) continue;
+
+            // if specific fields were given, it must be one of those
+            if (fields != null && !ArrayUtils.contains(fields, fieldName)) continue;
+
+            // getter must not be marked @Transient
+            if (isIgnored(srcClass, fieldName, getter)) continue;
+
+            // what would the setter be called?
+            final String setterName = setterForGetter(getter.getName());
+            if (setterName == null) continue;
+
+            // get the setter method on the destination class
+            PropertyAccessors.Accessor setter = null;
+            if (!destIsMap) {
+                setter = PropertyAccessors.forClass(destClass).exactSetter(setterName, getter.getReturnType());
+                if (setter == null) {
+                    log.debug("copier: setter not found: " + setterName);
+                    continue;
+                }
+            }
+
+            // the getter can only read the current value on dest if dest is an instance of the getter's class
+            final boolean destReadable = getter.getDeclaringClass().isAssignableFrom(destClass);
+            props.add(new Property(fieldName, PropertyAccessors.getter(getter), setter, destReadable));
+        }
+        this.properties = Collections.unmodifiableList(props);
+    }
+
+    private BeanCopier(Class<?> origClass, Class<?> destClass) {
+        this.srcClass = origClass;
+        this.destClass = destClass;
+        this.destIsMap = false;
+
+        final Map<String, PropertyDescriptor> destDescriptors = new HashMap<>();
+        for (PropertyDescriptor d : propertyUtils.getPropertyDescriptors(destClass)) destDescriptors.put(d.getName(), d);
+
+        final List<Property> props = new ArrayList<>();
+        for (PropertyDescriptor origDescriptor : propertyUtils.getPropertyDescriptors(origClass)) {
+            final String name = origDescriptor.getName();
+            if ("class".equals(name)) continue; // No point in trying to set an object's class
+
+            // same readable/writeable rules as PropertyUtilsBean: the methods must exist and be accessible
+            final Method getter = MethodUtils.getAccessibleMethod(origClass, origDescriptor.getReadMethod());
+            final PropertyDescriptor destDescriptor = destDescriptors.get(name);
+            final Method setter = destDescriptor == null ? null : MethodUtils.getAccessibleMethod(destClass, destDescriptor.getWriteMethod());
+            if (getter == null || setter == null) continue;
+
+            props.add(new Property(name, PropertyAccessors.getter(getter), PropertyAccessors.setter(setter), false));
+        }
+        this.properties = Collections.unmodifiableList(props);
+    }
+
+    /**
+     * Copy properties from src to dest. Null values on src are not copied, and values are only set on dest
+     * if they are not equal to its current value.
+     * @param dest the destination object, an instance of destClass
+     * @param src the source object, an instance of srcClass
+     * @return count of fields copied
+     */
+    public int copy(Object dest, Object src) throws Throwable {
+        @SuppressWarnings("unchecked") final Map<String, Object> destMap = destIsMap ? (Map<String, Object>) dest : null;
+        int copyCount = 0;
+        for (Property p : properties) {
+            // do not copy null fields (should this be configurable?)
+            final Object srcValue = p.get(src);
+            if (srcValue == null) continue;
+
+            // does the dest have a getter? if so grab the current value
+            Object destValue = null;
+            try {
+                if (destIsMap) {
+                    destValue = destMap.get(p.name);
+                } else if (p.destReadable) {
+                    destValue = p.get(dest);
+                }
+            } catch (Throwable e) {
+                log.debug("copy: error calling getter on dest: "+e);
+            }
+
+            // copy the value from src to dest, if it's different
+            if (!srcValue.equals(destValue)) {
+                if (destIsMap) {
+                    destMap.put(p.name, srcValue);
+                } else {
+                    p.set(dest, srcValue);
+                }
+                copyCount++;
+            }
+        }
+        return copyCount;
+    }
+
+    @AllArgsConstructor
+    public static class Property {
+        @Getter private final String name;
+        private final PropertyAccessors.Accessor getter;
+        private final PropertyAccessors.Accessor setter;
+        private final boolean destReadable;
+
+        public Object get(Object thing) throws Throwable { return getter.get(thing); }
+        public void set(Object thing, Object value) throws Throwable { setter.set(thing, value); }
+    }
+
+    private static class CopierKey {
+
+        public final Class<?> srcClass;
+        public final Class<?> destClass;
+        public final List<String> fields;
+        public final List<String> exclude;
+
+        CopierKey(Class<?> srcClass, Class<?> destClass, String[] fields, String[] exclude) {
+            this.srcClass = srcClass;
+            this.destClass = destClass;
+            this.fields = fields == null ? null : Arrays.asList(fields.clone());
+            this.exclude = exclude == null ? null : Arrays.asList(exclude.clone());
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CopierKey)) return false;
+
+            final CopierKey that = (CopierKey) o;
+
+            if (!srcClass.equals(that.srcClass)) return false;
+            if (!destClass.equals(that.destClass)) return false;
+            if (!Objects.equals(fields, that.fields)) return false;
+            return Objects.equals(exclude, that.exclude);
+        }
+
+        @Override public int hashCode() {
+            int result = srcClass.hashCode();
+            result = 31 * result + destClass.hashCode();
+            result = 31 * result + Objects.hashCode(fields);
+            result = 31 * result + Objects.hashCode(exclude);
+            return result;
+        }
+    }
+
+}
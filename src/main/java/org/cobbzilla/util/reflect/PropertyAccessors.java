@@ -0,0 +1,154 @@
+package org.cobbzilla.util.reflect;
+
+import com.google.common.cache.CacheBuilder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.beanutils.MethodUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.cobbzilla.util.reflect.ReflectionUtil.EMPTY_CLASS_ARRAY;
+
+/**
+ * Per-class cache of property getters and setters. Methods are resolved once (using the same matching rules as
+ * commons-beanutils MethodUtils) and invoked through MethodHandles, so repeated get/set calls skip method lookup.
+ * Lookups that fail are cached too, so a missing getX does not cost an exception every time.
+ * Classes are never held strongly as cache keys, so caching does not keep a class loader from being unloaded.
+ */
+@Slf4j
+public class PropertyAccessors {
+
+    private static final ClassValue<PropertyAccessors> accessors = new ClassValue<PropertyAccessors>() {
+        @Override protected PropertyAccessors computeValue(Class<?> type) { return new PropertyAccessors(type); }
+    };
+
+    public static PropertyAccessors forClass(Class<?> clazz) { return accessors.get(clazz); }
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final Accessor NONE = new Accessor(null, null);
+
+    @Getter private final Class<?> type;
+    private final Map<String, Accessor> getters = new ConcurrentHashMap<>();
+    private final Map<String, Map<Class<?>, Accessor>> setters = new ConcurrentHashMap<>();
+    private final Map<String, Map<Class<?>, Accessor>> exactSetters = new ConcurrentHashMap<>();
+
+    private PropertyAccessors(Class<?> type) { this.type = type; }
+
+    // value types may come from other class loaders, so they are weakly held
+    private static Map<Class<?>, Accessor> byTypeMap() {
+        return CacheBuilder.newBuilder().weakKeys().<Class<?>, Accessor>build().asMap();
+    }
+
+    /**
+     * @param getterName the name of the getter, for example getFoo
+     * @param isGetterName the alternate name of the getter, for example isFoo
+     * @return the accessor for the first of these that exists, or null if neither exists
+     */
+    public Accessor getter(String getterName, String isGetterName) {
+        Accessor getter = getters.get(getterName);
+        if (getter == null) {
+            getter = getters.computeIfAbsent(getterName, k -> {
+                Method m = MethodUtils.getMatchingAccessibleMethod(type, getterName, EMPTY_CLASS_ARRAY);
+                if (m == null) m = MethodUtils.getMatchingAccessibleMethod(type, isGetterName, EMPTY_CLASS_ARRAY);
+                return m == null ? NONE : getter(m);
+            });
+        }
+        return getter == NONE ? null : getter;
+    }
+
+    /**
+     * @param setterName the name of the setter, for example setFoo
+     * @param valueType the class of the value that will be passed to the setter
+     * @return the accessor for the setter that would accept the value type, or null if no such setter exists
+     */
+    public Accessor setter(String setterName, Class<?> valueType) {
+        final Map<Class<?>, Accessor> byType = setters.computeIfAbsent(setterName, k -> byTypeMap());
+        Accessor setter = byType.get(valueType);
+        if (setter == null) {
+            setter = byType.computeIfAbsent(valueType, k -> {
+                final Method m = MethodUtils.getMatchingAccessibleMethod(type, setterName, new Class<?>[] {valueType});
+                return m == null ? NONE : setter(m);
+            });
+        }
+        return setter == NONE ? null : setter;
+    }
+
+    /**
+     * @param setterName the name of the setter, for example setFoo
+     * @param paramType the exact parameter type of the setter
+     * @return the accessor for the setter declared with exactly that parameter type, or null if no such setter exists
+     */
+    public Accessor exactSetter(String setterName, Class<?> paramType) {
+        final Map<Class<?>, Accessor> byType = exactSetters.computeIfAbsent(setterName, k -> byTypeMap());
+        Accessor setter = byType.get(paramType);
+        if (setter == null) {
+            setter = byType.computeIfAbsent(paramType, k -> {
+                try {
+                    return setter(type.getMethod(setterName, paramType));
+                } catch (NoSuchMethodException e) {
+                    return NONE;
+                }
+            });
+        }
+        return setter == NONE ? null : setter;
+    }
+
+    public static Accessor getter(Method m) { return new Accessor(m, handle(m, GETTER_TYPE)); }
+    public static Accessor setter(Method m) { return new Accessor(m, handle(m, SETTER_TYPE)); }
+
+    private static MethodHandle handle(Method m, MethodType methodType) {
+        try {
+            return LOOKUP.unreflect(m).asType(methodType);
+        } catch (Exception e) {
+            // we will fall back to Method.invoke
+            log.debug("handle("+m+"): "+e);
+            return null;
+        }
+    }
+
+    public static class Accessor {
+
+        @Getter private final Method method;
+        private final MethodHandle handle;
+
+        private Accessor(Method method, MethodHandle handle) {
+            this.method = method;
+            this.handle = handle;
+        }
+
+        public Object get(Object target) throws Throwable {
+            if (handle == null) return unwrap(() -> method.invoke(target));
+            return (Object) handle.invokeExact(target);
+        }
+
+        public void set(Object target, Object value) throws Throwable {
+            if (handle == null) {
+                unwrap(() -> method.invoke(target, value));
+            } else {
+                handle.invokeExact(target, value);
+            }
+        }
+
+        private interface Invocation { Object invoke() throws Exception; }
+
+        private static Object unwrap(Invocation invocation) throws Throwable {
+            try {
+                return invocation.invoke();
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        @Override public String toString() { return String.valueOf(method); }
+    }
+
+}
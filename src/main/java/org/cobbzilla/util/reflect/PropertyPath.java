@@ -0,0 +1,66 @@
+package org.cobbzilla.util.reflect;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Getter;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * A dotted property expression like <code>a.b.c</code>, split once into its tokens and accessor method names.
+ * Parsed paths are cached, so repeatedly evaluating the same expression does no string processing.
+ */
+public class PropertyPath {
+
+    public static final int MAX_CACHED_PATHS = 10_000;
+
+    private static final Cache<String, PropertyPath> paths = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_PATHS).build();
+
+    public static PropertyPath path(String field) {
+        final PropertyPath cached = paths.getIfPresent(field);
+        if (cached != null) return cached;
+        try {
+            return paths.get(field, () -> new PropertyPath(field));
+        } catch (ExecutionException e) {
+            return die("path("+field+"): "+e, e);
+        }
+    }
+
+    @Getter private final String path;
+    @Getter private final String[] tokens;
+    private final String[] getterNames;
+    private final String[] isGetterNames;
+    private final String[] setterNames;
+
+    private PropertyPath(String path) {
+        this.path = path;
+        this.tokens = path.split("\\.");
+        this.getterNames = new String[tokens.length];
+        this.isGetterNames = new String[tokens.length];
+        this.setterNames = new String[tokens.length];
+        for (int i=0; i<tokens.length; i++) {
+            final String suffix = capitalize(tokens[i]);
+            getterNames[i] = "get" + suffix;
+            isGetterNames[i] = "is" + suffix;
+            setterNames[i] = "set" + suffix;
+        }
+    }
+
+    private static String capitalize(String token) {
+        return token.length() == 1 ? token.toUpperCase() : token.substring(0, 1).toUpperCase() + token.substring(1);
+    }
+
+    public int size() { return tokens.length; }
+
+    public String token(int i) { return tokens[i]; }
+    public String getterName(int i) { return getterNames[i]; }
+    public String isGetterName(int i) { return isGetterNames[i]; }
+    public String setterName(int i) { return setterNames[i]; }
+
+    public int lastIndex() { return tokens.length - 1; }
+
+    @Override public String toString() { return path; }
+
+}
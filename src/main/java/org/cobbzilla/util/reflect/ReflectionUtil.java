@@ -439,84 +439,26 @@ public class ReflectionUtil {
      * @return count of fields copied
      */
     public static <T> int copy (T dest, T src, String[] fields, String[] exclude) {
-        int copyCount = 0;
-        final boolean isMap = dest instanceof Map;
         try {
             if (src instanceof Map) copyFromMap(dest, (Map<String, Object>) src, exclude);
+            return BeanCopier.copier(src.getClass(), dest.getClass(), fields, exclude).copy(dest, src);
 
-            checkGetter:
-            for (Method getter : src.getClass().getMethods()) {
-                // only look for getters on the source object (methods with no arguments that have a return value)
-                final Class<?>[] types = getter.getParameterTypes();
-                if (types.length != 0) continue;
-                if (getter.getReturnType().equals(Void.class)) continue;;
-
-                // and it must be named appropriately
-                final String fieldName = fieldName(getter.getName());
-                if (fieldName == null || ArrayUtils.contains(exclude, fieldName)) continue;
-
-                // if specific fields were given, it must be one of those
-                if (fields != null && !ArrayUtils.contains(fields, fieldName)) continue;
-
-                // getter must not be marked @Transient
-                if (isIgnored(src, fieldName, getter)) continue;
-
-                // what would the setter be called?
-                final String setterName = setterForGetter(getter.getName());
-                if (setterName == null) continue;
-
-                // get the setter method on the destination object
-                Method setter = null;
-                if (!isMap) {
-                    try {
-                        setter = dest.getClass().getMethod(setterName, getter.getReturnType());
-                    } catch (Exception e) {
-                        log.debug("copy: setter not found: " + setterName);
-                        continue;
-                    }
-                }
-
-                // do not copy null fields (should this be configurable?)
-                final Object srcValue = getter.invoke(src);
-                if (srcValue == null) continue;
-
-                // does the dest have a getter? if so grab the current value
-                Object destValue = null;
-                try {
-                    if (isMap) {
-                        destValue = ((Map) dest).get(fieldName);
-                    } else {
-                        destValue = getter.invoke(dest);
-                    }
-                } catch (Exception e) {
-                    log.debug("copy: error calling getter on dest: "+e);
-                }
-
-                // copy the value from src to dest, if it's different
-                if (!srcValue.equals(destValue)) {
-                    if (isMap) {
-                        ((Map) dest).put(fieldName, srcValue);
-                    } else {
-                        setter.invoke(dest, srcValue);
-                    }
-                    copyCount++;
-                }
-            }
-        } catch (Exception e) {
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
             throw new IllegalArgumentException("Error copying "+dest.getClass().getSimpleName()+" from src="+src+": "+e, e);
         }
-        return copyCount;
     }
 
-    private static <T> boolean isIgnored(T o, String fieldName, Method getter) {
+    static boolean isIgnored(Class<?> clazz, String fieldName, Method getter) {
         Field field = null;
         try {
-            field = o.getClass().getDeclaredField(fieldName);
+            field = clazz.getDeclaredField(fieldName);
         } catch (NoSuchFieldException ignored) {}
         return isIgnored(getter.getAnnotations()) || (field != null && isIgnored(field.getAnnotations()));
     }
 
-    private static boolean isIgnored(Annotation[] annotations) {
+    static boolean isIgnored(Annotation[] annotations) {
         if (annotations != null) {
             for (Annotation a : annotations) {
                 final Class<?>[] interfaces = a.getClass().getInterfaces();
@@ -575,15 +517,15 @@ public class ReflectionUtil {
                 if (Map.class.isAssignableFrom(dest.getClass())) {// || dest.getClass().getName().equals(HashMap.class.getName())) {
                     ((Map) dest).put(key, value);
                 } else {
-                    if (hasSetter(dest, key, value.getClass())) {
-                        set(dest, key, value);
-                    } else {
-                        final Class pc = getPrimitiveClass(value.getClass());
-                        if (pc != null && hasSetter(dest, key, pc)) {
-                            set(dest, key, value);
-                        } else {
-                            log.info("copyFromMap: skipping uncopyable property: "+key);
+                    final PropertyAccessors.Accessor setter = BeanCopier.setterFor(dest.getClass(), key, value.getClass());
+                    if (setter != null) {
+                        try {
+                            setter.set(dest, value);
+                        } catch (Throwable e) {
+                            die("Error calling " + setter.getMethod().getName() + ": " + e);
                         }
+                    } else {
+                        log.info("copyFromMap: skipping uncopyable property: "+key);
                     }
                 }
             }
@@ -685,11 +627,13 @@ public class ReflectionUtil {
      * @return the value of the field
      * @throws IllegalArgumentException If no getter for the field exists
      */
-    public static Object get(Object object, String field) {
+    public static Object get(Object object, String field) { return get(object, PropertyPath.path(field)); }
+
+    public static Object get(Object object, PropertyPath path) {
         Object target = object;
-        for (String token : field.split("\\.")) {
+        for (int i=0; i<path.size(); i++) {
             if (target == null) return null;
-            target = invoke_get(target, token);
+            target = invoke_get(target, path, i);
         }
         return target;
     }
@@ -705,15 +649,15 @@ public class ReflectionUtil {
     }
 
     public static boolean hasGetter(Object object, String field) {
+        final PropertyPath path = PropertyPath.path(field);
         Object target = object;
         try {
-            for (String token : field.split("\\.")) {
-                final String methodName = getAccessorMethodName(Accessor.get, token);
-                target = MethodUtils.invokeExactMethod(target, methodName, null);
+            for (int i=0; i<path.size(); i++) {
+                final PropertyAccessors.Accessor getter = PropertyAccessors.forClass(target.getClass()).getter(path.getterName(i), path.isGetterName(i));
+                if (getter == null || !getter.getMethod().getName().equals(path.getterName(i))) return false;
+                target = getter.get(target);
             }
-        } catch (NoSuchMethodException e) {
-            return false;
-        } catch (Exception e) {
+        } catch (Throwable e) {
             return false;
         }
         return true;
@@ -754,23 +698,23 @@ public class ReflectionUtil {
             }
             value = instantiate(type, value);
         }
-        final String[] tokens = field.split("\\.");
-        Object target = getTarget(object, tokens);
-        if (target != null) invoke_set(target, tokens[tokens.length - 1], value);
+        final PropertyPath path = PropertyPath.path(field);
+        Object target = getTarget(object, path);
+        if (target != null) invoke_set(target, path, value);
     }
 
     public static void setNull(Object object, String field, Class type) {
-        final String[] tokens = field.split("\\.");
-        Object target = getTarget(object, tokens);
-        if (target != null) invoke_set_null(target, tokens[tokens.length - 1], type);
+        final PropertyPath path = PropertyPath.path(field);
+        Object target = getTarget(object, path);
+        if (target != null) invoke_set_null(target, path.token(path.lastIndex()), type);
     }
 
-    private static Object getTarget(Object object, String[] tokens) {
+    private static Object getTarget(Object object, PropertyPath path) {
         Object target = object;
-        for (int i=0; i<tokens.length-1; i++) {
-            target = invoke_get(target, tokens[i]);
+        for (int i=0; i<path.lastIndex(); i++) {
+            target = invoke_get(target, path, i);
             if (target == null) {
-                log.warn("getTarget("+object+", "+Arrays.toString(tokens)+"): exiting early, null object found at token="+tokens[i]);
+                log.warn("getTarget("+object+", "+path+"): exiting early, null object found at token="+path.token(i));
                 return null;
             }
         }
@@ -779,7 +723,7 @@ public class ReflectionUtil {
 
     public static boolean hasSetter(Object object, String field, Class type) {
         Object target = object;
-        final String[] tokens = field.split("\\.");
+        final String[] tokens = PropertyPath.path(field).getTokens();
         try {
             for (int i=0; i<tokens.length-1; i++) {
                 target = MethodUtils.invokeExactMethod(target, tokens[i], null);
@@ -799,25 +743,23 @@ public class ReflectionUtil {
         return token.length() == 1 ? accessor.name() +token.toUpperCase() : accessor.name() + token.substring(0, 1).toUpperCase() + token.substring(1);
     }
 
-    private static Object invoke_get(Object target, String token) {
-        final String methodName = getAccessorMethodName(Accessor.get, token);
+    private static Object invoke_get(Object target, PropertyPath path, int i) {
+        final PropertyAccessors.Accessor getter = PropertyAccessors.forClass(target.getClass()).getter(path.getterName(i), path.isGetterName(i));
+        if (getter == null) {
+            final String token = path.token(i);
+            if (target instanceof Map) return ((Map) target).get(token);
+            if (target instanceof ObjectNode) return ((ObjectNode) target).get(token);
+            throw new IllegalArgumentException("Error calling "+path.getterName(i)+" and "+path.isGetterName(i)+": no such method on "+target.getClass().getName());
+        }
         try {
-            target = MethodUtils.invokeMethod(target, methodName, null);
-        } catch (Exception e) {
-            final String isMethod = methodName.replaceFirst("get", "is");
-            try {
-                target = MethodUtils.invokeMethod(target, isMethod, null);
-            } catch (Exception e2) {
-                if (target instanceof Map) return ((Map) target).get(token);
-                if (target instanceof ObjectNode) return ((ObjectNode) target).get(token);
-                throw new IllegalArgumentException("Error calling "+methodName+" and "+isMethod+": "+e+", "+e2);
-            }
+            return getter.get(target);
+        } catch (Throwable e) {
+            throw new IllegalArgumentException("Error calling "+getter.getMethod().getName()+": "+e, e);
         }
-        return target;
     }
 
-    private static void invoke_set(Object target, String token, Object value) {
-        final String methodName = getAccessorMethodName(Accessor.set, token);
+    private static void invoke_set(Object target, PropertyPath path, Object value) {
+        final String methodName = path.setterName(path.lastIndex());
         if (value == null) {
             // try to find a single-arg method named methodName...
             Method found = null;
@@ -837,9 +779,11 @@ public class ReflectionUtil {
                 die("Error calling " + methodName + " on target: " + target + " - " + e);
             }
         } else {
+            final PropertyAccessors.Accessor setter = PropertyAccessors.forClass(target.getClass()).setter(methodName, value.getClass());
+            if (setter == null) die("Error calling " + methodName + ": no such method on " + target.getClass().getName() + " accepting " + value.getClass().getName());
             try {
-                MethodUtils.invokeMethod(target, methodName, value);
-            } catch (Exception e) {
+                setter.set(target, value);
+            } catch (Throwable e) {
                 die("Error calling " + methodName + ": " + e);
             }
         }
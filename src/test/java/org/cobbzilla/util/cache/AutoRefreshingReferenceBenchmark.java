@@ -0,0 +1,73 @@
+package org.cobbzilla.util.cache;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+
+/**
+ * Compares reads from AutoRefreshingReference against the original implementation, which synchronized every read,
+ * with many reader threads. The timeout is short, so both the steady state and refreshes are measured.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.cobbzilla.util.cache.AutoRefreshingReferenceBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2) @Measurement(iterations = 5, time = 2) @Fork(1) @Threads(16)
+public class AutoRefreshingReferenceBenchmark {
+
+    private static final long TIMEOUT = 50;
+
+    private final AtomicLong version = new AtomicLong();
+
+    private final AutoRefreshingReference<String> lockFree = new AutoRefreshingReference<String>() {
+        @Override public String refresh() { return slowRefresh(); }
+        @Override public long getTimeout() { return TIMEOUT; }
+    };
+
+    private final LegacyReference<String> legacy = new LegacyReference<String>() {
+        @Override public String refresh() { return slowRefresh(); }
+        @Override public long getTimeout() { return TIMEOUT; }
+    };
+
+    private String slowRefresh() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "value-"+version.incrementAndGet();
+    }
+
+    @Benchmark public String legacyGet () { return legacy.get(); }
+
+    @Benchmark public String lockFreeGet () { return lockFree.get(); }
+
+    /** the original AutoRefreshingReference */
+    private abstract static class LegacyReference<T> {
+        private final AtomicReference<T> object = new AtomicReference<>();
+        private final AtomicLong lastSet = new AtomicLong();
+
+        public abstract T refresh();
+        public abstract long getTimeout();
+
+        public T get() {
+            synchronized (object) {
+                if (object.get() == null || now() - lastSet.get() > getTimeout()) {
+                    object.set(refresh());
+                    lastSet.set(now());
+                }
+                return object.get();
+            }
+        }
+    }
+
+    public static void main (String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(AutoRefreshingReferenceBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
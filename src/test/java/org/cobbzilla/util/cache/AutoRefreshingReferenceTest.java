@@ -0,0 +1,103 @@
+package org.cobbzilla.util.cache;
+
+import org.cobbzilla.util.daemon.ExecutorRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+import static org.junit.Assert.*;
+
+public class AutoRefreshingReferenceTest {
+
+    @Test public void testSingleFlightRefresh () throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicBoolean fail = new AtomicBoolean(false);
+        final CountDownLatch refreshing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AutoRefreshingReference<String> ref = new AutoRefreshingReference<String>() {
+            @Override public String refresh() {
+                final int n = calls.incrementAndGet();
+                if (fail.get()) throw new IllegalStateException("refresh failed");
+                if (n == 2) {
+                    refreshing.countDown();
+                    try { release.await(); } catch (InterruptedException e) { throw new IllegalStateException(e); }
+                }
+                return "v"+n;
+            }
+            @Override public long getTimeout() { return 100; }
+            @Override public long getHardTimeout() { return 60_000; }
+        };
+
+        assertEquals("v1", ref.get());
+        assertEquals("v1", ref.get());
+        assertEquals(1, ref.getRefreshes());
+        assertEquals(1, ref.getHits());
+
+        // once expired, one caller refreshes while the others get the stale value
+        Thread.sleep(150);
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        final Future<String> refresher = pool.submit(ref::get);
+        refreshing.await();
+        final List<Future<String>> readers = new ArrayList<>();
+        for (int i=0; i<8; i++) readers.add(pool.submit(ref::get));
+        for (Future<String> f : readers) assertEquals("v1", f.get());
+        release.countDown();
+        assertEquals("v2", refresher.get());
+        pool.shutdown();
+        assertEquals(2, calls.get());
+        assertEquals(8, ref.getStaleHits());
+
+        // a failed refresh keeps serving the last good value
+        Thread.sleep(150);
+        fail.set(true);
+        assertEquals("v2", ref.get());
+        assertEquals(1, ref.getFailures());
+
+        // with no value, the failure is thrown
+        ref.flush();
+        try {
+            ref.get();
+            fail("expected exception");
+        } catch (IllegalStateException expected) {}
+    }
+
+    @Test public void testBackgroundRefreshAhead () throws Exception {
+        final RefreshScheduler scheduler = new RefreshScheduler(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final BackgroundRefreshingReference<Integer> ref = new BackgroundRefreshingReference<Integer>() {
+            @Override public Integer refresh() { return calls.incrementAndGet(); }
+            @Override public long getTimeout() { return 200; }
+            @Override public RefreshScheduler getScheduler() { return scheduler; }
+        };
+
+        // while the value is being read, it is refreshed ahead of expiry, so readers never see an expired value
+        Thread.sleep(50);
+        for (int i=0; i<10; i++) {
+            assertNotNull(ref.get());
+            assertTrue(now() - ref.getLastSet().get() <= 300);
+            Thread.sleep(50);
+        }
+        assertTrue(calls.get() >= 3);
+        assertEquals(0, ref.getStaleHits());
+
+        // once reads stop, so do refreshes
+        Thread.sleep(500);
+        final int refreshed = calls.get();
+        Thread.sleep(500);
+        assertEquals(refreshed, calls.get());
+        assertEquals(0, scheduler.getPending());
+
+        // the scheduler's pool is listed by the registry
+        assertTrue(ExecutorRegistry.instance.getStats().stream()
+                .anyMatch(s -> s.getName().startsWith("background-refresh-") && s.getCompleted() >= refreshed));
+    }
+
+}
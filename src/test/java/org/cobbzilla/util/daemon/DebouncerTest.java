@@ -0,0 +1,84 @@
+package org.cobbzilla.util.daemon;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DebouncerTest {
+
+    @Test public void testDebounce () throws Exception {
+        final List<List<String>> batches = new CopyOnWriteArrayList<>();
+        final Debouncer<String, String> debouncer = new Debouncer<>(100, 1000, 5, batches::add);
+
+        // duplicates are coalesced, and nothing fires while events keep arriving
+        for (int i=0; i<5; i++) {
+            debouncer.add("a", "a");
+            debouncer.add("b", "b");
+            Thread.sleep(50);
+        }
+        assertEquals(2, debouncer.size());
+        assertTrue(batches.isEmpty());
+        Thread.sleep(200);
+        assertEquals(1, batches.size());
+        assertEquals(Arrays.asList("a", "b"), batches.get(0));
+        assertEquals(0, debouncer.size());
+
+        // reaching maxItems flushes immediately
+        for (int i=0; i<5; i++) debouncer.add("k"+i, "v"+i);
+        Thread.sleep(50);
+        assertEquals(2, batches.size());
+        assertEquals(5, batches.get(1).size());
+
+        // constant activity still fires within maxLatency
+        final long start = System.currentTimeMillis();
+        while (batches.size() < 3 && System.currentTimeMillis() - start < 3000) {
+            debouncer.add("x", "x");
+            Thread.sleep(20);
+        }
+        assertEquals(3, batches.size());
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        debouncer.close();
+    }
+
+    @Test public void testSlowSink () throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<List<String>> slowBatches = new CopyOnWriteArrayList<>();
+        final Debouncer<String, String> slow = new Debouncer<>(10, 0, 0, batch -> {
+            slowBatches.add(batch);
+            try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        });
+        final List<List<String>> fastBatches = new CopyOnWriteArrayList<>();
+        final Debouncer<String, String> fast = new Debouncer<>(10, 0, 0, fastBatches::add);
+        try {
+            slow.add("a", "a");
+            Thread.sleep(100);
+            assertEquals(1, slowBatches.size());
+
+            // the slow sink is still running: other debouncers are not held up by it
+            fast.add("b", "b");
+            Thread.sleep(200);
+            assertEquals(1, fastBatches.size());
+
+            // batches from the same debouncer are delivered in order, after the previous one completes
+            slow.add("c", "c");
+            Thread.sleep(100);
+            slow.add("d", "d");
+            Thread.sleep(100);
+            assertEquals(1, slowBatches.size());
+            release.countDown();
+            Thread.sleep(200);
+            assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("c"), Arrays.asList("d")), slowBatches);
+        } finally {
+            release.countDown();
+            slow.close();
+            fast.close();
+        }
+    }
+
+}
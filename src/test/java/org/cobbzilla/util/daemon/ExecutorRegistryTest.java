@@ -0,0 +1,109 @@
+package org.cobbzilla.util.daemon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ExecutorRegistryTest {
+
+    @Test public void testInstrumentedPools () throws Exception {
+        final ExecutorRegistry registry = new ExecutorRegistry(true);
+        assertSame(registry.shared("test-shared", 2), registry.shared("test-shared", 2));
+
+        final ExecutorService pool = registry.newIoPool("test-pool", 2);
+        final InstrumentedExecutor executor = (InstrumentedExecutor) pool;
+        assertSame(executor, registry.get(executor.getName()));
+
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i=0; i<6; i++) {
+            final int n = i;
+            futures.add(pool.submit(() -> {
+                Thread.sleep(20);
+                if (n == 5) throw new IllegalStateException("fail");
+                return n;
+            }));
+        }
+        // wait for termination, so every task's afterExecute has run
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        final ExecutorStats stats = executor.getStats();
+        assertEquals(6, stats.getSubmitted());
+        assertEquals(6, stats.getCompleted());
+        assertEquals(1, stats.getFailed());
+        assertEquals(2, stats.getMaxThreads());
+        assertTrue(stats.getAverageRunMillis() >= 15);
+        assertTrue(stats.getAverageQueueMillis() > 0);
+
+        try {
+            pool.submit(() -> {});
+            fail("expected rejection");
+        } catch (RejectedExecutionException expected) {}
+        assertEquals(1, executor.getRejected());
+
+        // terminated pools are no longer listed
+        assertNull(registry.get(executor.getName()));
+        assertEquals(1, registry.getStats().size());
+    }
+
+    @Test public void testScheduledPool () throws Exception {
+        final ExecutorRegistry registry = new ExecutorRegistry(false);
+        final ScheduledThreadPoolExecutor pool = registry.newScheduledPool("test-scheduled", 1);
+        final InstrumentedPool instrumented = (InstrumentedPool) pool;
+        assertSame(instrumented, registry.get(instrumented.getName()));
+
+        final ScheduledFuture<?> ok = pool.schedule(() -> {}, 20, TimeUnit.MILLISECONDS);
+        final ScheduledFuture<?> failed = pool.schedule(() -> { throw new IllegalStateException("fail"); }, 20, TimeUnit.MILLISECONDS);
+        ok.get();
+        try {
+            failed.get();
+            fail("expected failure");
+        } catch (ExecutionException expected) {}
+
+        // wait for termination, so every task's afterExecute has run
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        final ExecutorStats stats = instrumented.getStats();
+        assertEquals(2, stats.getSubmitted());
+        assertEquals(2, stats.getCompleted());
+        assertEquals(1, stats.getFailed());
+        assertEquals(1, stats.getMaxThreads());
+        assertNull(registry.get(instrumented.getName()));
+    }
+
+    @Test public void testForkJoinPool () throws Exception {
+        final ExecutorRegistry registry = new ExecutorRegistry(false);
+        final ForkJoinPool pool = registry.newForkJoinPool("test-fj", 2);
+        final InstrumentedPool instrumented = (InstrumentedPool) pool;
+        assertSame(instrumented, registry.get(instrumented.getName()));
+
+        final String thread = pool.submit(() -> Thread.currentThread().getName()).get();
+        assertTrue(thread, thread.startsWith(instrumented.getName()+"-"));
+        assertEquals(1, instrumented.getSubmitted());
+
+        final ExecutorStats stats = registry.getStats().get(0);
+        assertEquals(instrumented.getName(), stats.getName());
+        assertEquals(2, stats.getMaxThreads());
+
+        pool.shutdown();
+        try {
+            pool.execute(() -> {});
+            fail("expected rejection");
+        } catch (RejectedExecutionException expected) {}
+        assertEquals(1, instrumented.getRejected());
+        assertNull(registry.get(instrumented.getName()));
+        assertTrue(registry.getStats().isEmpty());
+    }
+
+}
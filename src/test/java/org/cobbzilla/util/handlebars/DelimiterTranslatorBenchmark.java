@@ -0,0 +1,51 @@
+package org.cobbzilla.util.handlebars;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single-pass DelimiterTranslator against the original chain of regex rewrites.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.cobbzilla.util.handlebars.DelimiterTranslatorBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2) @Measurement(iterations = 5, time = 2) @Fork(1)
+public class DelimiterTranslatorBenchmark {
+
+    @Param({"10", "1000"}) public int entries;
+
+    private String template;
+
+    @Setup public void setup () {
+        final StringBuilder b = new StringBuilder("{\n");
+        for (int i=0; i<entries; i++) {
+            if (i > 0) b.append(",\n");
+            b.append("  \"field").append(i).append("\": {\"value\": \"[[ctx.value").append(i).append("]]\", ")
+                    .append("\"literal\": \"{{not.rendered}}\", \"raw\": \"[[[ctx.html]]]\"}");
+        }
+        template = b.append("\n}").toString();
+    }
+
+    @Benchmark public String legacyTranslate () {
+        return DelimiterTranslator.legacyUnescape(DelimiterTranslator.legacyTranslate(template, '[', ']'));
+    }
+
+    @Benchmark public String singlePassTranslate () throws IOException {
+        final String translated = DelimiterTranslator.translate(template, '[', ']');
+        final StringWriter out = new StringWriter(translated.length());
+        final DelimiterUnescapingWriter writer = new DelimiterUnescapingWriter(out);
+        writer.write(translated);
+        writer.finish();
+        return out.toString();
+    }
+
+    public static void main (String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(DelimiterTranslatorBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
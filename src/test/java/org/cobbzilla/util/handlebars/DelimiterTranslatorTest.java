@@ -0,0 +1,98 @@
+package org.cobbzilla.util.handlebars;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.cobbzilla.util.handlebars.HandlebarsUtil.*;
+import static org.junit.Assert.assertEquals;
+
+public class DelimiterTranslatorTest {
+
+    public static final String[][] TESTS = new String[][] {
+            {"plain text", "plain text"},
+            {"[[name]]", "{{name}}"},
+            {"[[[html]]]", "{{{html}}}"},
+            {"{{literal}} [[name]]", "~~__~~literal__~~__ {{name}}"},
+            {"{{{literal}}}", "~~~___~~~literal___~~~___"},
+            {"{{{{four}}}}", "~~~___~~~{four___~~~___}"},
+            {"[[[[four]]]]", "{{{[four}}}]"},
+            {"a [ b ] c", "a [ b ] c"}
+    };
+
+    @Test public void testTranslate () throws Exception {
+        for (String[] test : TESTS) {
+            assertEquals("wrong translation: "+test[0], test[1], DelimiterTranslator.translate(test[0], '[', ']'));
+            assertEquals("legacy mismatch: "+test[0], DelimiterTranslator.legacyTranslate(test[0], '[', ']'), DelimiterTranslator.translate(test[0], '[', ']'));
+        }
+    }
+
+    @Test public void testMatchesLegacyTranslation () throws Exception {
+        final Random random = new Random();
+        final String alphabet = "{}[]ab ";
+        for (int i=0; i<10000; i++) {
+            final StringBuilder b = new StringBuilder();
+            final int len = random.nextInt(30);
+            for (int j=0; j<len; j++) b.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            final String template = b.toString();
+            assertEquals("legacy mismatch: "+template,
+                    DelimiterTranslator.legacyTranslate(template, '[', ']'),
+                    DelimiterTranslator.translate(template, '[', ']'));
+        }
+    }
+
+    @Test public void testUnescapingWriter () throws Exception {
+        final String escaped = "__~~__~~__~~ x ~~~___~~~y___~~~___ ~_~ __";
+        final String expected = "__{{__~~ x {{{y}}} ~_~ __";
+        assertEquals(DelimiterTranslator.legacyUnescape(escaped), expected);
+        assertEquals(expected, DelimiterTranslator.unescape(escaped));
+
+        // write in small, uneven chunks so placeholders are split across writes
+        final Random random = new Random();
+        for (int i=0; i<100; i++) {
+            final StringWriter out = new StringWriter();
+            final DelimiterUnescapingWriter writer = new DelimiterUnescapingWriter(out);
+            int pos = 0;
+            while (pos < escaped.length()) {
+                final int chunk = Math.min(escaped.length() - pos, 1 + random.nextInt(5));
+                writer.write(escaped, pos, chunk);
+                pos += chunk;
+            }
+            writer.finish();
+            assertEquals(expected, out.toString());
+        }
+    }
+
+    @Test public void testMatchesLegacyUnescape () throws Exception {
+        // placeholders overlap here; the legacy replacement order decides which one wins
+        assertEquals(DelimiterTranslator.legacyUnescape("___~~~___~~~"), DelimiterTranslator.unescape("___~~~___~~~"));
+
+        final Random random = new Random();
+        final String[] tokens = { "~", "_", "~~", "__", "~~~", "___", "x", " ", DUMMY_START3, DUMMY_START2, DUMMY_END3, DUMMY_END2 };
+        for (int i=0; i<10000; i++) {
+            final StringBuilder b = new StringBuilder();
+            final int len = random.nextInt(12);
+            for (int j=0; j<len; j++) b.append(tokens[random.nextInt(tokens.length)]);
+            final String rendered = b.toString();
+            final String expected = DelimiterTranslator.legacyUnescape(rendered);
+            assertEquals("legacy mismatch: "+rendered, expected, DelimiterTranslator.unescape(rendered));
+
+            final StringWriter out = new StringWriter();
+            final DelimiterUnescapingWriter writer = new DelimiterUnescapingWriter(out);
+            int pos = 0;
+            while (pos < rendered.length()) {
+                final int chunk = Math.min(rendered.length() - pos, 1 + random.nextInt(5));
+                if (chunk == 1) {
+                    writer.write(rendered.charAt(pos));
+                } else {
+                    writer.write(rendered, pos, chunk);
+                }
+                pos += chunk;
+            }
+            writer.finish();
+            assertEquals("legacy mismatch (writer): "+rendered, expected, out.toString());
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package org.cobbzilla.util.handlebars;
+
+import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Template;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HandlebarsTemplateCacheTest {
+
+    @Test public void testCacheKeysAndStats () throws Exception {
+        final HandlebarsTemplateCache cache = new HandlebarsTemplateCache(1024 * 1024);
+        final Handlebars hb1 = new Handlebars(new HandlebarsUtil("test"));
+        final Handlebars hb2 = new Handlebars(new HandlebarsUtil("test"));
+
+        final Template t1 = cache.compile(hb1, "hello {{name}}");
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // same instance and text: a hit, returning the same template
+        assertSame(t1, cache.compile(hb1, "hello {{name}}"));
+        assertEquals(1, cache.getHits());
+
+        // a different Handlebars instance, or different text, is a different entry
+        assertNotSame(t1, cache.compile(hb2, "hello {{name}}"));
+        assertNotSame(t1, cache.compile(hb1, "hello {{name}}!"));
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, cache.size());
+
+        // rewrites are cached separately, keyed by text and delimiters
+        final AtomicInteger rewrites = new AtomicInteger();
+        assertEquals("x", cache.rewrite("[[a]]", '[', ']', () -> { rewrites.incrementAndGet(); return "x"; }));
+        assertEquals("x", cache.rewrite("[[a]]", '[', ']', () -> { rewrites.incrementAndGet(); return "y"; }));
+        assertEquals("z", cache.rewrite("[[a]]", '<', '>', () -> { rewrites.incrementAndGet(); return "z"; }));
+        assertEquals(2, rewrites.get());
+        assertEquals(1, cache.getRewriteStats().hitCount());
+        assertEquals(3, cache.size());
+
+        cache.flush();
+        assertEquals(0, cache.size());
+    }
+
+    @Test public void testWeightEviction () throws Exception {
+        // each entry weighs its text length + 1
+        final long maxChars = 200;
+        final HandlebarsTemplateCache cache = new HandlebarsTemplateCache(maxChars);
+        final Handlebars hb = new Handlebars(new HandlebarsUtil("test"));
+        for (int i=0; i<50; i++) {
+            final String text = String.format("template %08d {{x}}", i);
+            assertEquals("template "+String.format("%08d", i)+" y", cache.compile(hb, text).apply(Collections.singletonMap("x", "y")));
+        }
+        assertEquals(50, cache.getMisses());
+        assertTrue(cache.getEvictions() > 0);
+        // each text is 22 chars, so weighs 23
+        assertTrue(cache.size() > 0);
+        assertTrue(cache.size() * 23 <= maxChars);
+        assertEquals(50, cache.size() + cache.getEvictions());
+    }
+
+}
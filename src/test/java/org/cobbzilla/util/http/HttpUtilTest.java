@@ -0,0 +1,549 @@
+package org.cobbzilla.util.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.RandomUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.cobbzilla.util.collection.NameAndValue;
+import org.cobbzilla.util.io.FileUtil;
+import org.cobbzilla.util.security.ShaUtil;
+import org.cobbzilla.util.string.StringUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.cobbzilla.util.string.StringUtil.UTF8cs;
+import static org.junit.Assert.*;
+
+public class HttpUtilTest {
+
+    private static HttpServer server;
+    private static String baseUri;
+
+    private static final AtomicInteger active = new AtomicInteger();
+    private static final AtomicInteger maxActive = new AtomicInteger();
+
+    private static final byte[] FILE_DATA = RandomUtils.nextBytes(1024 * 1024 + 17);
+    private static final AtomicInteger dropRanges = new AtomicInteger();
+    private static final AtomicInteger shiftRanges = new AtomicInteger();
+    private static final AtomicLong bytesServed = new AtomicLong();
+    private static final AtomicInteger failures = new AtomicInteger();
+    private static final AtomicInteger probes = new AtomicInteger();
+    private static final AtomicInteger cacheRequests = new AtomicInteger();
+
+    @BeforeClass public static void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/echo", exchange -> respond(exchange, exchange.getRequestURI().getQuery()));
+        server.createContext("/slow", exchange -> {
+            sleep(exchange.getRequestURI().getQuery());
+            respond(exchange, "ok");
+        });
+        server.createContext("/limited", exchange -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                sleep(exchange.getRequestURI().getQuery());
+            } finally {
+                active.decrementAndGet();
+            }
+            respond(exchange, "ok");
+        });
+        server.createContext("/file", exchange -> {
+            final String query = exchange.getRequestURI().getQuery();
+            final boolean ranges = query == null || query.equals("ignoreranges");
+            if (ranges) exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(FILE_DATA.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            if (!ranges || range == null || query != null) {
+                exchange.sendResponseHeaders(200, FILE_DATA.length);
+                exchange.getResponseBody().write(FILE_DATA);
+                exchange.close();
+                return;
+            }
+            if (!"identity".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"))) {
+                respond(exchange, 406, "ranges are only served with Accept-Encoding: identity");
+                return;
+            }
+            final String[] bounds = range.substring("bytes=".length()).split("-");
+            // simulate a server that ignores part of the Range header
+            final int start = Integer.parseInt(bounds[0]) + (shiftRanges.getAndDecrement() > 0 ? 1 : 0);
+            final int end = Integer.parseInt(bounds[1]);
+            final int length = end - start + 1;
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + FILE_DATA.length);
+            exchange.sendResponseHeaders(206, length);
+            // simulate a dropped connection: send half the range, then give up
+            final int send = dropRanges.getAndDecrement() > 0 ? length / 2 : length;
+            exchange.getResponseBody().write(FILE_DATA, start, send);
+            bytesServed.addAndGet(send);
+            if (send < length) {
+                exchange.getResponseBody().flush();
+                throw new IOException("dropping connection");
+            }
+            exchange.close();
+        });
+        server.createContext("/upload", exchange -> {
+            final byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+            final String encoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+            final String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            final String contains = exchange.getRequestURI().getQuery();
+            respond(exchange, (encoding != null ? encoding : length) + " " + body.length + " " + new String(body, UTF8cs).contains(contains));
+        });
+        server.createContext("/json", exchange -> respond(exchange, json(Integer.parseInt(exchange.getRequestURI().getQuery()))));
+        server.createContext("/client", exchange -> {
+            exchange.getResponseHeaders().add("Set-Cookie", "session=" + exchange.getRemoteAddress().getPort());
+            respond(exchange, exchange.getRemoteAddress().getPort() + " " + exchange.getRequestHeaders().getFirst("Cookie"));
+        });
+        server.createContext("/status", exchange -> respond(exchange, Integer.parseInt(exchange.getRequestURI().getQuery()), "status"));
+        server.createContext("/flaky", exchange -> {
+            if (failures.getAndDecrement() > 0) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            } else {
+                respond(exchange, "ok");
+            }
+        });
+        server.createContext("/health", exchange -> {
+            probes.incrementAndGet();
+            if ("example.com".equals(exchange.getRequestHeaders().getFirst("Host"))) {
+                respond(exchange, "ok");
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/cached", exchange -> {
+            cacheRequests.incrementAndGet();
+            final String query = exchange.getRequestURI().getQuery();
+            if (query.equals("fresh")) {
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+            } else {
+                // no-cache applies even after max-age
+                exchange.getResponseHeaders().add("Cache-Control", query.equals("maxage-nocache") ? "max-age=60, no-cache" : "no-cache");
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+            }
+            respond(exchange, "cached data");
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUri = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterClass public static void stopServer() { server.stop(0); }
+
+    private static void respond(HttpExchange exchange, String data) throws IOException { respond(exchange, 200, data); }
+
+    private static void respond(HttpExchange exchange, int status, String data) throws IOException {
+        final byte[] body = data.getBytes(UTF8cs);
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private static String json(int size) { return "{\"data\":\"" + StringUtils.repeat('x', size) + "\"}"; }
+
+    private static int leasedConnections() { return HttpClientRegistry.instance.getStats().getLeased(); }
+
+    private static void sleep(String millis) {
+        try {
+            Thread.sleep(Long.parseLong(millis));
+        } catch (InterruptedException ignored) {
+            // server is shutting down
+        }
+    }
+
+    @Test public void testGetResponseAsync() throws Exception {
+        final HttpResponseBean response = HttpUtil.getResponseAsync(new HttpRequestBean(baseUri + "/echo?hello")).get();
+        assertEquals(200, response.getStatus());
+        assertEquals("hello", response.getEntityString());
+    }
+
+    @Test public void testGetResponses() throws Exception {
+        final int count = 50;
+        final List<HttpRequestBean> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) requests.add(new HttpRequestBean(baseUri + "/echo?" + i));
+
+        final Set<String> bodies = new HashSet<>();
+        for (Iterator<HttpAsyncResult> iter = HttpUtil.getResponses(requests); iter.hasNext(); ) {
+            final HttpAsyncResult result = iter.next();
+            assertTrue("request failed: " + result, result.isSuccess());
+            bodies.add(result.getResponse().getEntityString());
+        }
+        assertEquals(count, bodies.size());
+    }
+
+    @Test public void testMaxPerHost() throws Exception {
+        final int maxPerHost = 2;
+        try (AsyncHttpClient client = new AsyncHttpClient(100, maxPerHost, 0)) {
+            final List<HttpRequestBean> requests = new ArrayList<>();
+            for (int i = 0; i < 10; i++) requests.add(new HttpRequestBean(baseUri + "/limited?50"));
+
+            int completed = 0;
+            for (Iterator<HttpAsyncResult> iter = client.getResponses(requests); iter.hasNext(); ) {
+                final HttpAsyncResult result = iter.next();
+                assertTrue("request failed: " + result, result.isSuccess());
+                completed++;
+            }
+            assertEquals(requests.size(), completed);
+            assertTrue("too many concurrent requests: " + maxActive.get(), maxActive.get() <= maxPerHost);
+        }
+    }
+
+    @Test public void testTimeout() throws Exception {
+        try {
+            HttpUtil.getResponseAsync(new HttpRequestBean(baseUri + "/slow?2000"), 100).get();
+            fail("expected timeout");
+        } catch (ExecutionException e) {
+            assertTrue("expected TimeoutException, got " + e.getCause(), e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test public void testResponseEntityModes() throws Exception {
+        final int size = 100 * 1024;
+        final String url = baseUri + "/json?" + size;
+        final String expected = json(size);
+        final File file = FileUtil.temp(".json");
+        try {
+            // in memory
+            HttpResponseBean response = HttpUtil.getResponse(new HttpRequestBean(url).setMaxBufferedResponse((long) size * 2));
+            assertFalse(response.isSpilled());
+            assertFalse(response.isStreaming());
+            assertEquals(expected.length(), response.transferTo(file));
+            assertEquals(expected, FileUtil.toString(file));
+            assertEquals(expected, response.getEntityString());
+
+            // over the threshold: spilled to a temp file, which close deletes
+            response = HttpUtil.getResponse(new HttpRequestBean(url).setMaxBufferedResponse(1024L));
+            assertTrue(response.isSpilled());
+            final File spilled = response.getEntityFile();
+            assertEquals(expected.length(), spilled.length());
+            assertEquals(expected.length(), response.getEntity().length);
+            assertEquals(expected, response.getEntityString());
+            assertEquals(size, ((String) response.getEntity(Map.class).get("data")).length());
+            assertTrue(file.delete());
+            assertEquals(expected.length(), response.transferTo(file));
+            assertEquals(expected, FileUtil.toString(file));
+            response.close();
+            assertFalse(spilled.exists());
+
+            // streamed: parsed straight from the connection, which is released once the entity is read
+            response = HttpUtil.getResponse(new HttpRequestBean(url).setStreamResponse(true));
+            assertTrue(response.isStreaming());
+            assertEquals(1, leasedConnections());
+            assertEquals(size, ((String) response.getEntity(Map.class).get("data")).length());
+            assertFalse(response.isStreaming());
+            assertEquals(0, leasedConnections());
+            response.close();
+
+            // streamed to a file
+            assertTrue(file.delete());
+            response = HttpUtil.getResponse(new HttpRequestBean(url).setStreamResponse(true));
+            assertEquals(expected.length(), response.transferTo(file));
+            assertEquals(expected, FileUtil.toString(file));
+            assertEquals(0, leasedConnections());
+            response.close();
+
+            // streamed and never read: close releases the connection
+            response = HttpUtil.getResponse(new HttpRequestBean(url).setStreamResponse(true));
+            assertEquals(1, leasedConnections());
+            response.close();
+            assertEquals(0, leasedConnections());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test public void testClientRegistry() throws Exception {
+        final long clients = HttpClientRegistry.instance.getClientCount();
+
+        final String[] first = HttpUtil.getResponse(baseUri + "/client").getEntityString().split(" ");
+        final String[] second = HttpUtil.getResponse(new HttpRequestBean(baseUri + "/client").setSocketTimeout(5000)).getEntityString().split(" ");
+        final String[] third = HttpUtil.url2string(baseUri + "/client").split(" ");
+
+        // one kept-alive connection, from the same client: per-request timeouts do not need a client of their own
+        assertEquals(first[0], second[0]);
+        assertEquals(first[0], third[0]);
+        assertTrue(HttpClientRegistry.instance.getClientCount() <= Math.max(clients, 1));
+
+        // the cookie set by one response is not sent with the next request
+        assertEquals("null", second[1]);
+        assertEquals("null", third[1]);
+    }
+
+    @Test public void testRangedDownload() throws Exception {
+        final File file = FileUtil.temp(".bin");
+        final String sha = StringUtil.tohex(ShaUtil.sha256(FILE_DATA));
+        try {
+            dropRanges.set(2);
+            shiftRanges.set(0);
+            bytesServed.set(0);
+            new HttpDownload(baseUri + "/file", file)
+                    .setMinPartSize(64 * 1024)
+                    .setParts(4)
+                    .setRetrySleep(10)
+                    .setSha256(sha)
+                    .download();
+            assertArrayEquals(FILE_DATA, FileUtil.toBytes(file));
+            // dropped ranges resumed where they stopped, rather than starting over
+            assertEquals(FILE_DATA.length, bytesServed.get());
+            assertFalse(new File(file.getAbsolutePath() + HttpDownload.PARTIAL_SUFFIX).exists());
+            assertFalse(new File(file.getAbsolutePath() + HttpDownload.STATE_SUFFIX).exists());
+
+            // a response for the wrong range is rejected, not written at the requested offset
+            assertTrue(file.delete());
+            dropRanges.set(0);
+            shiftRanges.set(1);
+            new HttpDownload(baseUri + "/file", file)
+                    .setMinPartSize(64 * 1024)
+                    .setParts(4)
+                    .setRetrySleep(10)
+                    .setSha256(sha)
+                    .download();
+            assertArrayEquals(FILE_DATA, FileUtil.toBytes(file));
+
+            // Accept-Ranges, but range requests get the whole file: falls back to a single stream
+            assertTrue(file.delete());
+            new HttpDownload(baseUri + "/file?ignoreranges", file)
+                    .setMinPartSize(64 * 1024)
+                    .setParts(4)
+                    .setRetrySleep(10)
+                    .setSha256(sha)
+                    .download();
+            assertArrayEquals(FILE_DATA, FileUtil.toBytes(file));
+            assertFalse(new File(file.getAbsolutePath() + HttpDownload.STATE_SUFFIX).exists());
+
+            // no Accept-Ranges: falls back to a single stream
+            assertTrue(file.delete());
+            HttpUtil.url2file(baseUri + "/file?noranges", file);
+            assertArrayEquals(FILE_DATA, FileUtil.toBytes(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test public void testMultipartUpload() throws Exception {
+        final String data = RandomStringUtils.randomAlphanumeric(200 * 1024);
+        final File file = FileUtil.temp(".txt");
+        final File binFile = FileUtil.temp(".bin");
+        try {
+            FileUtil.toFile(file, data);
+            FileUtil.toFile(binFile, data);
+            final AtomicLong lastProgress = new AtomicLong();
+            final MultipartUpload upload = new MultipartUpload(baseUri + "/upload?" + data.substring(0, 100))
+                    .addFile(file)
+                    .addText("description", "a test file")
+                    .setListener((sent, total) -> lastProgress.set(sent));
+            HttpResponseBean response = upload.upload();
+
+            // all parts have a known length, so the body is sent with a fixed Content-Length
+            final String[] result = response.getEntityString().split(" ");
+            assertEquals(String.valueOf(upload.getContentLength()), result[0]);
+            assertEquals(upload.getContentLength(), Long.parseLong(result[1]));
+            assertEquals("true", result[2]);
+            assertEquals(upload.getContentLength(), upload.getBytesSent());
+            assertEquals(upload.getBytesSent(), lastProgress.get());
+
+            // a stream of unknown length is sent chunked
+            final HttpRequestBean request = new HttpRequestBean(HttpMethods.POST, baseUri + "/upload?" + data.substring(0, 100),
+                    new ByteArrayInputStream(data.getBytes(UTF8cs)), "data.txt", new NameAndValue[0]);
+            response = HttpUtil.getResponse(request);
+            assertTrue(response.getEntityString(), response.getEntityString().startsWith("chunked "));
+            assertTrue(response.getEntityString().endsWith(" true"));
+
+            // unknown and missing extensions are sent as application/octet-stream
+            final MultipartUpload binary = new MultipartUpload(baseUri + "/upload?application/octet-stream")
+                    .addFile(binFile)
+                    .addStream("noext", new ByteArrayInputStream(data.getBytes(UTF8cs)), "README", data.length());
+            assertTrue(binary.upload().getEntityString().endsWith(" true"));
+        } finally {
+            file.delete();
+            binFile.delete();
+        }
+    }
+
+    @Test public void testRetryPolicy() throws Exception {
+        final RetryPolicy policy = new RetryPolicy().setMaxAttempts(4).setInitialDelay(10).setCircuitBreakers(null);
+        final HttpRequestBean request = new HttpRequestBean(baseUri + "/flaky").setRetryPolicy(policy);
+
+        failures.set(2);
+        HttpResponseBean response = HttpUtil.getResponse(request);
+        assertEquals(200, response.getStatus());
+        assertEquals(3, policy.getAttempts());
+        assertEquals(2, policy.getRetries());
+
+        // out of attempts: the last response is returned
+        failures.set(10);
+        response = HttpUtil.getResponse(request);
+        assertEquals(503, response.getStatus());
+        assertEquals(1, policy.getExhausted());
+
+        // async requests are retried too
+        failures.set(2);
+        response = HttpUtil.getResponseAsync(new HttpRequestBean(baseUri + "/flaky").setRetryPolicy(policy)).get();
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test public void testCircuitBreaker() throws Exception {
+        final CircuitBreakers breakers = new CircuitBreakers(2, 200);
+        final RetryPolicy policy = new RetryPolicy().setMaxAttempts(1).setCircuitBreakers(breakers);
+        final HttpRequestBean request = new HttpRequestBean(baseUri + "/flaky").setRetryPolicy(policy);
+
+        failures.set(2);
+        assertEquals(503, HttpUtil.getResponse(request).getStatus());
+        assertEquals(503, HttpUtil.getResponse(request).getStatus());
+        assertEquals(1, breakers.getOpenCount());
+        try {
+            HttpUtil.getResponse(request);
+            fail("expected CircuitOpenException");
+        } catch (CircuitOpenException expected) {
+            assertEquals(1, breakers.getRejected());
+        }
+
+        // after openMillis, a probe is let through; it succeeds and closes the circuit
+        Thread.sleep(250);
+        assertEquals(200, HttpUtil.getResponse(request).getStatus());
+        assertEquals(CircuitState.closed, breakers.get(request.getHostAndPort()).getState());
+        assertEquals(0, breakers.getOpenCount());
+    }
+
+    @Test public void testClientErrorsKeepCircuitClosed() throws Exception {
+        final String host = URIUtil.getHostAndPort(baseUri);
+        final int threshold = CircuitBreakers.instance.getFailureThreshold();
+
+        // the host answered: a 404 is neither retried nor a circuit breaker failure
+        for (int i = 0; i < threshold * 2; i++) {
+            try {
+                HttpUtil.url2string(baseUri + "/missing");
+                fail("expected FileNotFoundException");
+            } catch (FileNotFoundException expected) {
+                // expected
+            }
+        }
+        assertEquals(CircuitState.closed, CircuitBreakers.instance.get(host).getState());
+        assertEquals("ok", HttpUtil.url2string(baseUri + "/echo?ok"));
+
+        // nor are other client errors
+        final RetryPolicy policy = new RetryPolicy().setInitialDelay(10);
+        for (int i = 0; i < threshold * 2; i++) {
+            try {
+                HttpUtil.get(baseUri + "/status?403", policy);
+                fail("expected HttpStatusException");
+            } catch (HttpStatusException e) {
+                assertEquals(403, e.getStatus());
+            }
+        }
+        assertEquals(threshold * 2, policy.getAttempts());
+        assertEquals(0, policy.getRetries());
+        assertEquals(CircuitState.closed, CircuitBreakers.instance.get(host).getState());
+
+        // breakers are per port
+        assertNotSame(CircuitBreakers.instance.get(host), CircuitBreakers.instance.get(URIUtil.getHostAndPort("http://127.0.0.1:1/")));
+    }
+
+    @Test public void testHealthProber() throws Exception {
+        try (HealthProber prober = new HealthProber(1000, 1000, 60_000, 4)) {
+            final HealthProbeTarget good = new HealthProbeTarget(baseUri + "/health", "example.com");
+            final HealthProbeTarget wrongHost = new HealthProbeTarget(baseUri + "/health", "other.example.com");
+            final HealthProbeTarget down = new HealthProbeTarget("http://127.0.0.1:1/health");
+
+            probes.set(0);
+            final List<HealthProbeResult> results = prober.probeAll(Arrays.asList(good, wrongHost, down));
+            assertTrue(results.get(0).isOk());
+            assertEquals(404, results.get(1).getStatus());
+            assertFalse(results.get(2).isOk());
+            assertNotNull(results.get(2).getError());
+            assertEquals(2, probes.get());
+
+            // cached until the TTL expires, unless probed explicitly
+            assertTrue(prober.probe(good).isOk());
+            assertEquals(2, probes.get());
+            assertTrue(prober.probeNow(good).isOk());
+            assertEquals(3, probes.get());
+        }
+    }
+
+    @Test public void testResponseCache() throws Exception {
+        final File dir = FileUtil.createTempDir("HttpUtilTest-cache");
+        try {
+            HttpResponseCache cache = new HttpResponseCache(1024 * 1024, 64 * 1024, dir);
+            HttpUtil.setResponseCache(cache);
+            cacheRequests.set(0);
+
+            // fresh for 60 seconds: the second request is served from the cache
+            assertEquals("cached data", HttpUtil.url2string(baseUri + "/cached?fresh"));
+            assertEquals("cached data", HttpUtil.url2string(baseUri + "/cached?fresh"));
+            assertEquals(1, cacheRequests.get());
+            assertEquals(1, cache.getHits());
+
+            // no-cache with an ETag: the second request is revalidated, and the server answers 304
+            assertEquals("cached data", HttpUtil.getResponse(baseUri + "/cached?etag").getEntityString());
+            final HttpResponseBean revalidated = HttpUtil.getResponse(baseUri + "/cached?etag");
+            assertEquals(200, revalidated.getStatus());
+            assertEquals("cached data", revalidated.getEntityString());
+            assertEquals(3, cacheRequests.get());
+            assertEquals(1, cache.getRevalidated());
+
+            // no-cache is honored when it follows max-age
+            assertEquals("cached data", HttpUtil.url2string(baseUri + "/cached?maxage-nocache"));
+            assertEquals("cached data", HttpUtil.url2string(baseUri + "/cached?maxage-nocache"));
+            assertEquals(5, cacheRequests.get());
+            assertEquals(2, cache.getRevalidated());
+
+            // a new cache over the same directory finds the stored responses on disk
+            cache = new HttpResponseCache(1024 * 1024, 64 * 1024, dir);
+            HttpUtil.setResponseCache(cache);
+            assertEquals("cached data", HttpUtil.url2string(baseUri + "/cached?fresh"));
+            assertEquals(5, cacheRequests.get());
+            assertEquals(1, cache.getHits());
+
+            // requests with other headers (which may be credentials) are never cached
+            final HttpRequestBean withKey = new HttpRequestBean(baseUri + "/cached?fresh").withHeader("X-Api-Key", "secret");
+            assertFalse(cache.isCacheable(withKey));
+            assertEquals("cached data", HttpUtil.getResponse(withKey).getEntityString());
+            assertEquals("cached data", HttpUtil.getResponse(withKey).getEntityString());
+            assertEquals(7, cacheRequests.get());
+
+            // headers that are allowed are part of the key
+            final HttpRequestBean withAccept = new HttpRequestBean(baseUri + "/cached?fresh").withHeader("Accept", "text/plain");
+            assertTrue(cache.isCacheable(withAccept));
+            assertEquals("cached data", HttpUtil.getResponse(withAccept).getEntityString());
+            assertEquals(8, cacheRequests.get());
+            assertEquals("cached data", HttpUtil.getResponse(withAccept).getEntityString());
+            assertEquals(8, cacheRequests.get());
+
+            // the disk tier is bounded
+            cache = new HttpResponseCache(1024 * 1024, 64 * 1024, dir, 1);
+            HttpUtil.setResponseCache(cache);
+            assertEquals("cached data", HttpUtil.url2string(baseUri + "/cached?fresh&other"));
+            assertEquals(0, cache.getDiskBytes());
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            HttpUtil.setResponseCache(null);
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+}
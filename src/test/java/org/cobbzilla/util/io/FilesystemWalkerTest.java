@@ -0,0 +1,85 @@
+package org.cobbzilla.util.io;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.cobbzilla.util.daemon.AwaitResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class FilesystemWalkerTest {
+
+    private File tempDir;
+
+    @Before public void createTempDir () throws Exception { tempDir = Files.createTempDir(); }
+
+    @After public void deleteTempDir () throws Exception { FileUtils.deleteDirectory(tempDir); }
+
+    @Test public void testWalk () throws Exception {
+        // 3 levels of 4 dirs, each with 5 files of 10 bytes
+        int expectedFiles = 0;
+        for (int a=0; a<4; a++) {
+            for (int b=0; b<4; b++) {
+                final File dir = new File(tempDir, "a"+a+"/b"+b);
+                assertTrue(dir.mkdirs());
+                for (int f=0; f<5; f++) {
+                    FileUtil.toFile(new File(dir, "f"+f+".txt"), "0123456789");
+                    expectedFiles++;
+                }
+            }
+        }
+        // a symlink back to the root makes a loop
+        java.nio.file.Files.createSymbolicLink(new File(tempDir, "a0/b0/loop").toPath(), tempDir.toPath());
+
+        final Set<String> visited = ConcurrentHashMap.newKeySet();
+        final FilesystemWalker walker = new FilesystemWalker()
+                .withDir(tempDir)
+                .withVisitor(f -> visited.add(f.getAbsolutePath()));
+        AwaitResult<Void> result = walker.walk();
+        assertTrue(result.allSucceeded());
+        assertEquals(expectedFiles, visited.size());
+        assertEquals(expectedFiles, walker.getFilesVisited());
+        assertEquals(expectedFiles * 10, walker.getBytesVisited());
+        assertEquals(1 + 4 + 16, walker.getDirsVisited());
+
+        // with a depth limit, and a filter
+        visited.clear();
+        result = walker.setMaxDepth(2).setIncludeSymlinks(false)
+                .setFilter(f -> f.isDirectory() || f.getName().startsWith("f0"))
+                .walk();
+        assertTrue(result.allSucceeded());
+        assertEquals(0, visited.size());
+        assertEquals(1 + 4 + 16, walker.getDirsVisited());
+
+        visited.clear();
+        result = walker.setMaxDepth(3).walk();
+        assertTrue(result.allSucceeded());
+        assertEquals(16, visited.size());
+
+        // visitor failures are reported, and do not stop the walk
+        final FilesystemWalker failing = new FilesystemWalker().withDir(tempDir).setIncludeSymlinks(false).withVisitor(f -> {
+            if (f.getName().equals("f1.txt")) throw new IllegalStateException("fail");
+        });
+        result = failing.walk();
+        assertEquals(16, result.numFails());
+        assertEquals(16, result.getAllFailures().size());
+        assertFalse(result.timedOut());
+        assertEquals(expectedFiles, failing.getFilesVisited());
+
+        // a walk that does not finish in time reports a timeout
+        final FilesystemWalker slow = new FilesystemWalker().withDir(tempDir).setIncludeSymlinks(false).setTimeout(100).withVisitor(f -> {
+            try { Thread.sleep(50); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        });
+        result = slow.walk();
+        assertTrue(result.timedOut());
+        assertEquals(1, result.numTimeouts());
+        assertFalse(result.allSucceeded());
+    }
+
+}
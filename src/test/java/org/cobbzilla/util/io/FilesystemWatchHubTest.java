@@ -0,0 +1,102 @@
+package org.cobbzilla.util.io;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+import static org.junit.Assert.*;
+
+public class FilesystemWatchHubTest {
+
+    private File tempDir;
+    private FilesystemWatchHub hub;
+
+    @Before public void setup () throws Exception {
+        tempDir = Files.createTempDir();
+        hub = new FilesystemWatchHub(Executors.newFixedThreadPool(2));
+    }
+
+    @After public void teardown () throws Exception {
+        hub.close();
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test public void testRecursiveWatch () throws Exception {
+        final File existing = new File(tempDir, "a/b");
+        assertTrue(existing.mkdirs());
+
+        final Map<Path, FilesystemWatchEvent> seen = new ConcurrentHashMap<>();
+        final FilesystemWatchListener listener = (List<FilesystemWatchEvent> events) -> {
+            for (FilesystemWatchEvent e : events) seen.putIfAbsent(e.context(), e);
+        };
+        hub.watch(tempDir.toPath(), listener);
+        assertEquals(3, hub.getWatchedDirs());
+
+        // changes in an existing subdirectory are seen
+        FileUtil.toFile(new File(existing, "one.txt"), "one");
+        awaitEvent(seen, "a/b/one.txt");
+        assertEquals(ENTRY_CREATE, seen.get(tempDir.toPath().relativize(new File(existing, "one.txt").toPath())).kind());
+
+        // new directories are watched, and files created in them are seen
+        final File created = new File(tempDir, "c/d");
+        assertTrue(created.mkdirs());
+        awaitEvent(seen, "c/d");
+        FileUtil.toFile(new File(created, "two.txt"), "two");
+        awaitEvent(seen, "c/d/two.txt");
+        assertEquals(5, hub.getWatchedDirs());
+    }
+
+    @Test public void testReplacedDirs () throws Exception {
+        final File root = new File(tempDir, "root");
+        final File sub = new File(root, "sub");
+        assertTrue(sub.mkdirs());
+
+        final Map<Path, FilesystemWatchEvent> seen = new ConcurrentHashMap<>();
+        final FilesystemWatchListener listener = (List<FilesystemWatchEvent> events) -> {
+            for (FilesystemWatchEvent e : events) seen.putIfAbsent(e.context(), e);
+        };
+        final FilesystemWatchHub.Registration registration = hub.watch(root.toPath(), true, 100, listener);
+
+        // rm -rf sub && mkdir sub: the new directory is watched, even if the events coalesce to a modification
+        FileUtils.deleteDirectory(sub);
+        assertTrue(sub.mkdir());
+        awaitEvent(seen, "root/sub", root);
+        FileUtil.toFile(new File(sub, "one.txt"), "one");
+        awaitEvent(seen, "root/sub/one.txt", root);
+
+        // rm -rf root && mkdir root: the root is watched again once it exists
+        FileUtils.deleteDirectory(root);
+        final long start = now();
+        while (!registration.isPending() && now() - start < TimeUnit.SECONDS.toMillis(10)) Thread.sleep(50);
+        assertTrue(registration.isPending());
+        assertTrue(root.mkdir());
+        while (registration.isPending() && now() - start < TimeUnit.SECONDS.toMillis(10)) Thread.sleep(50);
+        assertFalse(registration.isPending());
+        FileUtil.toFile(new File(root, "two.txt"), "two");
+        awaitEvent(seen, "root/two.txt", root);
+    }
+
+    private void awaitEvent(Map<Path, FilesystemWatchEvent> seen, String path, File root) throws InterruptedException {
+        awaitEvent(seen, root.toPath().relativize(new File(tempDir, path).toPath()).toString());
+    }
+
+    private void awaitEvent(Map<Path, FilesystemWatchEvent> seen, String path) throws InterruptedException {
+        final Path p = tempDir.toPath().getFileSystem().getPath(path);
+        final long start = now();
+        while (!seen.containsKey(p) && now() - start < TimeUnit.SECONDS.toMillis(10)) Thread.sleep(50);
+        assertTrue("no event for "+path+", saw "+seen.keySet(), seen.containsKey(p));
+    }
+
+}
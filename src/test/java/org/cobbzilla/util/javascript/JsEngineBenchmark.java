@@ -0,0 +1,61 @@
+package org.cobbzilla.util.javascript;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.script.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.cobbzilla.util.javascript.StandardJsEngine.STANDARD_FUNCTIONS;
+
+/**
+ * Compares JsEngine's compiled-script evaluation against the original approach of evaluating the standard library
+ * and the expression together, as source, in a fresh context for every call.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.cobbzilla.util.javascript.JsEngineBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2) @Measurement(iterations = 5, time = 2) @Fork(1)
+public class JsEngineBenchmark {
+
+    private static final String BOOLEAN_EXPR = "gt(x, 3) && found(name, ['a', 'b', 'c'])";
+    private static final String INT_EXPR = "Math.round(pct(x, 250))";
+
+    private ScriptEngine legacyEngine;
+    private StandardJsEngine jsEngine;
+    private Map<String, Object> ctx;
+
+    @Setup public void setup () {
+        legacyEngine = new ScriptEngineManager().getEngineByName("nashorn");
+        jsEngine = new StandardJsEngine();
+        ctx = new HashMap<>();
+        ctx.put("x", 7);
+        ctx.put("name", "b");
+    }
+
+    private Object legacyEvaluate (String code) throws ScriptException {
+        final ScriptContext scriptContext = new SimpleScriptContext();
+        scriptContext.setBindings(new SimpleBindings(new HashMap<>(ctx)), ScriptContext.ENGINE_SCOPE);
+        return legacyEngine.eval(STANDARD_FUNCTIONS+"\n"+code, scriptContext);
+    }
+
+    @Benchmark public boolean legacyEvaluateBoolean () throws ScriptException {
+        return Boolean.valueOf(String.valueOf(legacyEvaluate(BOOLEAN_EXPR)));
+    }
+
+    @Benchmark public int legacyEvaluateInt () throws ScriptException {
+        return ((Number) legacyEvaluate(INT_EXPR)).intValue();
+    }
+
+    @Benchmark public boolean compiledEvaluateBoolean () { return jsEngine.evaluateBoolean(BOOLEAN_EXPR, ctx); }
+
+    @Benchmark public int compiledEvaluateInt () { return jsEngine.evaluateInt(INT_EXPR, ctx); }
+
+    public static void main (String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(JsEngineBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
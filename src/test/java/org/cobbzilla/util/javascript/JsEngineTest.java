@@ -0,0 +1,87 @@
+package org.cobbzilla.util.javascript;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class JsEngineTest {
+
+    @Test public void testCompiledEvaluation () throws Exception {
+        final StandardJsEngine engine = new StandardJsEngine();
+        for (int i=0; i<5; i++) {
+            final Map<String, Object> ctx = new HashMap<>();
+            ctx.put("x", i);
+            assertEquals(i > 3, engine.evaluateBoolean("gt(x, 3)", ctx));
+            assertEquals(Integer.valueOf(i * 2), engine.evaluateInt("x * 2", ctx));
+        }
+
+        // variables from one evaluation are not visible to the next
+        final Map<String, Object> ctx = new HashMap<>();
+        ctx.put("y", 10);
+        assertEquals(Integer.valueOf(11), engine.evaluateInt("var z = y + 1; z", ctx));
+        assertEquals("undefined", engine.evaluateString("typeof y + ''", new HashMap<>()));
+        assertEquals("undefined", engine.evaluateString("typeof z + ''", new HashMap<>()));
+
+        // a context value may shadow a library function for one evaluation only
+        ctx.clear();
+        ctx.put("len", 42);
+        assertEquals(Integer.valueOf(42), engine.evaluateInt("len", ctx));
+        assertEquals(Integer.valueOf(3), engine.evaluateInt("len([1, 2, 3])", new HashMap<>()));
+
+        // a script that reassigns or deletes a library global does not change it for later evaluations
+        assertEquals("replaced", engine.evaluateString("gt = function (x, y) { return 'replaced'; }; gt(1, 2)", new HashMap<>()));
+        assertTrue(engine.evaluateBoolean("gt(2, 1)", new HashMap<>()));
+        engine.evaluateString("delete this.gt; typeof gt + ''", new HashMap<>());
+        assertTrue(engine.evaluateBoolean("gt(2, 1)", new HashMap<>()));
+    }
+
+    @Test public void testEnginePool () throws Exception {
+        final String slow = "java.lang.Thread.sleep(sleep); 1";
+        final JsEngine engine = new JsEngine(new JsEngineConfig(0, 2, null)
+                .setAcquireTimeout(100)
+                .setIdleTimeout(200)
+                .setWarmupScripts(new String[] {"1 + 1"}));
+
+        // two slow evaluations hold both engines
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        final List<Future<Integer>> futures = new ArrayList<>();
+        for (int i=0; i<2; i++) futures.add(pool.submit(() -> engine.evaluateInt(slow, sleepContext(500))));
+        Thread.sleep(200);
+        assertEquals(2, engine.getInUse());
+        assertEquals(2, engine.getNumEngines());
+
+        // a third caller waits, then times out
+        try {
+            engine.evaluateInt("1", new HashMap<>());
+            fail("expected timeout");
+        } catch (RuntimeException expected) {}
+        assertEquals(1, engine.getTimeouts());
+
+        for (Future<Integer> f : futures) assertEquals(Integer.valueOf(1), f.get());
+        pool.shutdown();
+        assertEquals(0, engine.getInUse());
+        assertEquals(2, engine.getCreated());
+
+        // after idleTimeout, the unused engine is discarded
+        Thread.sleep(300);
+        assertEquals(Integer.valueOf(2), engine.evaluateInt("1 + 1", new HashMap<>()));
+        assertEquals(1, engine.getNumEngines());
+        assertEquals(1, engine.getDestroyed());
+        assertEquals(3, engine.getAcquired());
+    }
+
+    private Map<String, Object> sleepContext(long millis) {
+        final Map<String, Object> ctx = new HashMap<>();
+        ctx.put("sleep", millis);
+        return ctx;
+    }
+
+}
@@ -1,18 +1,28 @@
 package org.cobbzilla.util.json;
 
+import org.apache.commons.io.FileUtils;
+import org.cobbzilla.util.io.FileUtil;
 import org.cobbzilla.util.io.StreamUtil;
 import org.cobbzilla.util.json.data.TestData;
 import org.cobbzilla.util.string.StringUtil;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Random;
 
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphabetic;
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
+import static org.cobbzilla.util.io.FileUtil.abs;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class JsonEditTest {
 
@@ -153,6 +163,77 @@ public class JsonEditTest {
         assertNull(JsonUtil.fromJson(result, TestData.class).thing.field2);
     }
 
+    @Test public void testBatchEdit() throws Exception {
+        final File inDir = FileUtil.createTempDirOrDie(getClass().getSimpleName()+"-in");
+        final File outDir = FileUtil.createTempDirOrDie(getClass().getSimpleName()+"-out");
+        try {
+            final String json = StreamUtil.loadResourceAsString(TEST_JSON);
+            final int numFiles = 20;
+            for (int i=0; i<numFiles; i++) FileUtil.toFile(new File(inDir, "sub"+(i%3)+"/test"+i+".json"), json);
+            FileUtil.toFile(new File(inDir, "broken.json"), "{ not json");
+
+            final String rand = randomAlphanumeric(10);
+            final JsonEditBatchResult result = new JsonEditBatch()
+                    .addOperation(new JsonEditOperation()
+                            .setType(JsonEditOperationType.write)
+                            .setPath("thing.field3")
+                            .setJson("\""+rand+"\""))
+                    .addOperation(new JsonEditOperation()
+                            .setType(JsonEditOperationType.delete)
+                            .setPath("thing.field2"))
+                    .addInput(inDir)
+                    .setOutputDir(outDir)
+                    .setParallel(4)
+                    .run();
+
+            assertEquals(numFiles+1, result.getCount());
+            assertEquals(numFiles, result.getSuccessCount());
+            assertEquals(1, result.getFailureCount());
+            assertEquals("broken.json", result.getFailures().get(0).getInput().getName());
+            for (int i=0; i<numFiles; i++) {
+                final File out = new File(outDir, "sub"+(i%3)+"/test"+i+".json");
+                assertEquals(rand, JsonUtil.fromJson(out, "thing.field3", String.class));
+                assertNull(JsonUtil.fromJson(out, "thing.field2", Object.class));
+            }
+
+            // two files with the same name cannot both be written to the output directory
+            try {
+                new JsonEditBatch()
+                        .addOperation(new JsonEditOperation()
+                                .setType(JsonEditOperationType.delete)
+                                .setPath("thing.field2"))
+                        .addInput(new File(inDir, "sub0/test0.json"))
+                        .addInput(new File(inDir, "sub1/test1.json"))
+                        .addInput(new File(outDir, "sub0/test0.json"))
+                        .setOutputDir(outDir)
+                        .run();
+                fail("expected duplicate output to be rejected");
+            } catch (IllegalStateException expected) {
+                assertTrue(expected.getMessage().contains("would both be written to"));
+            }
+
+            // glob inputs, edited in place, keeping each file's permissions
+            final Path secret = new File(inDir, "sub0/test3.json").toPath();
+            final boolean posix = Files.getFileAttributeView(secret, PosixFileAttributeView.class) != null;
+            if (posix) Files.setPosixFilePermissions(secret, PosixFilePermissions.fromString("rw-------"));
+            final JsonEditBatchResult inPlace = new JsonEditBatch()
+                    .addOperation(new JsonEditOperation()
+                            .setType(JsonEditOperationType.write)
+                            .setPath("thing.field3")
+                            .setJson("true"))
+                    .addInput(abs(inDir)+"/sub0/*.json")
+                    .run();
+            assertEquals(7, inPlace.getSuccessCount());
+            assertTrue(JsonUtil.fromJson(new File(inDir, "sub0/test0.json"), "thing.field3", Boolean.class));
+            assertEquals(0, FileUtil.listFiles(new File(inDir, "sub0"), f -> !f.getName().endsWith(".json")).length);
+            if (posix) assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(secret)));
+
+        } finally {
+            FileUtils.deleteQuietly(inDir);
+            FileUtils.deleteQuietly(outDir);
+        }
+    }
+
     private InputStream testJson() throws IOException {
         return StreamUtil.loadResourceAsStream(TEST_JSON);
     }
@@ -0,0 +1,66 @@
+package org.cobbzilla.util.json;
+
+import org.cobbzilla.util.json.data.TestData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.processorCount;
+import static org.cobbzilla.util.json.JsonUtil.fromJsonOrDie;
+import static org.cobbzilla.util.string.StringUtil.UTF8cs;
+
+/**
+ * Compares records/sec for reading JSON lines with JsonLinesReader against calling fromJsonOrDie once per line.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.cobbzilla.util.json.JsonLinesBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2) @Measurement(iterations = 5, time = 2) @Fork(1)
+@OperationsPerInvocation(JsonLinesBenchmark.RECORDS)
+public class JsonLinesBenchmark {
+
+    public static final int RECORDS = 10_000;
+
+    private byte[] data;
+
+    @Setup public void setup () throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonLinesWriter<TestData.Field2> writer = JsonLines.writer(out, JsonUtil.FULL_MAPPER)) {
+            for (int i=0; i<RECORDS; i++) {
+                final TestData.Field2 f = new TestData.Field2();
+                f.subfieldA = "record-"+i;
+                f.subB = "value-"+i+"-abcdefghijklmnopqrstuvwxyz";
+                writer.write(f);
+            }
+        }
+        data = out.toByteArray();
+    }
+
+    @Benchmark public void fromJsonPerLine (Blackhole bh) throws IOException {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), UTF8cs))) {
+            String line;
+            while ((line = r.readLine()) != null) bh.consume(fromJsonOrDie(line, TestData.Field2.class));
+        }
+    }
+
+    @Benchmark public void jsonLinesReader (Blackhole bh) throws IOException {
+        try (JsonLinesReader<TestData.Field2> r = JsonLines.reader(new ByteArrayInputStream(data), TestData.Field2.class, JsonUtil.FULL_MAPPER)) {
+            while (r.hasNext()) bh.consume(r.next());
+        }
+    }
+
+    @Benchmark public void parallelJsonLinesReader (Blackhole bh) throws IOException {
+        try (JsonLinesReader<TestData.Field2> r = JsonLines.parallelReader(new ByteArrayInputStream(data), TestData.Field2.class, JsonUtil.FULL_MAPPER, processorCount(), JsonLines.DEFAULT_BATCH_SIZE)) {
+            while (r.hasNext()) bh.consume(r.next());
+        }
+    }
+
+    public static void main (String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(JsonLinesBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -10,7 +10,10 @@ import org.cobbzilla.util.json.data.TestData;
 import org.cobbzilla.util.string.StringUtil;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.StringWriter;
 import java.util.*;
 
 import static org.cobbzilla.util.io.FileUtil.getDefaultTempDir;
@@ -18,6 +21,7 @@ import static org.cobbzilla.util.json.JsonUtil.json;
 import static org.cobbzilla.util.json.JsonUtil.toJson;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class JsonUtilTest {
 
@@ -59,6 +63,105 @@ public class JsonUtilTest {
         String getValue(TestData testData);
     }
 
+    private static final String[] STREAM_PATHS = {
+            "", "id", "thing", "thing.field1", "thing.field1[0]", "thing.field1[2]", "thing.field1[5]",
+            "thing.field2.subB", "another_thing.'fieldZ'.nested.deeper.quux", "another_thing.fieldZ.missing",
+            "id.notAnObject", "thing[0]", "thing.field1[]"
+    };
+
+    @Test public void testStreamingExtract () throws Exception {
+        final String testJson = StreamUtil.loadResourceAsString(TEST_JSON);
+        final JsonNode tree = json(testJson, JsonNode.class);
+        for (String path : STREAM_PATHS) {
+            assertEquals("wrong value for path: "+path, JsonUtil.findNode(tree, path), JsonUtil.fromJson(testJson, path, JsonNode.class));
+            assertEquals("wrong value for path: "+path,
+                    JsonUtil.fromJson(tree, path, Object.class),
+                    JsonUtil.fromJson(new ByteArrayInputStream(testJson.getBytes()), path, Object.class));
+        }
+    }
+
+    @Test public void testCompiledPath () throws Exception {
+        final String testJson = StreamUtil.loadResourceAsString(TEST_JSON);
+        final JsonNode tree = json(testJson, JsonNode.class);
+        for (String path : STREAM_PATHS) {
+            final JsonPath jsonPath = JsonPath.path(path);
+            assertTrue("path not cached: "+path, jsonPath == JsonPath.path(path));
+            assertEquals("wrong value for path: "+path, JsonUtil.findNode(tree, path), JsonUtil.findNode(tree, jsonPath));
+        }
+        final JsonPath path = JsonPath.path("another_thing.'fieldZ.x'[3]");
+        assertEquals(2, path.getNumPathSegments());
+        assertEquals(3, path.size());
+        assertEquals("fieldZ.x", path.segment(1).getName());
+        assertEquals((Integer) 3, path.getIndex());
+
+        // invalid paths throw their own exceptions, unwrapped, every time
+        for (int i=0; i<2; i++) {
+            try {
+                JsonPath.path("a[x]");
+                fail("expected NumberFormatException");
+            } catch (NumberFormatException expected) {}
+            try {
+                JsonPath.path("a[1");
+                fail("expected unterminated bracket to be rejected");
+            } catch (IllegalStateException expected) {}
+        }
+    }
+
+    @Test public void testWriteJson () throws Exception {
+        final TestData data = JsonUtil.fromJson(StreamUtil.loadResourceAsString(TEST_JSON), TestData.class);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonUtil.writeJson(data, out);
+        assertEquals(json(data), out.toString());
+
+        final StringWriter writer = new StringWriter();
+        JsonUtil.writeJson(data, writer, JsonUtil.FULL_MAPPER);
+        assertEquals(json(data, JsonUtil.FULL_MAPPER), writer.toString());
+
+        final File file = new File(getDefaultTempDir(), "writeJson-"+RandomStringUtils.randomAlphanumeric(10)+".json");
+        try {
+            FileUtil.toFile(file, "not json");
+            JsonUtil.writeJson(data, file);
+            assertEquals(json(data), FileUtil.toString(file));
+        } finally {
+            FileUtil.deleteOrDie(file);
+        }
+    }
+
+    @Test public void testJsonLines () throws Exception {
+        final File file = new File(getDefaultTempDir(), "jsonLines-"+RandomStringUtils.randomAlphanumeric(10)+".jsonl.gz");
+        final int numRecords = 2500;
+        try {
+            // write in two sessions, to test appending
+            try (JsonLinesWriter<TestData.Field2> writer = JsonLines.writer(file)) {
+                for (int i=0; i<numRecords/2; i++) writer.write(field2(i));
+            }
+            try (JsonLinesWriter<TestData.Field2> writer = JsonLines.writer(file, true)) {
+                for (int i=numRecords/2; i<numRecords; i++) writer.write(field2(i));
+            }
+
+            try (JsonLinesReader<TestData.Field2> reader = JsonLines.reader(file, TestData.Field2.class)) {
+                int i = 0;
+                while (reader.hasNext()) assertEquals(field2(i++).subB, reader.next().subB);
+                assertEquals(numRecords, i);
+            }
+            try (JsonLinesReader<TestData.Field2> reader = JsonLines.parallelReader(file, TestData.Field2.class, JsonUtil.FULL_MAPPER, 4, 100)) {
+                int i = 0;
+                while (reader.hasNext()) assertEquals(field2(i++).subB, reader.next().subB);
+                assertEquals(numRecords, i);
+            }
+        } finally {
+            FileUtil.deleteOrDie(file);
+        }
+    }
+
+    private TestData.Field2 field2(int i) {
+        final TestData.Field2 f = new TestData.Field2();
+        f.subfieldA = "record";
+        f.subB = "value-"+i;
+        return f;
+    }
+
     @Test public void testMerge () throws Exception {
         final String orig = StreamUtil.stream2string(PREFIX + "/merge/test1_orig.json");
         final String request = StreamUtil.stream2string(PREFIX + "/merge/test1_request.json");
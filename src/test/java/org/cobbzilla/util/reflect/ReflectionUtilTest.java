@@ -5,6 +5,10 @@ import lombok.Getter;
 import lombok.Setter;
 import org.junit.Test;
 
+import java.beans.Transient;
+import java.util.HashMap;
+import java.util.Map;
+
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.fail;
@@ -27,6 +31,20 @@ public class ReflectionUtilTest {
         }
     }
 
+    public static class Nested {
+        @Getter @Setter private Dummy dummy;
+        @Getter @Setter private boolean active;
+        @Getter @Setter private long count;
+        @Getter @Setter private Map<String, Object> props = new HashMap<>();
+    }
+
+    public static class Copyable {
+        @Getter @Setter private String name;
+        @Getter @Setter private Long size;
+        @Setter private String secret;
+        @Transient public String getSecret () { return secret; }
+    }
+
     private static final String ID = "id";
     public static final String NAME = "name";
 
@@ -59,4 +77,63 @@ public class ReflectionUtilTest {
 
 
     }
+
+    @Test public void testNestedGetSet () throws Exception {
+        final Nested nested = new Nested();
+        nested.setDummy(new Dummy(1L, NAME));
+
+        for (int i=0; i<3; i++) {
+            // repeat so cached accessors and paths are exercised
+            assertEquals(NAME, ReflectionUtil.get(nested, "dummy.name"));
+            ReflectionUtil.set(nested, "dummy.id", 42L+i);
+            assertEquals(42L+i, ReflectionUtil.get(nested, "dummy.id"));
+        }
+
+        // isX getters and primitive setters
+        ReflectionUtil.set(nested, "active", true);
+        assertEquals(Boolean.TRUE, ReflectionUtil.get(nested, "active"));
+        ReflectionUtil.set(nested, "count", 7L);
+        assertEquals(7L, ReflectionUtil.get(nested, "count"));
+
+        // Map fallback
+        nested.getProps().put("key", "value");
+        assertEquals("value", ReflectionUtil.get(nested, "props.key"));
+
+        assertEquals(true, ReflectionUtil.hasGetter(nested, "dummy.name"));
+        assertEquals(false, ReflectionUtil.hasGetter(nested, "dummy.nothing"));
+        try {
+            ReflectionUtil.get(nested, "dummy.nothing");
+            fail("should not have been able to get a nonexistent property");
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    @Test public void testCopy () throws Exception {
+        final Copyable src = new Copyable();
+        src.setName("name");
+        src.setSecret("secret");
+
+        for (int i=0; i<2; i++) {
+            final Copyable dest = new Copyable();
+            dest.setSize(5L);
+            // size is null on src and secret is @Transient: only name is copied
+            assertEquals(1, ReflectionUtil.copy(dest, src));
+            assertEquals("name", dest.getName());
+            assertEquals((Long) 5L, dest.getSize());
+            assertNull(dest.getSecret());
+
+            // already equal: nothing to copy
+            assertEquals(0, ReflectionUtil.copy(dest, src));
+        }
+
+        src.setSize(10L);
+        final Copyable dest = new Copyable();
+        assertEquals(1, ReflectionUtil.copy(dest, src, null, new String[] {"name"}));
+        assertNull(dest.getName());
+        assertEquals((Long) 10L, dest.getSize());
+
+        final Map<String, Object> map = ReflectionUtil.toMap(src);
+        assertEquals("name", map.get("name"));
+        assertEquals(10L, map.get("size"));
+        assertEquals(false, map.containsKey("secret"));
+    }
 }